@@ -0,0 +1,46 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.zigbee.benchmark;
+
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks of the Zigbee binding. The command line takes the
+ * standard JMH options. Unless another result file is given, the results
+ * are written as JSON to <code>target/jmh-result.json</code> so that
+ * they can be compared between runs.
+ * @author Brian Crosby
+ * @since 1.5.0
+ */
+public class BenchmarkRunner {
+
+	private static final String RESULT_FILE = "target/jmh-result.json";
+
+	public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+		OptionsBuilder builder = new OptionsBuilder();
+		builder.parent(commandLine);
+		if (commandLine.getIncludes().isEmpty())
+			builder.include(BenchmarkRunner.class.getPackage().getName() + ".*");
+		if (!commandLine.getResult().hasValue()) {
+			builder.resultFormat(ResultFormatType.JSON);
+			builder.result(RESULT_FILE);
+		}
+
+		Options options = builder.build();
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,65 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.zigbee.benchmark;
+
+
+import java.util.concurrent.TimeUnit;
+
+import org.openhab.binding.zigbee.internal.ZigbeeGenericBindingProvider;
+import org.openhab.core.items.Item;
+import org.openhab.core.library.items.SwitchItem;
+import org.openhab.model.item.binding.BindingConfigParseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Parsing of binding configurations by
+ * {@link ZigbeeGenericBindingProvider#processBindingConfiguration(String, Item, String)}.
+ * @author Brian Crosby
+ * @since 1.5.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BindingProviderBenchmark {
+
+	private static final int ITEMS = 1000;
+	private static final String CONTEXT = "benchmark.items";
+
+	private Item[] items;
+	private String[] configs;
+	private ZigbeeGenericBindingProvider provider;
+
+	@Setup
+	public void setup() {
+		items = new Item[ITEMS];
+		configs = new String[ITEMS];
+		for (int i = 0; i < ITEMS; i++) {
+			items[i] = new SwitchItem("Switch" + i);
+			configs[i] = String.format("00-17-88-01-00-%02x-%02x-%02x:%d:refresh_interval=60,group=%d",
+					i >> 16 & 0xFF, i >> 8 & 0xFF, i & 0xFF, 1 + i % 4, i % 8);
+		}
+		provider = new ZigbeeGenericBindingProvider();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(ITEMS)
+	public ZigbeeGenericBindingProvider processBindingConfiguration() throws BindingConfigParseException {
+		provider.removeConfigurations(CONTEXT);
+		for (int i = 0; i < ITEMS; i++)
+			provider.processBindingConfiguration(CONTEXT, items[i], configs[i]);
+		return provider;
+	}
+}
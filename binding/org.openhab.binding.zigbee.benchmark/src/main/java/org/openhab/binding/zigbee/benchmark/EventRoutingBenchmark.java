@@ -0,0 +1,119 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.zigbee.benchmark;
+
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.TimeUnit;
+
+import org.bubblecloud.zigbee.api.Device;
+import org.openhab.binding.zigbee.ZigbeeBindingProvider;
+import org.openhab.binding.zigbee.internal.ZigbeeGenericBindingProvider;
+import org.openhab.binding.zigbee.internal.protocol.ZigbeeAttributeCache;
+import org.openhab.binding.zigbee.internal.protocol.ZigbeeDeviceRegistry;
+import org.openhab.binding.zigbee.internal.protocol.ZigbeeEndpointKey;
+import org.openhab.core.library.items.SwitchItem;
+import org.openhab.model.item.binding.BindingConfigParseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Routing of a device event to the bound items, the way the active
+ * binding does it with thousands of items: the network address and
+ * endpoint of the event are looked up in the device registry, and the
+ * items are taken from the endpoint index of the providers.
+ * @author Brian Crosby
+ * @since 1.5.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EventRoutingBenchmark {
+
+	private static final int ITEMS_PER_ENDPOINT = 2;
+	private static final int ENDPOINT = 1;
+
+	@Param({ "1000", "5000" })
+	public int items;
+
+	private ZigbeeBindingProvider[] providers;
+	private ZigbeeDeviceRegistry registry;
+	private int endpoints;
+	private int next = 0;
+
+	@Setup
+	public void setup() throws BindingConfigParseException {
+		ZigbeeGenericBindingProvider provider = new ZigbeeGenericBindingProvider();
+		registry = new ZigbeeDeviceRegistry(new ZigbeeAttributeCache());
+		endpoints = items / ITEMS_PER_ENDPOINT;
+		for (int device = 0; device < endpoints; device++) {
+			String address = String.format("00:17:88:01:00:%02x:%02x:%02x", device >> 16 & 0xFF, device >> 8 & 0xFF, device & 0xFF);
+			registry.deviceAdded(createDevice(address, getNetworkAddress(device), ENDPOINT));
+		}
+		for (int i = 0; i < items; i++) {
+			int device = i % endpoints;
+			String address = String.format("00-17-88-01-00-%02x-%02x-%02x", device >> 16 & 0xFF, device >> 8 & 0xFF, device & 0xFF);
+			provider.processBindingConfiguration("benchmark.items", new SwitchItem("Switch" + i), address + ":" + ENDPOINT);
+		}
+		providers = new ZigbeeBindingProvider[] { provider };
+	}
+
+	@Benchmark
+	public void routeEvent(Blackhole blackhole) {
+		int networkAddress = getNetworkAddress(next);
+		next = (next + 1) % endpoints;
+
+		ZigbeeEndpointKey endpointKey = registry.getEndpointKey(networkAddress, ENDPOINT);
+		for (ZigbeeBindingProvider provider : providers) {
+			for (String itemName : provider.getItemNamesForEndpoint(endpointKey.getIeeeAddress(), endpointKey.getEndpoint()))
+				blackhole.consume(provider.getZigbeeBindingConfig(itemName));
+		}
+	}
+
+	private static int getNetworkAddress(int device) {
+		return 0x1000 + device;
+	}
+
+	/**
+	 * Creates a device that only knows its addresses, which is all the registry uses.
+	 */
+	private static Device createDevice(final String ieeeAddress, final int networkAddress, final int endpoint) {
+		return (Device) Proxy.newProxyInstance(Device.class.getClassLoader(), new Class<?>[] { Device.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						String name = method.getName();
+						if (name.equals("getIEEEAddress"))
+							return ieeeAddress;
+						if (name.equals("getNetworkAddress"))
+							return networkAddress;
+						if (name.equals("getEndPointAddress"))
+							return (short) endpoint;
+						if (name.equals("getEndpointId"))
+							return ieeeAddress + "/" + endpoint;
+						if (name.equals("hashCode"))
+							return System.identityHashCode(proxy);
+						if (name.equals("equals"))
+							return proxy == args[0];
+						if (name.equals("toString"))
+							return ieeeAddress + "/" + endpoint;
+						throw new UnsupportedOperationException(name);
+					}
+				});
+	}
+}
@@ -0,0 +1,161 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.zigbee.benchmark;
+
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openhab.binding.zigbee.internal.protocol.SerialMessage;
+import org.openhab.binding.zigbee.internal.protocol.SocketMessage;
+import org.openhab.binding.zigbee.internal.protocol.SerialMessage.SerialMessageClass;
+import org.openhab.binding.zigbee.internal.protocol.SerialMessage.SerialMessagePriority;
+import org.openhab.binding.zigbee.internal.protocol.SerialMessage.SerialMessageType;
+import org.openhab.binding.zigbee.internal.protocol.SocketMessage.SocketMessageClass;
+import org.openhab.binding.zigbee.internal.protocol.SocketMessage.SocketMessagePriority;
+import org.openhab.binding.zigbee.internal.protocol.SocketMessage.SocketMessageType;
+import org.openhab.binding.zigbee.internal.protocol.ZigbeeFrameDecoder;
+import org.openhab.binding.zigbee.internal.protocol.ZigbeeFrameView;
+import org.openhab.binding.zigbee.internal.protocol.ZigbeeHexDump;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Encoding and decoding of the messages exchanged with the controller.
+ * @author Brian Crosby
+ * @since 1.5.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class MessageBenchmark {
+
+	private static final int FRAMES_PER_READ = 16;
+
+	@Param({ "8", "64" })
+	public int payloadSize;
+
+	private SocketMessage socketMessage;
+	private SerialMessage serialMessage;
+	private byte[] serialFrame;
+	private ByteBuffer buffer;
+	private ZigbeeFrameDecoder decoder;
+	private ZigbeeFrameView view;
+	private RepeatingChannel channel;
+
+	@Setup
+	public void setup() {
+		byte[] payload = new byte[payloadSize];
+		new Random(42).nextBytes(payload);
+
+		socketMessage = new SocketMessage(1, SocketMessageClass.SendData, SocketMessageType.Request,
+				SocketMessageClass.SendData, SocketMessagePriority.Set);
+		socketMessage.setMessagePayload(payload);
+		socketMessage.setCallbackId(0x42);
+		buffer = ByteBuffer.allocateDirect(socketMessage.getFrameLength());
+
+		serialMessage = new SerialMessage(1, SerialMessageClass.SendData, SerialMessageType.Request,
+				SerialMessageClass.SendData, SerialMessagePriority.Set);
+		serialMessage.setMessagePayload(payload);
+		serialFrame = serialMessage.getMessageBuffer();
+
+		// Several gateway frames as they arrive in a single read.
+		ByteBuffer frames = ByteBuffer.allocate(FRAMES_PER_READ * (payloadSize + 3));
+		for (int i = 0; i < FRAMES_PER_READ; i++) {
+			frames.put((byte) ((payloadSize + 1) & 0xFF));
+			frames.put((byte) ((payloadSize + 1) >> 8));
+			frames.put((byte) i);
+			frames.put(payload);
+		}
+		channel = new RepeatingChannel(frames.array());
+		decoder = new ZigbeeFrameDecoder();
+		view = new ZigbeeFrameView();
+	}
+
+	@Benchmark
+	public int encodeSocketMessage() {
+		buffer.clear();
+		socketMessage.encodeFrame(buffer);
+		return buffer.position();
+	}
+
+	@Benchmark
+	public byte[] socketMessageBuffer() {
+		return socketMessage.getMessageBuffer();
+	}
+
+	@Benchmark
+	public SerialMessage decodeSerialMessage() {
+		return new SerialMessage(serialFrame);
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(FRAMES_PER_READ)
+	public void decodeGatewayFrames(Blackhole blackhole) throws IOException {
+		decoder.readFrom(channel);
+		while (decoder.next(view)) {
+			blackhole.consume(view.getCallbackId());
+			blackhole.consume(view.getPayloadByte(0));
+		}
+	}
+
+	@Benchmark
+	public String hexDump() {
+		return ZigbeeHexDump.toHex(serialFrame);
+	}
+
+	@Benchmark
+	public String toStringMessage() {
+		return socketMessage.toString();
+	}
+
+	/**
+	 * Channel that returns the same data over and over, as an endless stream.
+	 */
+	private static class RepeatingChannel implements ReadableByteChannel {
+		private final byte[] data;
+		private int offset = 0;
+
+		RepeatingChannel(byte[] data) {
+			this.data = data;
+		}
+
+		@Override
+		public int read(ByteBuffer dst) {
+			int read = 0;
+			while (dst.hasRemaining() && read < data.length) {
+				int length = Math.min(dst.remaining(), data.length - offset);
+				dst.put(data, offset, length);
+				offset = (offset + length) % data.length;
+				read += length;
+			}
+			return read;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+}
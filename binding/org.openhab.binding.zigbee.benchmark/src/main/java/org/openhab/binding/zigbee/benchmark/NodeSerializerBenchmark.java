@@ -0,0 +1,103 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.zigbee.benchmark;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openhab.binding.zigbee.internal.protocol.NodeStage;
+import org.openhab.binding.zigbee.internal.protocol.ZigbeeDeviceClass.Basic;
+import org.openhab.binding.zigbee.internal.protocol.ZigbeeDeviceClass.Generic;
+import org.openhab.binding.zigbee.internal.protocol.ZigbeeDeviceClass.Specific;
+import org.openhab.binding.zigbee.internal.protocol.ZigbeeEndpoint;
+import org.openhab.binding.zigbee.internal.protocol.ZigbeeNode;
+import org.openhab.binding.zigbee.internal.protocol.commandclass.ZigbeeCommandClass;
+import org.openhab.binding.zigbee.internal.protocol.commandclass.ZigbeeCommandClass.CommandClass;
+import org.openhab.binding.zigbee.internal.protocol.commandclass.ZigbeeMultiInstanceCommandClass;
+import org.openhab.binding.zigbee.internal.protocol.initialization.ZigbeeNodeSerializer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Serializing and deserializing a fully interviewed node through the
+ * snapshot format of the node serializer, which is what saving a node
+ * and loading it when the binding starts cost on top of the node store.
+ * @author Brian Crosby
+ * @since 1.5.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NodeSerializerBenchmark {
+
+	private static final long NODE_ID = 0x00124B0001A2B3C4L;
+	private static final int ENDPOINTS = 4;
+	private static final int NEIGHBORS = 12;
+
+	private ZigbeeNode node;
+	private byte[] snapshot;
+
+	@Setup
+	public void setup() throws IOException {
+		node = new ZigbeeNode(0, NODE_ID, null);
+		node.setVersion(3);
+		node.setName("Living room multi sensor");
+		node.setLocation("Living room");
+		node.setManufacturer(0x1002);
+		node.setDeviceId(0x0302);
+		node.setDeviceType(0x0001);
+		node.setListening(true);
+		node.setRouting(true);
+		node.getDeviceClass().setBasicDeviceClass(Basic.ROUTING_SLAVE);
+		node.getDeviceClass().setGenericDeviceClass(Generic.NOT_KNOWN);
+		node.getDeviceClass().setSpecificDeviceClass(Specific.NOT_USED);
+		for (int i = 0; i < NEIGHBORS; i++)
+			node.addNeighbor(i + 1);
+
+		node.addCommandClass(ZigbeeCommandClass.getInstance(CommandClass.SCENE_ACTIVATION.getKey(), node, null));
+		node.addCommandClass(ZigbeeCommandClass.getInstance(CommandClass.HAIL.getKey(), node, null));
+
+		// Every endpoint has its own switch, as on a multi channel device
+		ZigbeeMultiInstanceCommandClass multiInstance = (ZigbeeMultiInstanceCommandClass)
+				ZigbeeCommandClass.getInstance(CommandClass.MULTI_INSTANCE.getKey(), node, null);
+		multiInstance.setVersion(2);
+		for (int i = 1; i <= ENDPOINTS; i++) {
+			ZigbeeEndpoint endpoint = new ZigbeeEndpoint(i);
+			endpoint.addCommandClass(ZigbeeCommandClass.getInstance(CommandClass.BASIC.getKey(), node, null, endpoint));
+			endpoint.addCommandClass(ZigbeeCommandClass.getInstance(CommandClass.SWITCH_BINARY.getKey(), node, null, endpoint));
+			multiInstance.addEndpoint(endpoint);
+		}
+		node.addCommandClass(multiInstance);
+
+		node.setNodeStage(NodeStage.DONE);
+		node.setQueryStageTimeStamp(new Date());
+		snapshot = ZigbeeNodeSerializer.toSnapshot(node);
+	}
+
+	@Benchmark
+	public byte[] writeNode() throws IOException {
+		return ZigbeeNodeSerializer.toSnapshot(node);
+	}
+
+	@Benchmark
+	public ZigbeeNode readNode() throws IOException {
+		return ZigbeeNodeSerializer.fromSnapshot(snapshot, NODE_ID, null);
+	}
+
+	@Benchmark
+	public ZigbeeNode roundTrip() throws IOException {
+		return ZigbeeNodeSerializer.fromSnapshot(ZigbeeNodeSerializer.toSnapshot(node), NODE_ID, null);
+	}
+}
@@ -0,0 +1,84 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.zigbee.benchmark;
+
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openhab.binding.zigbee.internal.protocol.initialization.ZigbeeNodeStore;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Round trips of node snapshots through the node store used by the
+ * node serializer: writing snapshots, and reopening the store the way
+ * the binding does when it starts.
+ * @author Brian Crosby
+ * @since 1.5.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class NodeStoreBenchmark {
+
+	private static final int NODES = 100;
+	private static final int SNAPSHOT_SIZE = 300;
+
+	private File file;
+	private ZigbeeNodeStore store;
+	private byte[][] snapshots;
+
+	@Setup
+	public void setup() throws IOException {
+		file = File.createTempFile("zigbee-nodes", ".bin");
+		file.delete();
+		store = new ZigbeeNodeStore(file, 1);
+
+		Random random = new Random(42);
+		snapshots = new byte[NODES][];
+		for (int i = 0; i < NODES; i++) {
+			snapshots[i] = new byte[SNAPSHOT_SIZE];
+			random.nextBytes(snapshots[i]);
+			store.put(i, snapshots[i]);
+		}
+	}
+
+	@TearDown
+	public void tearDown() {
+		file.delete();
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(NODES)
+	public void putAndGet(Blackhole blackhole) {
+		for (int i = 0; i < NODES; i++) {
+			store.put(i, snapshots[i]);
+			blackhole.consume(store.get(i));
+		}
+	}
+
+	@Benchmark
+	public ZigbeeNodeStore reopen(Blackhole blackhole) {
+		ZigbeeNodeStore reopened = new ZigbeeNodeStore(file, 1);
+		for (Long nodeId : reopened.getNodeIds())
+			blackhole.consume(reopened.get(nodeId));
+		return reopened;
+	}
+}
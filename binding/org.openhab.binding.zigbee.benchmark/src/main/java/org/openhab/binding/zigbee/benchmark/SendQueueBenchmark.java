@@ -0,0 +1,78 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.zigbee.benchmark;
+
+
+import java.util.concurrent.TimeUnit;
+
+import org.openhab.binding.zigbee.internal.protocol.SocketMessage;
+import org.openhab.binding.zigbee.internal.protocol.SocketMessage.SocketMessageClass;
+import org.openhab.binding.zigbee.internal.protocol.SocketMessage.SocketMessagePriority;
+import org.openhab.binding.zigbee.internal.protocol.SocketMessage.SocketMessageType;
+import org.openhab.binding.zigbee.internal.protocol.ZigbeeSendQueue;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Queueing and taking messages through the {@link ZigbeeSendQueue} the
+ * send thread uses, while the queue is loaded with messages of mixed
+ * priorities for several nodes. There is no controller, so all nodes
+ * are listening.
+ * @author Brian Crosby
+ * @since 1.5.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SendQueueBenchmark {
+
+	private static final int MESSAGES = 1024;
+	private static final int NODES = 32;
+
+	@Param({ "16", "256" })
+	public int queueDepth;
+
+	private SocketMessage[] messages;
+	private ZigbeeSendQueue queue;
+
+	@Setup
+	public void setup() {
+		SocketMessagePriority[] priorities = SocketMessagePriority.values();
+		messages = new SocketMessage[MESSAGES];
+		for (int i = 0; i < MESSAGES; i++) {
+			messages[i] = new SocketMessage(i % NODES, SocketMessageClass.SendData, SocketMessageType.Request,
+					SocketMessageClass.SendData, priorities[i % priorities.length]);
+		}
+		queue = new ZigbeeSendQueue(null);
+	}
+
+	/**
+	 * Keeps the queue at its depth: every message that is added
+	 * makes the next message in round-robin order leave.
+	 */
+	@Benchmark
+	@OperationsPerInvocation(MESSAGES)
+	public void addAndPoll(Blackhole blackhole) throws InterruptedException {
+		queue.clear();
+		for (int i = 0; i < queueDepth; i++)
+			queue.add(messages[i]);
+		for (int i = queueDepth; i < MESSAGES; i++) {
+			queue.add(messages[i]);
+			blackhole.consume(queue.poll(0, TimeUnit.MILLISECONDS));
+		}
+	}
+}
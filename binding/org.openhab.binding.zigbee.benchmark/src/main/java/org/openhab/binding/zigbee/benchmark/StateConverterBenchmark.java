@@ -0,0 +1,72 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.zigbee.benchmark;
+
+
+import java.util.concurrent.TimeUnit;
+
+import org.openhab.binding.zigbee.internal.converter.ZigbeeBinarySwitchConverter;
+import org.openhab.binding.zigbee.internal.converter.state.ZigbeeStateConverter;
+import org.openhab.core.items.Item;
+import org.openhab.core.library.items.DimmerItem;
+import org.openhab.core.library.items.SwitchItem;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Resolution of the state converter for a value reported by a device.
+ * @author Brian Crosby
+ * @since 1.5.0
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class StateConverterBenchmark {
+
+	private ResolvingConverter converter;
+	private Item switchItem;
+	private Item dimmerItem;
+	private Integer value;
+
+	@Setup
+	public void setup() {
+		converter = new ResolvingConverter();
+		switchItem = new SwitchItem("Switch");
+		dimmerItem = new DimmerItem("Dimmer");
+		value = Integer.valueOf(0xFF);
+	}
+
+	@Benchmark
+	public ZigbeeStateConverter<?, ?> switchItem() {
+		return converter.resolve(switchItem, value);
+	}
+
+	@Benchmark
+	public ZigbeeStateConverter<?, ?> dimmerItem() {
+		return converter.resolve(dimmerItem, value);
+	}
+
+	/**
+	 * Makes the state converter lookup of a converter callable.
+	 */
+	private static class ResolvingConverter extends ZigbeeBinarySwitchConverter {
+		ResolvingConverter() {
+			super(null, null);
+		}
+
+		ZigbeeStateConverter<?, ?> resolve(Item item, Object value) {
+			return getStateConverter(item, value);
+		}
+	}
+}
@@ -8,6 +8,7 @@
  */
 package org.openhab.binding.zigbee;
 
+import java.util.Collections;
 import java.util.Date;
 import java.util.Map;
 
@@ -15,7 +16,9 @@ import org.openhab.core.binding.BindingConfig;
 
 /**
  * Binding Configuration class. Represents a binding configuration in
- * the items file to a Zigbee node.
+ * the items file to a Zigbee node. The arguments that are used when
+ * commands and events are handled are parsed once, when the binding
+ * is read, so handling them needs no string lookups.
  * @author Victor Belov 
  * @author Brian Crosby
  * @author Jan-Willem Spuij
@@ -25,25 +28,55 @@ public class ZigbeeBindingConfig implements BindingConfig {
 	/**
 	 * Constructor. Creates a new instance of the ZigbeeBindingConfig class.
 	 * @param nodeId the NodeId the item is bound to
+	 * @param ieeeAddress the IEEE address of the device the item is bound to
 	 * @param endpoint the end point in a multi channel node the item is bound to
 	 * @param arguments the arguments for the binding as a {@link HashMap} of key-value pairs
+	 * @throws NumberFormatException if the group or max_age argument is not a number.
 	 */
-	public ZigbeeBindingConfig(long nodeId, int endpoint, String endpointid, Integer refreshInterval, Map<String, String> arguments) {
+	public ZigbeeBindingConfig(long nodeId, long ieeeAddress, int endpoint, String endpointid, Integer refreshInterval, Map<String, String> arguments) {
 		this.nodeId = nodeId;
+		this.ieeeAddress = ieeeAddress;
 		this.endpoint = endpoint;
 		this.endpointid = endpointid;
 		this.refreshInterval = refreshInterval;
-		this.arguments = arguments;
+		this.arguments = Collections.unmodifiableMap(arguments);
+		
+		this.command = arguments.get("command");
+		this.commandKey = endpointid + "/" + command;
+		this.respondToBasic = "true".equalsIgnoreCase(arguments.get("respond_to_basic"));
+		this.reporting = !"false".equalsIgnoreCase(arguments.get("report"));
+		this.sleepy = "true".equalsIgnoreCase(arguments.get("sleepy"));
+		
+		String group = arguments.get("group");
+		this.groupId = group != null ? Integer.decode(group) : null;
+		String maxAge = arguments.get("max_age");
+		this.maxAge = maxAge != null ? Long.parseLong(maxAge) * 1000 : 0;
 	}
 
 	private final long nodeId;
+	private final long ieeeAddress;
 	private final int	endpoint;
 	/* endpointid=IEEE Address/Endpoint index */
 	private String endpointid;
 	private final Map<String, String> arguments;
+	private final String command;
+	private final String commandKey;
+	private final boolean respondToBasic;
+	private final boolean reporting;
+	private final boolean sleepy;
+	private final Integer groupId;
+	private final long maxAge;
 	private Integer refreshInterval;
 	private Date lastRefreshed;
 
+	/**
+	 * Returns the IEEE address of the bound device, parsed from the endpoint ID.
+	 * @return the IEEE address the item is bound to.
+	 */
+	public long getIeeeAddress() {
+		return ieeeAddress;
+	}
+
 	/**
 	 * Returns endpointid of bound node.
 	 * @return the NodeId the item is bound to.
@@ -76,6 +109,70 @@ public class ZigbeeBindingConfig implements BindingConfig {
 		return arguments;
 	}
 	
+	/**
+	 * Returns the command the item is bound to, as set with the
+	 * 'command' argument in the binding string.
+	 * @return the command in lower case, or null if it isn't set.
+	 */
+	public String getCommand() {
+		return command;
+	}
+
+	/**
+	 * Returns a key that identifies the command of the item on its
+	 * endpoint, used to merge commands that are sent in quick succession.
+	 * @return the command key.
+	 */
+	public String getCommandKey() {
+		return commandKey;
+	}
+
+	/**
+	 * Returns whether the item also handles events of the BASIC command
+	 * class, as set with the 'respond_to_basic' argument.
+	 * @return true if the item responds to BASIC events.
+	 */
+	public boolean isRespondToBasic() {
+		return respondToBasic;
+	}
+
+	/**
+	 * Returns whether attribute reports may be used for the item instead
+	 * of polling. Reports are disabled with the 'report=false' argument.
+	 * @return true if reports may be used.
+	 */
+	public boolean isReporting() {
+		return reporting;
+	}
+
+	/**
+	 * Returns whether the item is bound to a battery powered device that
+	 * sleeps most of the time, as set with the 'sleepy=true' argument.
+	 * Commands and reads for the item are held until the device wakes up.
+	 * @return true if the device sleeps.
+	 */
+	public boolean isSleepy() {
+		return sleepy;
+	}
+
+	/**
+	 * Returns the maximum age of a cached value that may be used to
+	 * refresh the item, set with the 'max_age' argument in seconds.
+	 * @return the maximum age in milliseconds, 0 if the cache is not used.
+	 */
+	public long getMaxAge() {
+		return maxAge;
+	}
+
+	/**
+	 * Returns the ZigBee group the item is bound to, as set with
+	 * the 'group' argument in the binding string.
+	 * @return the group id, or null if the item is not bound to a group.
+	 */
+	public Integer getGroupId() {
+		return groupId;
+	}
+
 	/**
 	 * Returns the interval at which the item should be refreshed.
 	 * 0 (zero) indicates that the item should not be refreshed.
@@ -8,6 +8,8 @@
  */
 package org.openhab.binding.zigbee;
 
+import java.util.Set;
+
 import org.openhab.core.autoupdate.AutoUpdateBindingProvider;
 import org.openhab.core.items.Item;
 
@@ -33,4 +35,31 @@ public interface ZigbeeBindingProvider extends AutoUpdateBindingProvider {
 	 * @return the item.
 	 */
 	public Item getItem(String itemName);
+	
+	/**
+	 * Returns the names of the items that are bound to the endpoint
+	 * with the specified endpoint id (IEEE Address/Endpoint index).
+	 * Returns an empty set if no item is bound to the endpoint.
+	 * @param endpointId the endpoint id to look up.
+	 * @return the item names.
+	 */
+	public Set<String> getItemNamesForEndpointId(String endpointId);
+	
+	/**
+	 * Returns the names of the items that are bound to the endpoint
+	 * of the device with the specified IEEE address. Returns an empty
+	 * set if no item is bound to the endpoint.
+	 * @param ieeeAddress the 64 bit IEEE address of the device.
+	 * @param endpoint the endpoint number.
+	 * @return the item names.
+	 */
+	public Set<String> getItemNamesForEndpoint(long ieeeAddress, int endpoint);
+	
+	/**
+	 * Returns the names of the items that are bound to the specified
+	 * ZigBee group. Returns an empty set if no item is bound.
+	 * @param groupId the group id to look up.
+	 * @return the item names.
+	 */
+	public Set<String> getItemNamesForGroup(int groupId);
 }
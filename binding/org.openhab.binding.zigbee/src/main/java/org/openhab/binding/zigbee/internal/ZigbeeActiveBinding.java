@@ -12,18 +12,23 @@ import java.util.ArrayList;
 import java.util.Dictionary;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
 
 import org.apache.commons.lang.StringUtils;
-import org.openhab.binding.zigbee.ZigbeeBindingConfig;
 import org.openhab.binding.zigbee.ZigbeeBindingProvider;
 import org.openhab.binding.zigbee.internal.config.ZigbeeConfiguration;
+import org.openhab.binding.zigbee.internal.converter.ZigbeeConverterExecutor;
 import org.openhab.binding.zigbee.internal.converter.ZigbeeConverterHandler;
 import org.openhab.binding.zigbee.internal.protocol.SerialInterfaceException;
 import org.openhab.binding.zigbee.internal.protocol.ZigbeeController;
+import org.openhab.binding.zigbee.internal.protocol.ZigbeeEndpointKey;
 import org.openhab.binding.zigbee.internal.protocol.ZigbeeEventListener;
 import org.openhab.binding.zigbee.internal.protocol.event.ZigbeeCommandClassValueEvent;
 import org.openhab.binding.zigbee.internal.protocol.event.ZigbeeEvent;
 import org.openhab.binding.zigbee.internal.protocol.event.ZigbeeInitializationCompletedEvent;
+import org.openhab.binding.zigbee.internal.protocol.event.ZigbeeInclusionEvent;
 import org.openhab.binding.zigbee.internal.protocol.event.ZigbeeTransactionCompletedEvent;
 import org.openhab.core.binding.AbstractActiveBinding;
 import org.openhab.core.binding.BindingProvider;
@@ -43,7 +48,7 @@ import org.slf4j.LoggerFactory;
  * @author Chris Jackson
  * @since 1.3.0
  */
-public class ZigbeeActiveBinding extends AbstractActiveBinding<ZigbeeBindingProvider> implements ManagedService, ZigbeeEventListener {
+public class ZigbeeActiveBinding extends AbstractActiveBinding<ZigbeeBindingProvider> implements ManagedService, ZigbeeEventListener, ZigbeeBindingReloader.Listener {
 	/**
 	 * The refresh interval which is used to poll values from the Zigbee binding. 
 	 */
@@ -57,17 +62,23 @@ public class ZigbeeActiveBinding extends AbstractActiveBinding<ZigbeeBindingProv
 	private boolean isSUC = false;
 	private Integer healtime = null;
 	private Integer timeout = null;
+	private Integer outstandingRequests = null;
+	private long coalesceWindow = 100;
+	private int converterThreads = ZigbeeConverterExecutor.DEFAULT_THREADS;
+	private long converterTimeout = ZigbeeConverterExecutor.DEFAULT_TIMEOUT;
+	private Integer eventQueueSize = null;
+	private long reloadQuietPeriod = ZigbeeBindingReloader.DEFAULT_QUIET_PERIOD;
+	private long initialSyncInterval = ZigbeeBindingReloader.DEFAULT_SYNC_INTERVAL;
 	private volatile ZigbeeController zController;
 	private volatile ZigbeeConverterHandler converterHandler;
+	private volatile ZigbeeBindingReloader bindingReloader;
 
 	private boolean isZigbeeNetworkReady = false;
 	private boolean isZigbeeDevicesAllReady = false;
 	
-	private Iterator<ZigbeePollItem> pollingIterator = null;
-	private List<ZigbeePollItem> pollingList = new ArrayList<ZigbeePollItem>();
-	
-	private Integer refresh_index=0;
-	private Integer REFRESH_MAX=86400; //one day=60s*60*24
+	private final PriorityQueue<ZigbeePollItem> pollingTable = new PriorityQueue<ZigbeePollItem>();
+	private final Random pollingJitter = new Random();
+	private long refreshCount = 0;
 	
 	// Configuration Service
 	ZigbeeConfiguration zConfigurationService;
@@ -94,7 +105,8 @@ public class ZigbeeActiveBinding extends AbstractActiveBinding<ZigbeeBindingProv
 
 	/**
 	 * Working method that executes refreshing of the bound items. The method is executed
-	 * at every refresh interval. The nodes are polled only every 6 refreshes.
+	 * at every refresh interval. Only the items that are due in this refresh are taken
+	 * from the polling queue; they are put back with their next due refresh.
 	 */
 	@Override
 	protected void execute() {
@@ -108,54 +120,52 @@ public class ZigbeeActiveBinding extends AbstractActiveBinding<ZigbeeBindingProv
 		
 		// Call the network monitor
 		////networkMonitor.execute();
-		logger.info("pollingList size: "+pollingList.size());
-		// If we're not currently in a poll cycle, restart the polling table
-		if(pollingIterator == null) {
-			pollingIterator = pollingList.iterator();
-		}
 		
-		// Loop through the polling list. We only allow a certain number of messages
-		// into the send queue at a time to avoid congestion within the system.
-		// Basically, we don't want the polling to slow down 'important' stuff.
-		// The queue ensures all nodes get a chance - if we always started at the top
-		// then the last items might never get polled.
+		ZigbeeConverterHandler handler = converterHandler;
+		if (handler == null)
+			return;
 		
-		while(pollingIterator.hasNext()) {
-		/*	if(zController.getSendQueueLength() >= pollingQueue) {
-				logger.trace("Polling queue full!");
-				break;
-			}*/
-			ZigbeePollItem poll = pollingIterator.next();
-			logger.info("polling item: "+poll.item);
-			logger.info("poll.provider: "+ poll.provider);
-			if (converterHandler==null)
-				logger.info("converterHandler==null");
-			
-			//check polling item to poll
-			ZigbeeBindingConfig bindingConfiguration = poll.provider.getZigbeeBindingConfig(poll.item);
-			
-			Integer refresh_interval = bindingConfiguration.getRefreshInterval();
+		// Don't hold messages forever for sleeping devices that don't wake up
+		handler.expireHeldMessages();
+		
+		List<ZigbeePollItem> duePolls = new ArrayList<ZigbeePollItem>();
+		
+		// Take the due items from the queue, and reschedule them. The queue is ordered
+		// by due refresh, so we stop at the first item that isn't due yet.
+		synchronized (pollingTable) {
+			long refresh = ++refreshCount;
+			logger.trace("Polling refresh {}, polling table size = {}", refresh, pollingTable.size());
 			
-			if(refresh_index%refresh_interval!=0) {
-				continue;
+			while (!pollingTable.isEmpty() && pollingTable.peek().nextRefresh <= refresh) {
+				ZigbeePollItem poll = pollingTable.poll();
+				duePolls.add(poll);
+				
+				// Keep the phase of the item, unless we've fallen behind.
+				poll.nextRefresh += poll.refreshInterval;
+				if (poll.nextRefresh <= refresh)
+					poll.nextRefresh = refresh + poll.refreshInterval;
 			}
-			logger.info("ZigbeeConverterHandler.executeRefresh()");
-			converterHandler.executeRefresh(poll.provider, poll.item, false);
-		}
-		if(pollingIterator.hasNext() == false) {
-			pollingIterator = null;
+			pollingTable.addAll(duePolls);
 		}
 		
-		if(refresh_index==REFRESH_MAX-1) {
-			refresh_index=0;
-		} else {
-			refresh_index+=1;
+		// Poll outside the lock, so binding changes are not held up by slow nodes.
+		for (ZigbeePollItem poll : duePolls) {
+			// Items that receive attribute reports are only polled when the
+			// device has not reported within the refresh interval of the item.
+			if (poll.reporting && handler.hasRecentReport(poll.item, poll.refreshInterval * refreshInterval)) {
+				logger.trace("Item {} reported within its refresh interval, not polling", poll.item);
+				continue;
+			}
+			logger.trace("Polling item {}", poll.item);
+			handler.executeRefresh(poll.provider, poll.item, false);
 		}
 	}
 	
 	/**
 	 * Called, if a single binding has changed. The given item could have been
-	 * added or removed. We refresh the binding in case it's in the done stage.
+	 * added or removed. Loading an items file reports every item separately,
+	 * so the change is handed to the binding reloader, which applies all
+	 * changes at once when no more changes arrive.
 	 * 
 	 * @param provider the binding provider where the binding has changed
 	 * @param itemName the item name for which the binding has changed
@@ -164,18 +174,9 @@ public class ZigbeeActiveBinding extends AbstractActiveBinding<ZigbeeBindingProv
 	public void bindingChanged(BindingProvider provider, String itemName) {
 		logger.trace("bindingChanged {}", itemName);		
 		
-		ZigbeeBindingProvider zProvider = (ZigbeeBindingProvider)provider;
-		
-		if (zProvider != null) {
-			ZigbeeBindingConfig bindingConfig = zProvider.getZigbeeBindingConfig(itemName);
-			
-			if (bindingConfig != null && converterHandler != null) {
-				converterHandler.executeRefresh(zProvider, itemName, true);
-			}
-		}
-
-		// Bindings have changed - rebuild the polling table
-		rebuildPollingTable();
+		ZigbeeBindingReloader reloader = bindingReloader;
+		if (provider != null && reloader != null)
+			reloader.itemChanged((ZigbeeBindingProvider)provider, itemName);
 		
 		super.bindingChanged(provider, itemName);
 	}
@@ -187,43 +188,136 @@ public class ZigbeeActiveBinding extends AbstractActiveBinding<ZigbeeBindingProv
 		logger.trace("allBindingsChanged");		
 		super.allBindingsChanged(provider);
 
-		// Bindings have changed - rebuild the polling table
-		rebuildPollingTable();
+		ZigbeeBindingReloader reloader = bindingReloader;
+		if (reloader != null)
+			reloader.allChanged();
+	}
+
+	/**
+	 * Applies the binding changes collected by the binding reloader. The report
+	 * subscriptions and groups of the changed items are renewed, and the polling
+	 * table is only updated for the changed items, unless all bindings have changed.
+	 * The initial refreshes of the changed items are queued in the reloader, which
+	 * sends them one at a time.
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void applyBindingChanges(Map<String, ZigbeeBindingProvider> items, boolean all) {
+		ZigbeeConverterHandler handler = converterHandler;
+		ZigbeeBindingReloader reloader = bindingReloader;
+		if (handler == null || reloader == null)
+			return;
+
+		handler.invalidateStateConverters();
+
+		List<ZigbeePollItem> polls = new ArrayList<ZigbeePollItem>();
+		for (Map.Entry<String, ZigbeeBindingProvider> entry : items.entrySet()) {
+			String itemName = entry.getKey();
+			ZigbeeBindingProvider provider = entry.getValue();
+			
+			// The binding may have changed, renew the report subscription
+			handler.unsubscribeReports(itemName);
+			if (provider.getZigbeeBindingConfig(itemName) == null) {
+				reloader.cancelRefresh(itemName);
+				continue;
+			}
+			
+			handler.subscribeReports(provider, itemName);
+			handler.joinGroup(provider, itemName);
+			reloader.queueRefresh(provider, itemName);
+			
+			ZigbeePollItem poll = createPollItem(handler, provider, itemName);
+			if (poll != null)
+				polls.add(poll);
+		}
+		
+		if (all) {
+			rebuildPollingTable();
+			return;
+		}
+		
+		// Replace the entries of the changed items, keep the phase of all others.
+		synchronized (pollingTable) {
+			Iterator<ZigbeePollItem> it = pollingTable.iterator();
+			while (it.hasNext()) {
+				if (items.containsKey(it.next().item))
+					it.remove();
+			}
+			for (ZigbeePollItem poll : polls) {
+				poll.nextRefresh = refreshCount + 1 + pollingJitter.nextInt(poll.refreshInterval);
+				pollingTable.add(poll);
+			}
+		}
+		logger.debug("Polling table updated for {} items, polling table size = {}", items.size(), pollingTable.size());
+	}
+
+	/**
+	 * Reads the initial state of an item whose binding has changed.
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void refreshItem(ZigbeeBindingProvider provider, String itemName) {
+		ZigbeeConverterHandler handler = converterHandler;
+		if (handler != null && provider.getZigbeeBindingConfig(itemName) != null)
+			handler.executeRefresh(provider, itemName, true);
 	}
 
 	
 	/**
-	 * This method rebuilds the polling table. The polling table is a list of items that have
-	 * polling enabled (ie a refresh interval is set). This list is then checked periodically
-	 * and any item that has passed its polling interval will be polled.
+	 * This method rebuilds the polling table. The polling table is a queue of items that have
+	 * polling enabled (ie a refresh interval is set), ordered by the refresh the item is due
+	 * next. The first refresh of every item is spread randomly over its refresh interval so
+	 * that items with the same interval are not all polled in the same refresh.
 	 */
 	private void rebuildPollingTable() {
-		// Rebuild the polling table
-		pollingList.clear();
-
-		// Loop all binding providers for the Z-wave binding.
-		for (ZigbeeBindingProvider eachProvider : providers) {
-			// loop all bound items for this provider
-			for (String name : eachProvider.getItemNames()) {
-				
-//				ZigbeePollItem item = new ZigbeePollItem();
-//				item.item = name;
-//				item.provider = eachProvider;
-//				pollingList.add(item);
-				
-				logger.trace("Polling list: Checking {} == {}", name, converterHandler.getRefreshInterval(eachProvider, name));
-				
-				// This binding is configured to poll - add it to the list
-				if (converterHandler.getRefreshInterval(eachProvider, name) > 0) {
-					ZigbeePollItem item = new ZigbeePollItem();
-					item.item = name;
-					item.provider = eachProvider;
-					pollingList.add(item);
-					logger.info("Polling list added {}", name);
+		List<ZigbeePollItem> items = new ArrayList<ZigbeePollItem>();
+		
+		if (converterHandler != null) {
+			// Loop all binding providers for the Z-wave binding.
+			for (ZigbeeBindingProvider eachProvider : providers) {
+				// loop all bound items for this provider
+				for (String name : eachProvider.getItemNames()) {
+					converterHandler.subscribeReports(eachProvider, name);
+					ZigbeePollItem item = createPollItem(converterHandler, eachProvider, name);
+					if (item != null)
+						items.add(item);
 				}
 			}
 		}
-		pollingIterator = null;
+		
+		synchronized (pollingTable) {
+			pollingTable.clear();
+			for (ZigbeePollItem item : items) {
+				item.nextRefresh = refreshCount + 1 + pollingJitter.nextInt(item.refreshInterval);
+				pollingTable.add(item);
+			}
+		}
+	}
+	
+	/**
+	 * Creates the polling table entry of an item. The report subscription of
+	 * the item must have been made first. Items that receive attribute reports
+	 * are still polled as a fallback, in case the device doesn't report.
+	 * @param handler the converter handler.
+	 * @param provider the provider of the item.
+	 * @param name the name of the item.
+	 * @return the entry, or null if the item doesn't need to be polled.
+	 */
+	private ZigbeePollItem createPollItem(ZigbeeConverterHandler handler, ZigbeeBindingProvider provider, String name) {
+		Integer refreshInterval = handler.getRefreshInterval(provider, name);
+		logger.trace("Polling list: Checking {} == {}", name, refreshInterval);
+		
+		// This binding is configured to poll - add it to the list
+		if (refreshInterval == null || refreshInterval <= 0)
+			return null;
+		
+		ZigbeePollItem item = new ZigbeePollItem();
+		item.item = name;
+		item.provider = provider;
+		item.refreshInterval = refreshInterval;
+		item.reporting = handler.isReporting(name);
+		logger.debug("Polling list added {}{}", name, item.reporting ? " as fallback for attribute reports" : "");
+		return item;
 	}
 	
 	/**
@@ -274,7 +368,12 @@ public class ZigbeeActiveBinding extends AbstractActiveBinding<ZigbeeBindingProv
 	@Override
 	public void deactivate() {
 		isZigbeeNetworkReady = false;
+		if (this.bindingReloader != null) {
+			this.bindingReloader.shutdown();
+			this.bindingReloader = null;
+		}
 		if (this.converterHandler != null) {
+			this.converterHandler.shutdown();
 			this.converterHandler = null;
 		}
 
@@ -288,6 +387,8 @@ public class ZigbeeActiveBinding extends AbstractActiveBinding<ZigbeeBindingProv
 			this.zController = null;
 			controller.close();
 			controller.removeEventListener(this);
+			if (this.networkMonitor != null)
+				controller.removeEventListener(this.networkMonitor);
 		}
 	}
 	
@@ -301,10 +402,12 @@ public class ZigbeeActiveBinding extends AbstractActiveBinding<ZigbeeBindingProv
 			this.setProperlyConfigured(true);
 			this.deactivate();
 			//isZigbeeNetworkReady = true;
-			this.zController = new ZigbeeController(isSUC, port, timeout);
-			this.converterHandler = new ZigbeeConverterHandler(this.zController, this.eventPublisher);
-			zController.initialize();
-			zController.addEventListener(this);
+			this.zController = new ZigbeeController(isSUC, port, ipAddress, timeout, outstandingRequests, eventQueueSize);
+			this.converterHandler = new ZigbeeConverterHandler(this.zController, this.eventPublisher, coalesceWindow,
+					new ZigbeeConverterExecutor(converterThreads, converterTimeout));
+			this.bindingReloader = new ZigbeeBindingReloader(this, reloadQuietPeriod, initialSyncInterval);
+			zController.addEventListener(this, ZigbeeInitializationCompletedEvent.class, 
+					ZigbeeTransactionCompletedEvent.class, ZigbeeCommandClassValueEvent.class);
 			System.out.println("ZIGBEEEEEEEEEEEEEEEEEEEE:"+port);
 			// The network monitor service needs to know the controller...
 			this.networkMonitor = new ZigbeeNetworkMonitor(this.zController);
@@ -313,7 +416,10 @@ public class ZigbeeActiveBinding extends AbstractActiveBinding<ZigbeeBindingProv
 
 			// The config service needs to know the controller and the network monitor...
 			this.zConfigurationService = new ZigbeeConfiguration(this.zController, this.networkMonitor);
-			zController.addEventListener(this.zConfigurationService);
+			zController.addEventListener(this.zConfigurationService, ZigbeeInclusionEvent.class);
+			
+			// Start browsing once everybody listens for the browsing to complete
+			zController.initialize();
 			
 			if(zController.isZigbeeNetowrkStarted())
 				isZigbeeNetworkReady = true;
@@ -380,6 +486,73 @@ public class ZigbeeActiveBinding extends AbstractActiveBinding<ZigbeeBindingProv
 				logger.error("Error parsing 'timeout'. This must be an Integer.");
 			}
 		}
+		if (StringUtils.isNotBlank((String) config.get("outstandingRequests"))) {
+			try {
+				outstandingRequests = Integer.parseInt((String) config.get("outstandingRequests"));
+				logger.info("Update config, outstandingRequests = {}", outstandingRequests);
+			} catch (NumberFormatException e) {
+				outstandingRequests = null;
+				logger.error("Error parsing 'outstandingRequests'. This must be an Integer.");
+			}
+		}
+		if (StringUtils.isNotBlank((String) config.get("coalesceWindow"))) {
+			try {
+				coalesceWindow = Long.parseLong((String) config.get("coalesceWindow"));
+				logger.info("Update config, coalesceWindow = {}", coalesceWindow);
+			} catch (NumberFormatException e) {
+				coalesceWindow = 100;
+				logger.error("Error parsing 'coalesceWindow'. This must be a single number time in milliseconds.");
+			}
+		}
+		if (StringUtils.isNotBlank((String) config.get("converterThreads"))) {
+			try {
+				converterThreads = Integer.parseInt((String) config.get("converterThreads"));
+				if (converterThreads < 1)
+					throw new NumberFormatException();
+				logger.info("Update config, converterThreads = {}", converterThreads);
+			} catch (NumberFormatException e) {
+				converterThreads = ZigbeeConverterExecutor.DEFAULT_THREADS;
+				logger.error("Error parsing 'converterThreads'. This must be a positive Integer.");
+			}
+		}
+		if (StringUtils.isNotBlank((String) config.get("converterTimeout"))) {
+			try {
+				converterTimeout = Long.parseLong((String) config.get("converterTimeout"));
+				logger.info("Update config, converterTimeout = {}", converterTimeout);
+			} catch (NumberFormatException e) {
+				converterTimeout = ZigbeeConverterExecutor.DEFAULT_TIMEOUT;
+				logger.error("Error parsing 'converterTimeout'. This must be a single number time in milliseconds.");
+			}
+		}
+		if (StringUtils.isNotBlank((String) config.get("eventQueueSize"))) {
+			try {
+				eventQueueSize = Integer.parseInt((String) config.get("eventQueueSize"));
+				if (eventQueueSize < 1)
+					throw new NumberFormatException();
+				logger.info("Update config, eventQueueSize = {}", eventQueueSize);
+			} catch (NumberFormatException e) {
+				eventQueueSize = null;
+				logger.error("Error parsing 'eventQueueSize'. This must be a positive Integer.");
+			}
+		}
+		if (StringUtils.isNotBlank((String) config.get("reloadQuietPeriod"))) {
+			try {
+				reloadQuietPeriod = Long.parseLong((String) config.get("reloadQuietPeriod"));
+				logger.info("Update config, reloadQuietPeriod = {}", reloadQuietPeriod);
+			} catch (NumberFormatException e) {
+				reloadQuietPeriod = ZigbeeBindingReloader.DEFAULT_QUIET_PERIOD;
+				logger.error("Error parsing 'reloadQuietPeriod'. This must be a single number time in milliseconds.");
+			}
+		}
+		if (StringUtils.isNotBlank((String) config.get("initialSyncInterval"))) {
+			try {
+				initialSyncInterval = Long.parseLong((String) config.get("initialSyncInterval"));
+				logger.info("Update config, initialSyncInterval = {}", initialSyncInterval);
+			} catch (NumberFormatException e) {
+				initialSyncInterval = ZigbeeBindingReloader.DEFAULT_SYNC_INTERVAL;
+				logger.error("Error parsing 'initialSyncInterval'. This must be a single number time in milliseconds.");
+			}
+		}
 		if (StringUtils.isNotBlank((String) config.get("setSUC"))) {
 			try {
 				isSUC = Boolean.parseBoolean((String) config.get("setSUC"));
@@ -421,6 +594,12 @@ public class ZigbeeActiveBinding extends AbstractActiveBinding<ZigbeeBindingProv
 		if (!this.isProperlyConfigured())
 			return;
 		System.out.println("ZIGBEEEEEEEEEEEEEEEEEEEE: ZigbeeIncomingEvent1");
+		if (event instanceof ZigbeeInitializationCompletedEvent && isZigbeeNetworkReady) {
+			// Browsing has completed, bind the items whose devices were not found before
+			bindAllItems();
+			return;
+		}
+		
 		if (!isZigbeeNetworkReady) {
 			if (event instanceof ZigbeeInitializationCompletedEvent) {
 				logger.debug("ZigbeeIncomingEvent Called, Network Event, Init Done. Setting Zigbee Network Ready.");
@@ -446,6 +625,24 @@ public class ZigbeeActiveBinding extends AbstractActiveBinding<ZigbeeBindingProv
 		}
 	}
 
+	/**
+	 * Subscribes to the reports and joins the groups of all bound items.
+	 */
+	private void bindAllItems() {
+		ZigbeeConverterHandler handler = converterHandler;
+		if (handler == null)
+			return;
+		
+		for (ZigbeeBindingProvider provider : providers) {
+			for (String itemName : provider.getItemNames()) {
+				handler.unsubscribeReports(itemName);
+				handler.subscribeReports(provider, itemName);
+				handler.joinGroup(provider, itemName);
+			}
+		}
+		rebuildPollingTable();
+	}
+
 	/**
 	 * Handle an incoming Command class value event
 	 * @param event the incoming Zigbee event.
@@ -457,15 +654,15 @@ public class ZigbeeActiveBinding extends AbstractActiveBinding<ZigbeeBindingProv
 		logger.debug("Got a value event from Zigbee network for nodeId = {}, endpoint = {}, command class = {}, value = {}", 
 				new Object[] { event.getNodeId(), event.getEndpoint(), event.getCommandClass().getLabel(), event.getValue() } );
 
-		for (ZigbeeBindingProvider provider : providers) {
-			for (String itemName : provider.getItemNames()) {
-				ZigbeeBindingConfig bindingConfig = provider.getZigbeeBindingConfig(itemName);
-				
-				if (bindingConfig.getNodeId() != event.getNodeId() || bindingConfig.getEndpoint() != event.getEndpoint())
-					continue;
-				
-				converterHandler.handleEvent(provider, itemName, event);
-				handled = true;
+		// the items are bound to the IEEE address of the device, look it up from the network address
+		ZigbeeEndpointKey endpointKey = zController.getEndpointKey(event.getNodeId(), event.getEndpoint());
+		if (endpointKey != null) {
+			for (ZigbeeBindingProvider provider : providers) {
+				// the provider keeps an index of the items per endpoint
+				for (String itemName : provider.getItemNamesForEndpoint(endpointKey.getIeeeAddress(), endpointKey.getEndpoint())) {
+					converterHandler.handleEvent(provider, itemName, event);
+					handled = true;
+				}
 			}
 		}
 		
@@ -474,8 +671,16 @@ public class ZigbeeActiveBinding extends AbstractActiveBinding<ZigbeeBindingProv
 					new Object[] { event.getNodeId(), event.getEndpoint(), event.getCommandClass().getLabel(), event.getValue() } );
 	}
 	
-	class ZigbeePollItem {
+	class ZigbeePollItem implements Comparable<ZigbeePollItem> {
 		ZigbeeBindingProvider provider;
 		String item;
+		int refreshInterval;
+		boolean reporting;
+		long nextRefresh;
+		
+		@Override
+		public int compareTo(ZigbeePollItem other) {
+			return nextRefresh < other.nextRefresh ? -1 : (nextRefresh == other.nextRefresh ? 0 : 1);
+		}
 	}
 }
@@ -0,0 +1,240 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.zigbee.internal;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.openhab.binding.zigbee.ZigbeeBindingProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ZigbeeBindingReloader class. Batches the binding changes that openHAB
+ * reports item by item when an items file is loaded. The changes are
+ * collected until no change has arrived for the quiet period, and are
+ * then applied in one go by the {@link Listener}. The refreshes that
+ * read the initial state of the changed items are queued, and sent to
+ * the network one at a time with a fixed interval, so loading hundreds
+ * of items doesn't flood the mesh with reads.
+ * @author Brian Crosby
+ * @since 1.5.0
+ */
+public class ZigbeeBindingReloader {
+
+	/**
+	 * The default time without binding changes after which the changes are applied.
+	 */
+	public static final long DEFAULT_QUIET_PERIOD = 500;
+
+	/**
+	 * The default time between the initial refreshes of the changed items.
+	 */
+	public static final long DEFAULT_SYNC_INTERVAL = 200;
+
+	private static final Logger logger = LoggerFactory.getLogger(ZigbeeBindingReloader.class);
+
+	private final Listener listener;
+	private final long quietPeriod;
+	private final long syncInterval;
+	private final ScheduledExecutorService scheduler;
+
+	private Map<String, ZigbeeBindingProvider> changedItems = new LinkedHashMap<String, ZigbeeBindingProvider>();
+	private boolean allChanged = false;
+	private ScheduledFuture<?> pendingApply = null;
+
+	private final Map<String, ZigbeeBindingProvider> syncQueue = new LinkedHashMap<String, ZigbeeBindingProvider>();
+	private ScheduledFuture<?> pendingSync = null;
+
+	/**
+	 * Constructor. Creates a new instance of the ZigbeeBindingReloader class.
+	 * @param listener the listener that applies the changes and refreshes the items.
+	 * @param quietPeriod the time in milliseconds without binding changes after
+	 * which the changes are applied.
+	 * @param syncInterval the time in milliseconds between the initial refreshes.
+	 */
+	public ZigbeeBindingReloader(Listener listener, long quietPeriod, long syncInterval) {
+		this.listener = listener;
+		this.quietPeriod = quietPeriod;
+		this.syncInterval = syncInterval;
+		this.scheduler = Executors.newSingleThreadScheduledExecutor();
+	}
+
+	/**
+	 * Records that the binding of an item was added, changed or removed.
+	 * Restarts the quiet period.
+	 * @param provider the provider of the item.
+	 * @param itemName the name of the item.
+	 */
+	public synchronized void itemChanged(ZigbeeBindingProvider provider, String itemName) {
+		changedItems.put(itemName, provider);
+		scheduleApply();
+	}
+
+	/**
+	 * Records that all bindings of a provider may have changed.
+	 * Restarts the quiet period.
+	 */
+	public synchronized void allChanged() {
+		allChanged = true;
+		scheduleApply();
+	}
+
+	/**
+	 * Queues the initial refresh of an item. An item that is already
+	 * queued keeps its place in the queue.
+	 * @param provider the provider of the item.
+	 * @param itemName the name of the item.
+	 */
+	public synchronized void queueRefresh(ZigbeeBindingProvider provider, String itemName) {
+		syncQueue.put(itemName, provider);
+		if (pendingSync == null)
+			pendingSync = schedule(new Runnable() {
+				@Override
+				public void run() {
+					refreshNext();
+				}
+			}, 0);
+	}
+
+	/**
+	 * Drops the queued refresh of an item, e.g. when its binding was removed.
+	 * @param itemName the name of the item.
+	 */
+	public synchronized void cancelRefresh(String itemName) {
+		syncQueue.remove(itemName);
+	}
+
+	/**
+	 * Returns the number of refreshes that are still queued.
+	 * @return the number of queued refreshes.
+	 */
+	public synchronized int getQueuedRefreshCount() {
+		return syncQueue.size();
+	}
+
+	/**
+	 * Stops the reloader. Changes that have not been applied yet and
+	 * queued refreshes are dropped.
+	 */
+	public synchronized void shutdown() {
+		scheduler.shutdownNow();
+		changedItems.clear();
+		syncQueue.clear();
+		pendingApply = null;
+		pendingSync = null;
+	}
+
+	private void scheduleApply() {
+		if (pendingApply != null)
+			pendingApply.cancel(false);
+		pendingApply = schedule(new Runnable() {
+			@Override
+			public void run() {
+				apply();
+			}
+		}, quietPeriod);
+	}
+
+	private ScheduledFuture<?> schedule(Runnable task, long delay) {
+		try {
+			return scheduler.schedule(task, delay, TimeUnit.MILLISECONDS);
+		} catch (RuntimeException e) {
+			// Shut down, nothing more will be applied.
+			return null;
+		}
+	}
+
+	/**
+	 * Hands the changes collected during the quiet period to the listener.
+	 */
+	private void apply() {
+		Map<String, ZigbeeBindingProvider> items;
+		boolean all;
+		synchronized (this) {
+			items = changedItems;
+			all = allChanged;
+			changedItems = new LinkedHashMap<String, ZigbeeBindingProvider>();
+			allChanged = false;
+			pendingApply = null;
+		}
+
+		logger.debug("Applying binding changes, {} items changed{}", items.size(), all ? ", full rebuild" : "");
+		try {
+			listener.applyBindingChanges(items, all);
+		} catch (RuntimeException e) {
+			logger.error("Error applying binding changes: {}", e.getLocalizedMessage());
+		}
+	}
+
+	/**
+	 * Refreshes the item at the head of the queue, and schedules
+	 * the next refresh if there are more items queued.
+	 */
+	private void refreshNext() {
+		String itemName;
+		ZigbeeBindingProvider provider;
+		synchronized (this) {
+			Iterator<Map.Entry<String, ZigbeeBindingProvider>> it = syncQueue.entrySet().iterator();
+			if (!it.hasNext()) {
+				pendingSync = null;
+				return;
+			}
+			Map.Entry<String, ZigbeeBindingProvider> entry = it.next();
+			it.remove();
+			itemName = entry.getKey();
+			provider = entry.getValue();
+		}
+
+		logger.trace("Initial refresh of item {}", itemName);
+		try {
+			listener.refreshItem(provider, itemName);
+		} catch (RuntimeException e) {
+			logger.error("Error refreshing item {}: {}", itemName, e.getLocalizedMessage());
+		}
+
+		synchronized (this) {
+			if (syncQueue.isEmpty())
+				pendingSync = null;
+			else
+				pendingSync = schedule(new Runnable() {
+					@Override
+					public void run() {
+						refreshNext();
+					}
+				}, syncInterval);
+		}
+	}
+
+	/**
+	 * Listener that is called on the reloader thread to apply the
+	 * binding changes and to refresh the items.
+	 */
+	public interface Listener {
+		/**
+		 * Applies the binding changes collected during the quiet period.
+		 * @param items the changed items and their providers. Items whose
+		 * binding was removed are included.
+		 * @param all true if all bindings may have changed.
+		 */
+		void applyBindingChanges(Map<String, ZigbeeBindingProvider> items, boolean all);
+
+		/**
+		 * Reads the current state of an item from the network.
+		 * @param provider the provider of the item.
+		 * @param itemName the name of the item.
+		 */
+		void refreshItem(ZigbeeBindingProvider provider, String itemName);
+	}
+}
@@ -8,11 +8,16 @@
  */
 package org.openhab.binding.zigbee.internal;
 
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.openhab.binding.zigbee.ZigbeeBindingConfig;
 import org.openhab.binding.zigbee.ZigbeeBindingProvider;
+import org.openhab.binding.zigbee.internal.protocol.ZigbeeEndpointKey;
 import org.openhab.core.items.Item;
 import org.openhab.model.item.binding.AbstractGenericBindingProvider;
 import org.openhab.model.item.binding.BindingConfigParseException;
@@ -29,6 +34,11 @@ public class ZigbeeGenericBindingProvider extends AbstractGenericBindingProvider
 
 	private static final Logger logger = LoggerFactory.getLogger(ZigbeeGenericBindingProvider.class);
 	private final Map<String, Item> items = new HashMap<String, Item>();
+	
+	// Reverse index from the bound endpoint to the item names. The sets stored
+	// in these maps are never modified, they are replaced on every change.
+	private final Map<ZigbeeEndpointKey, Set<String>> itemsByEndpoint = new ConcurrentHashMap<ZigbeeEndpointKey, Set<String>>();
+	private final Map<String, Set<String>> itemsByGroup = new ConcurrentHashMap<String, Set<String>>();
 
 	/**
 	 * {@inheritDoc}
@@ -91,16 +101,132 @@ public class ZigbeeGenericBindingProvider extends AbstractGenericBindingProvider
 				throw new BindingConfigParseException(segments[i] + " is not a valid argument.");
 			}
 		}
-		logger.info("endpointid111:"+endpointid);
 		endpointid = endpointid.replaceAll("-", ":");
-		logger.info("endpointid222:"+endpointid);
 		endpointid += ('/'+Integer.toString(endpoint));
-		logger.info("endpointid333:"+endpointid);
-		ZigbeeBindingConfig config = new ZigbeeBindingConfig(0, 0, endpointid,  refreshInterval, arguments);
+		ZigbeeEndpointKey endpointKey = ZigbeeEndpointKey.parse(endpointid);
+		if (endpointKey == null)
+			throw new BindingConfigParseException(endpointid + " is not a valid endpoint id. should be IEEE address/endpoint");
+		
+		ZigbeeBindingConfig config;
+		try {
+			config = new ZigbeeBindingConfig(0, endpointKey.getIeeeAddress(), endpoint, endpointid,  refreshInterval, arguments);
+		} catch (NumberFormatException e) {
+			throw new BindingConfigParseException("invalid group or max_age argument in binding: " + bindingConfig);
+		}
+		
+		// A sleeping device is only known to be awake when it sends something,
+		// reports are the only frames it is sure to send.
+		if (config.isSleepy() && !config.isReporting())
+			throw new BindingConfigParseException("sleepy=true requires attribute reports, remove report=false from binding: " + bindingConfig);
+		
+		// The item may have been bound before, remove the stale index entries first
+		ZigbeeBindingConfig previous = getZigbeeBindingConfig(item.getName());
+		if (previous != null)
+			unindexItem(item.getName(), previous);
+		
+		indexItem(item.getName(), config);
 		addBindingConfig(item, config);
 		items.put(item.getName(), item);
 	}
 	
+	/**
+	 * Removes the configurations of the given context and
+	 * drops the removed items from the endpoint index.
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void removeConfigurations(String context) {
+		Set<Item> contextItems = contextMap.get(context);
+		if (contextItems != null) {
+			for (Item item : contextItems) {
+				ZigbeeBindingConfig config = getZigbeeBindingConfig(item.getName());
+				if (config != null)
+					unindexItem(item.getName(), config);
+			}
+		}
+		super.removeConfigurations(context);
+	}
+	
+	/**
+	 * {@inheritDoc}
+	 */
+	public Set<String> getItemNamesForEndpointId(String endpointId) {
+		ZigbeeEndpointKey key = ZigbeeEndpointKey.parse(endpointId);
+		Set<String> result = key != null ? itemsByEndpoint.get(key) : null;
+		return result != null ? result : Collections.<String>emptySet();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public Set<String> getItemNamesForEndpoint(long ieeeAddress, int endpoint) {
+		Set<String> result = itemsByEndpoint.get(new ZigbeeEndpointKey(ieeeAddress, endpoint));
+		return result != null ? result : Collections.<String>emptySet();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public Set<String> getItemNamesForGroup(int groupId) {
+		Set<String> result = itemsByGroup.get(Integer.toString(groupId));
+		return result != null ? result : Collections.<String>emptySet();
+	}
+	
+	/**
+	 * Adds an item to the endpoint index.
+	 * @param itemName the name of the item.
+	 * @param config the binding configuration of the item.
+	 */
+	private synchronized void indexItem(String itemName, ZigbeeBindingConfig config) {
+		addToIndex(itemsByEndpoint, getEndpointKey(config), itemName);
+		addToIndex(itemsByGroup, getGroupKey(config), itemName);
+	}
+
+	/**
+	 * Removes an item from the endpoint index.
+	 * @param itemName the name of the item.
+	 * @param config the binding configuration the item was indexed with.
+	 */
+	private synchronized void unindexItem(String itemName, ZigbeeBindingConfig config) {
+		removeFromIndex(itemsByEndpoint, getEndpointKey(config), itemName);
+		removeFromIndex(itemsByGroup, getGroupKey(config), itemName);
+	}
+	
+	private static <K> void addToIndex(Map<K, Set<String>> index, K key, String itemName) {
+		if (key == null)
+			return;
+		
+		Set<String> current = index.get(key);
+		Set<String> updated = current == null ? new HashSet<String>() : new HashSet<String>(current);
+		updated.add(itemName);
+		index.put(key, Collections.unmodifiableSet(updated));
+	}
+	
+	private static <K> void removeFromIndex(Map<K, Set<String>> index, K key, String itemName) {
+		if (key == null)
+			return;
+
+		Set<String> current = index.get(key);
+		if (current == null || !current.contains(itemName))
+			return;
+		
+		Set<String> updated = new HashSet<String>(current);
+		updated.remove(itemName);
+		if (updated.isEmpty())
+			index.remove(key);
+		else
+			index.put(key, Collections.unmodifiableSet(updated));
+	}
+
+	private static ZigbeeEndpointKey getEndpointKey(ZigbeeBindingConfig config) {
+		return new ZigbeeEndpointKey(config.getIeeeAddress(), config.getEndpoint());
+	}
+
+	private static String getGroupKey(ZigbeeBindingConfig config) {
+		Integer groupId = config.getGroupId();
+		return groupId != null ? groupId.toString() : null;
+	}
+	
 	/**
 	 * Returns the binding configuration for a string.
 	 * @return the binding configuration.
@@ -107,7 +107,8 @@ public final class ZigbeeNetworkMonitor implements ZigbeeEventListener {
 		zController = controller;
 
 		// Set an event callback so we get notification of network events
-		zController.addEventListener(this);
+		zController.addEventListener(this, ZigbeeNetworkEvent.class, ZigbeeTransactionCompletedEvent.class,
+				ZigbeeNodeStatusEvent.class, ZigbeeInitializationCompletedEvent.class);
 	}
 
 	/**
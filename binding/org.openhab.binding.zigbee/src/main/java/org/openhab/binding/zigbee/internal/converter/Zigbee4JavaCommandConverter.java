@@ -9,8 +9,10 @@
 package org.openhab.binding.zigbee.internal.converter;
 
 import java.util.Map;
+import java.util.concurrent.Future;
 
 import org.bubblecloud.zigbee.api.Device;
+import org.bubblecloud.zigbee.api.cluster.impl.api.core.Attribute;
 import org.openhab.binding.zigbee.internal.converter.command.BinaryOnOffCommandConverter;
 import org.openhab.binding.zigbee.internal.converter.command.ZigbeeCommandConverter;
 import org.openhab.binding.zigbee.internal.converter.state.BinaryDecimalTypeConverter;
@@ -70,6 +72,92 @@ public class Zigbee4JavaCommandConverter {
 		
 	}
 
+	/**
+	 * Refreshes the item without blocking the caller. The refresh is run
+	 * by {@link #executeRefresh(Item, Device, Map)} on the executor.
+	 * @param executor the {@link ZigbeeConverterExecutor} to run the refresh on.
+	 * @param item the {@link Item} to refresh.
+	 * @param device the {@link Device} the item is bound to.
+	 * @param arguments the binding arguments.
+	 * @return a {@link Future} that completes when the refresh is done.
+	 */
+	public Future<?> executeRefreshAsync(ZigbeeConverterExecutor executor, final Item item, final Device device,
+			final Map<String,String> arguments) {
+		return executor.submit("Refresh of " + describe(item, device), new Runnable() {
+			@Override
+			public void run() {
+				executeRefresh(item, device, arguments);
+			}
+		});
+	}
+
+	/**
+	 * Sends a command without blocking the caller. The command is sent by
+	 * {@link #receiveCommand(Item, Command, Device, Map)} on the executor.
+	 * @param executor the {@link ZigbeeConverterExecutor} to send the command on.
+	 * @param item the {@link Item} that received the command.
+	 * @param command the {@link Command} to send.
+	 * @param device the {@link Device} the item is bound to.
+	 * @param arguments the binding arguments.
+	 * @return a {@link Future} that completes when the command is sent.
+	 */
+	public Future<?> receiveCommandAsync(ZigbeeConverterExecutor executor, final Item item, final Command command,
+			final Device device, final Map<String,String> arguments) {
+		return executor.submit("Command " + command + " for " + describe(item, device), new Runnable() {
+			@Override
+			public void run() {
+				receiveCommand(item, command, device, arguments);
+			}
+		});
+	}
+
+	private static String describe(Item item, Device device) {
+		return item != null ? "item " + item.getName() : "device " + device.getEndpointId();
+	}
+
+	/**
+	 * Returns the {@link Attribute} that reports the value of the item, or null
+	 * when the converter does not support attribute reporting. Items whose
+	 * attribute reports are subscribed are not polled.
+	 * @param device the {@link Device} the item is bound to.
+	 * @param arguments the binding arguments.
+	 * @return the attribute to subscribe to, or null.
+	 */
+	public Attribute getReportingAttribute(Device device, Map<String,String> arguments) {
+		return null;
+	}
+
+	/**
+	 * Handles an attribute report for the item. Converts the reported value
+	 * and posts an update on the openHAB bus.
+	 * @param item the {@link Item} to update.
+	 * @param value the reported attribute value.
+	 * @param arguments the binding arguments.
+	 */
+	public void handleReport(Item item, Object value, Map<String,String> arguments) {
+		
+	}
+
+	/**
+	 * Returns the id of the cluster the converter sends its commands to,
+	 * or -1 when the converter does not support group commands.
+	 * @return the cluster id.
+	 */
+	public int getClusterId() {
+		return -1;
+	}
+
+	/**
+	 * Returns the id of the cluster command that carries out the command
+	 * when it is sent to a ZigBee group, or -1 when the command has to be
+	 * sent to every device on its own.
+	 * @param command the command to send.
+	 * @return the cluster command id.
+	 */
+	public int getGroupCommandId(Command command) {
+		return -1;
+	}
+
 	/**
 	 * {@inheritDoc}
 	 */
@@ -0,0 +1,211 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.zigbee.internal.converter;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ZigbeeCommandCoalescer class. Limits the commands sent to one
+ * endpoint cluster to one per coalescing window. The first command
+ * is sent right away; commands that arrive while it is being sent or
+ * within the window after it are collapsed so that only the latest
+ * one is sent when the command has completed and the window has
+ * passed. This keeps slider and rule command storms from flooding the
+ * mesh. The commands are run on the {@link ZigbeeConverterExecutor},
+ * one after another per endpoint cluster. The state of an endpoint
+ * cluster is dropped once its window has passed without new commands.
+ * @author Brian Crosby
+ * @since 1.5.0
+ */
+public class ZigbeeCommandCoalescer {
+
+	private static final Logger logger = LoggerFactory.getLogger(ZigbeeCommandCoalescer.class);
+
+	private final ConcurrentMap<String, CommandSlot> slots = new ConcurrentHashMap<String, CommandSlot>();
+	private final ScheduledExecutorService scheduler;
+	private final ZigbeeConverterExecutor executor;
+	private final long window;
+
+	private final AtomicLong sentCount = new AtomicLong();
+	private final AtomicLong coalescedCount = new AtomicLong();
+
+	/**
+	 * Constructor. Creates a new instance of the ZigbeeCommandCoalescer class.
+	 * @param window the coalescing window in milliseconds. A window
+	 * of 0 sends every command right away.
+	 * @param executor the {@link ZigbeeConverterExecutor} the commands are run on.
+	 */
+	public ZigbeeCommandCoalescer(long window, ZigbeeConverterExecutor executor) {
+		this.window = window;
+		this.executor = executor;
+		this.scheduler = window > 0 ? Executors.newSingleThreadScheduledExecutor() : null;
+	}
+
+	/**
+	 * Sends a command, or holds it back when another command for the
+	 * same key is still running or was sent less than one window ago.
+	 * A held back command replaces any command that was held back before it.
+	 * @param key the key identifying the endpoint and cluster.
+	 * @param description describes the command for logging.
+	 * @param command the task that sends the command.
+	 */
+	public void submit(String key, String description, Runnable command) {
+		if (scheduler == null) {
+			sentCount.incrementAndGet();
+			executor.submit(key, description, command, null);
+			return;
+		}
+
+		while (true) {
+			CommandSlot slot = slots.get(key);
+			if (slot == null) {
+				slot = new CommandSlot(key);
+				CommandSlot existing = slots.putIfAbsent(key, slot);
+				if (existing != null)
+					slot = existing;
+			}
+
+			synchronized (slot) {
+				// The slot was dropped in the mean time, use a new one.
+				if (slot.evicted)
+					continue;
+				if (slot.busy) {
+					if (slot.pending != null)
+						coalescedCount.incrementAndGet();
+					slot.pending = command;
+					slot.pendingDescription = description;
+					logger.trace("Holding back command for {}", key);
+					return;
+				}
+				slot.busy = true;
+			}
+
+			send(slot, description, command);
+			return;
+		}
+	}
+
+	/**
+	 * Returns the number of endpoint clusters that have a command in
+	 * their coalescing window.
+	 * @return the number of active endpoint clusters.
+	 */
+	public int getActiveCount() {
+		return slots.size();
+	}
+
+	/**
+	 * Stops sending held back commands.
+	 */
+	public void shutdown() {
+		if (scheduler != null)
+			scheduler.shutdownNow();
+		slots.clear();
+	}
+
+	/**
+	 * Returns the number of commands that have been sent.
+	 * @return the number of commands sent.
+	 */
+	public long getSentCount() {
+		return sentCount.get();
+	}
+
+	/**
+	 * Returns the number of commands that were replaced by a newer
+	 * command before they were sent.
+	 * @return the number of commands dropped.
+	 */
+	public long getCoalescedCount() {
+		return coalescedCount.get();
+	}
+
+	/**
+	 * Runs a command of a slot on the executor. The slot stays busy
+	 * until the command has completed and the window has passed.
+	 * @param slot the slot of the command.
+	 * @param description describes the command for logging.
+	 * @param command the task that sends the command.
+	 */
+	private void send(final CommandSlot slot, String description, Runnable command) {
+		sentCount.incrementAndGet();
+		final long sent = System.currentTimeMillis();
+		executor.submit(slot.key, description, command, new Runnable() {
+			@Override
+			public void run() {
+				release(slot, Math.max(0, sent + window - System.currentTimeMillis()));
+			}
+		});
+	}
+
+	/**
+	 * Ends the window of the slot after a delay, sending the command that
+	 * was held back in the mean time, if any. A slot without a held back
+	 * command is dropped.
+	 * @param slot the slot to release.
+	 * @param delay the time in milliseconds until the window has passed.
+	 */
+	private void release(final CommandSlot slot, long delay) {
+		try {
+			scheduler.schedule(new Runnable() {
+				@Override
+				public void run() {
+					Runnable command;
+					String description;
+					synchronized (slot) {
+						command = slot.pending;
+						description = slot.pendingDescription;
+						slot.pending = null;
+						slot.pendingDescription = null;
+						if (command == null) {
+							slot.busy = false;
+							slot.evicted = true;
+							slots.remove(slot.key, slot);
+							return;
+						}
+					}
+					logger.trace("Sending latest command for {}", slot.key);
+					send(slot, description, command);
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+		} catch (RuntimeException e) {
+			// Shut down, nothing more will be sent.
+			synchronized (slot) {
+				slot.pending = null;
+				slot.pendingDescription = null;
+				slot.busy = false;
+				slot.evicted = true;
+				slots.remove(slot.key, slot);
+			}
+		}
+	}
+
+	/**
+	 * State of the commands for a single endpoint cluster.
+	 */
+	private static class CommandSlot {
+		private final String key;
+		private boolean busy = false;
+		private boolean evicted = false;
+		private Runnable pending = null;
+		private String pendingDescription = null;
+
+		private CommandSlot(String key) {
+			this.key = key;
+		}
+	}
+}
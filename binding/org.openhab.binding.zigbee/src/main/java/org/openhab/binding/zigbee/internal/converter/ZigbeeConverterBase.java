@@ -13,6 +13,8 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 import org.openhab.binding.zigbee.internal.converter.command.ZigbeeCommandConverter;
 import org.openhab.binding.zigbee.internal.converter.state.StateComparator;
@@ -20,6 +22,7 @@ import org.openhab.binding.zigbee.internal.converter.state.ZigbeeStateConverter;
 import org.openhab.binding.zigbee.internal.protocol.ZigbeeController;
 import org.openhab.binding.zigbee.internal.protocol.commandclass.ZigbeeCommandClass.CommandClass;
 import org.openhab.core.events.EventPublisher;
+import org.openhab.core.items.GroupItem;
 import org.openhab.core.items.Item;
 import org.openhab.core.types.Command;
 import org.openhab.core.types.State;
@@ -38,6 +41,11 @@ public abstract class ZigbeeConverterBase {
 	private final Map<Class<? extends State>,ZigbeeStateConverter<?,?>> stateConverters = new HashMap<Class<? extends State>, ZigbeeStateConverter<?,?>>();
 	private final Map<Class<? extends Command>, ZigbeeCommandConverter<?,?>> commandConverters = new HashMap<Class<? extends Command>, ZigbeeCommandConverter<?,?>>();
 	
+	// Resolved state converters per item class and value class. Items with no
+	// matching converter map to NO_CONVERTER, since the map can't hold null.
+	private final ConcurrentMap<Class<?>, ConcurrentMap<Class<?>, Object>> resolvedStateConverters = new ConcurrentHashMap<Class<?>, ConcurrentMap<Class<?>, Object>>();
+	private static final Object NO_CONVERTER = new Object();
+	
 	/**
 	 * Constructor. Creates a new instance of the {@link ZigbeeConverterBase}
 	 * class.
@@ -72,6 +80,7 @@ public abstract class ZigbeeConverterBase {
 	 */
 	protected void addStateConverter(ZigbeeStateConverter<?,?> converter) {
 		this.stateConverters.put(converter.getState(), converter);
+		invalidateStateConverters();
 	}
 	
 	/**
@@ -97,9 +106,38 @@ public abstract class ZigbeeConverterBase {
 	 * @return a converter object that converts between the value and the state;
 	 */
 	protected ZigbeeStateConverter<?,?> getStateConverter(Item item, Object value) {
-		if(item == null)
+		if(item == null || value == null)
 			return null;
 
+		// The accepted data types of a group depend on its base item, not on its class.
+		if (item instanceof GroupItem)
+			return resolveStateConverter(item, value);
+
+		ConcurrentMap<Class<?>, Object> byValueClass = resolvedStateConverters.get(item.getClass());
+		if (byValueClass == null) {
+			byValueClass = new ConcurrentHashMap<Class<?>, Object>();
+			ConcurrentMap<Class<?>, Object> existing = resolvedStateConverters.putIfAbsent(item.getClass(), byValueClass);
+			if (existing != null)
+				byValueClass = existing;
+		}
+
+		Object result = byValueClass.get(value.getClass());
+		if (result == null) {
+			ZigbeeStateConverter<?,?> converter = resolveStateConverter(item, value);
+			result = converter != null ? converter : NO_CONVERTER;
+			byValueClass.put(value.getClass(), result);
+		}
+		return result == NO_CONVERTER ? null : (ZigbeeStateConverter<?,?>) result;
+	}
+
+	/**
+	 * Finds the {@link ZigbeeStateConverter} for an item and a value, trying
+	 * the data types accepted by the item in order of precedence.
+	 * @param item the {@link Item} that has to receive the State;
+	 * @param value the value to convert.
+	 * @return the converter, or null if there is none.
+	 */
+	private ZigbeeStateConverter<?,?> resolveStateConverter(Item item, Object value) {
 		List<Class<? extends State>> list = new ArrayList<Class<? extends State>>(item.getAcceptedDataTypes());
 		Collections.sort(list, new StateComparator());
 
@@ -115,6 +153,14 @@ public abstract class ZigbeeConverterBase {
 		return null;
 	}
 
+	/**
+	 * Forgets the resolved state converters, so that they are resolved again
+	 * on next use. Called when the converters or the bound items change.
+	 */
+	public void invalidateStateConverters() {
+		resolvedStateConverters.clear();
+	}
+
 	/**
 	 * Gets a {@link ZigbeeCommandConverter} that is suitable for this {@link CommandClass}
 	 * @param commandClass the {@link CommandClass} that sent the value.
@@ -0,0 +1,292 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.zigbee.internal.converter;
+
+import java.util.LinkedList;
+import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ZigbeeConverterExecutor class. Runs the commands and refreshes of the
+ * converters for one coordinator on a bounded pool of threads, so that a
+ * slow or dead device does not hold up the openHAB event thread or the
+ * other items. Calls that take longer than the timeout are cancelled,
+ * the timeout starts when the call starts running. Calls submitted with
+ * the same key are run one after another, in the order they were
+ * submitted, so commands for the same endpoint cluster can't overtake
+ * each other.
+ * @author Brian Crosby
+ * @since 1.5.0
+ */
+public class ZigbeeConverterExecutor {
+
+	private static final Logger logger = LoggerFactory.getLogger(ZigbeeConverterExecutor.class);
+	private static final int QUEUE_SIZE = 256;
+	
+	public static final int DEFAULT_THREADS = 4;
+	public static final long DEFAULT_TIMEOUT = 10000;
+
+	private final ThreadPoolExecutor executor;
+	private final ScheduledExecutorService timer;
+	private final long timeout;
+	private final ConcurrentMap<String, KeyQueue> keyQueues = new ConcurrentHashMap<String, KeyQueue>();
+
+	private final AtomicInteger timeoutCount = new AtomicInteger(0);
+	private final AtomicInteger rejectedCount = new AtomicInteger(0);
+
+	/**
+	 * Constructor. Creates a new instance of the ZigbeeConverterExecutor class.
+	 * @param threads the number of threads calls are run on.
+	 * @param timeout the time in milliseconds after which a call is cancelled.
+	 */
+	public ZigbeeConverterExecutor(int threads, long timeout) {
+		this.timeout = timeout;
+		this.executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(QUEUE_SIZE), new ConverterThreadFactory());
+		this.timer = Executors.newSingleThreadScheduledExecutor(new ConverterThreadFactory());
+	}
+
+	/**
+	 * Runs a converter call. The call is cancelled when it has not
+	 * completed within the timeout.
+	 * @param description describes the call for logging.
+	 * @param task the call to run.
+	 * @return a {@link Future} that completes when the call is done. When the
+	 * executor is full or shut down the returned future is already cancelled.
+	 */
+	public Future<?> submit(String description, Runnable task) {
+		return submit(null, description, task, null);
+	}
+
+	/**
+	 * Runs a converter call after the calls that were submitted before it
+	 * with the same key. The call is cancelled when it has not completed
+	 * within the timeout.
+	 * @param key the key of the calls that must not run at the same time,
+	 * or null to run the call as soon as a thread is free.
+	 * @param description describes the call for logging.
+	 * @param task the call to run.
+	 * @param completion called when the call has completed, failed or was
+	 * cancelled, or null.
+	 * @return a {@link Future} that completes when the call is done. When the
+	 * executor is full or shut down the returned future is already cancelled.
+	 */
+	public Future<?> submit(String key, String description, Runnable task, Runnable completion) {
+		ConverterCall call = new ConverterCall(description, task, completion);
+		if (key == null) {
+			execute(call);
+			return call;
+		}
+
+		while (true) {
+			KeyQueue queue = keyQueues.get(key);
+			if (queue == null) {
+				queue = new KeyQueue(key);
+				KeyQueue existing = keyQueues.putIfAbsent(key, queue);
+				if (existing != null)
+					queue = existing;
+			}
+
+			synchronized (queue) {
+				// The queue was dropped in the mean time, use a new one.
+				if (queue.removed)
+					continue;
+				call.queue = queue;
+				if (queue.running != null) {
+					queue.waiting.add(call);
+					return call;
+				}
+				queue.running = call;
+			}
+			execute(call);
+			return call;
+		}
+	}
+
+	/**
+	 * Cancels all calls that are queued or running.
+	 */
+	public void shutdown() {
+		executor.shutdownNow();
+		timer.shutdownNow();
+		keyQueues.clear();
+	}
+
+	/**
+	 * Returns the number of calls waiting to be run.
+	 * @return the queue length.
+	 */
+	public int getQueueLength() {
+		return executor.getQueue().size();
+	}
+
+	/**
+	 * Returns the number of calls cancelled because they timed out.
+	 * @return the number of timeouts.
+	 */
+	public int getTimeoutCount() {
+		return timeoutCount.get();
+	}
+
+	/**
+	 * Returns the number of calls dropped because the queue was full.
+	 * @return the number of rejected calls.
+	 */
+	public int getRejectedCount() {
+		return rejectedCount.get();
+	}
+
+	/**
+	 * Hands a call to the thread pool, or cancels it when the pool is full.
+	 * @param call the call to run.
+	 */
+	private void execute(ConverterCall call) {
+		try {
+			executor.execute(call);
+		} catch (RejectedExecutionException e) {
+			rejectedCount.incrementAndGet();
+			logger.warn("Converter queue is full, dropping {}", call.description);
+			call.cancel(false);
+		}
+	}
+
+	/**
+	 * Starts the timeout of a call that has started running.
+	 * @param call the call.
+	 */
+	private void startTimeout(final ConverterCall call) {
+		try {
+			timer.schedule(new Runnable() {
+				@Override
+				public void run() {
+					if (call.isDone())
+						return;
+
+					timeoutCount.incrementAndGet();
+					logger.warn("{} did not complete within {}ms, cancelling", call.description, timeout);
+					call.cancel(true);
+				}
+			}, timeout, TimeUnit.MILLISECONDS);
+		} catch (RejectedExecutionException e) {
+			// Shut down, the call itself is cancelled by the executor.
+		}
+	}
+
+	/**
+	 * Starts the next call with the same key as a call that is done.
+	 * @param call the call that is done.
+	 */
+	private void next(ConverterCall call) {
+		KeyQueue queue = call.queue;
+		ConverterCall next;
+		synchronized (queue) {
+			// A call that was cancelled while waiting just leaves the queue.
+			if (queue.running != call) {
+				queue.waiting.remove(call);
+				return;
+			}
+			next = queue.waiting.poll();
+			queue.running = next;
+			if (next == null) {
+				queue.removed = true;
+				keyQueues.remove(queue.key, queue);
+				return;
+			}
+		}
+		execute(next);
+	}
+
+	/**
+	 * A converter call. Its timeout starts when it starts running.
+	 */
+	private class ConverterCall extends FutureTask<Object> {
+		private final String description;
+		private final Runnable completion;
+		private KeyQueue queue;
+
+		private ConverterCall(String description, Runnable task, Runnable completion) {
+			super(task, null);
+			this.description = description;
+			this.completion = completion;
+		}
+
+		@Override
+		public void run() {
+			if (isDone())
+				return;
+			startTimeout(this);
+			super.run();
+		}
+
+		@Override
+		protected void done() {
+			if (!isCancelled()) {
+				try {
+					get();
+				} catch (ExecutionException e) {
+					logger.error("Error in {}: {}", description, e.getCause().getLocalizedMessage());
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			if (queue != null)
+				next(this);
+			if (completion != null) {
+				try {
+					completion.run();
+				} catch (RuntimeException e) {
+					logger.error("Error completing {}: {}", description, e.getLocalizedMessage());
+				}
+			}
+		}
+	}
+
+	/**
+	 * The calls with the same key, one of which is running.
+	 */
+	private static class KeyQueue {
+		private final String key;
+		private final Queue<ConverterCall> waiting = new LinkedList<ConverterCall>();
+		private ConverterCall running = null;
+		private boolean removed = false;
+
+		private KeyQueue(String key) {
+			this.key = key;
+		}
+	}
+
+	/**
+	 * Creates the daemon threads converter calls are run on.
+	 */
+	private static class ConverterThreadFactory implements ThreadFactory {
+		private static final AtomicInteger threadNumber = new AtomicInteger(1);
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "Zigbee converter " + threadNumber.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -9,14 +9,23 @@
 package org.openhab.binding.zigbee.internal.converter;
 
 import java.util.Calendar;
+import java.util.Collections;
+import java.util.Dictionary;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
-import org.bubblecloud.zigbee.ZigBeeApiContext;
 import org.bubblecloud.zigbee.api.Device;
 import org.bubblecloud.zigbee.api.ZigBeeDeviceException;
 import org.bubblecloud.zigbee.api.cluster.Cluster;
-import org.bubblecloud.zigbee.api.cluster.general.OnOff;
+import org.bubblecloud.zigbee.api.cluster.general.Groups;
+import org.bubblecloud.zigbee.api.cluster.impl.api.core.Attribute;
+import org.bubblecloud.zigbee.api.cluster.impl.api.core.ReportListener;
+import org.bubblecloud.zigbee.api.cluster.impl.api.core.Reporter;
 import org.bubblecloud.zigbee.api.cluster.impl.api.core.ZigBeeClusterException;
 import org.bubblecloud.zigbee.api.cluster.measureament_sensing.TemperatureMeasurement;
 import org.openhab.binding.zigbee.ZigbeeBindingConfig;
@@ -27,6 +36,7 @@ import org.openhab.binding.zigbee.internal.protocol.SocketMessage;
 import org.openhab.binding.zigbee.internal.protocol.ZigbeeController;
 import org.openhab.binding.zigbee.internal.protocol.ZigbeeDeviceTypes;
 import org.openhab.binding.zigbee.internal.protocol.ZigbeeEndpoint;
+import org.openhab.binding.zigbee.internal.protocol.ZigbeeEndpointKey;
 import org.openhab.binding.zigbee.internal.protocol.ZigbeeNode;
 import org.openhab.binding.zigbee.internal.protocol.NodeStage;
 import org.openhab.binding.zigbee.internal.protocol.commandclass.ZigbeeCommandClass;
@@ -34,6 +44,7 @@ import org.openhab.binding.zigbee.internal.protocol.commandclass.ZigbeeCommandCl
 import org.openhab.binding.zigbee.internal.protocol.commandclass.ZigbeeMultiInstanceCommandClass;
 import org.openhab.binding.zigbee.internal.protocol.event.ZigbeeCommandClassValueEvent;
 import org.openhab.core.events.EventPublisher;
+import org.openhab.core.items.GroupItem;
 import org.openhab.core.items.Item;
 import org.openhab.core.library.items.ContactItem;
 import org.openhab.core.library.items.DimmerItem;
@@ -41,7 +52,6 @@ import org.openhab.core.library.items.NumberItem;
 import org.openhab.core.library.items.RollershutterItem;
 import org.openhab.core.library.items.SwitchItem;
 import org.openhab.core.library.types.DecimalType;
-import org.openhab.core.library.types.OnOffType;
 import org.openhab.core.types.Command;
 import org.openhab.core.types.State;
 import org.slf4j.Logger;
@@ -57,16 +67,21 @@ import org.slf4j.LoggerFactory;
 public class ZigbeeConverterHandler {
 
 	private static final Logger logger = LoggerFactory.getLogger(ZigbeeConverterHandler.class);
+	private static final long GROUP_COMMAND_TIMEOUT = 2000;	// time in which member commands are covered by a group command
 	
 	private final Map<CommandClass, ZigbeeCommandClassConverter<?>> converters = new HashMap<CommandClass, ZigbeeCommandClassConverter<?>>();
 	private final Map<String, Zigbee4JavaCommandConverter> z4j_converters = new HashMap<String, Zigbee4JavaCommandConverter>();
 	private final Map<Class<? extends Item>, CommandClass[]> preferredCommandClasses = new HashMap<Class<? extends Item>, CommandClass[]>();
+	private final Map<String, ReportSubscription> reportSubscriptions = new ConcurrentHashMap<String, ReportSubscription>();
+	private final Set<String> groupMemberships = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+	private final ConcurrentMap<String, GroupCommand> groupCommands = new ConcurrentHashMap<String, GroupCommand>();
+	private final Map<String, ItemBinding> itemBindings = new ConcurrentHashMap<String, ItemBinding>();
 	private final ZigbeeController controller;
 	private final ZigbeeInfoConverter infoConverter;
 	private final EventPublisher eventPublisher;
-	
-	private Integer refresh_index=0;
-	private Integer REFRESH_MAX=86400; //one day=60s*60*24
+	private final ZigbeeCommandCoalescer commandCoalescer;
+	private final ZigbeeConverterExecutor converterExecutor;
+	private final ZigbeeMailbox mailbox = new ZigbeeMailbox();
 	
 	/**
 	 * Constructor. Creates a new instance of the {@ link ZigbeeConverterHandler} class.
@@ -74,11 +89,38 @@ public class ZigbeeConverterHandler {
 	 * @param eventPublisher the {@link EventPublisher} to use to post updates.
 	 */
 	public ZigbeeConverterHandler(ZigbeeController controller, EventPublisher eventPublisher) {
+		this(controller, eventPublisher, 0);
+	}
+	
+	/**
+	 * Constructor. Creates a new instance of the {@ link ZigbeeConverterHandler} class.
+	 * @param controller the {@link ZigbeeController} to use to send messages.
+	 * @param eventPublisher the {@link EventPublisher} to use to post updates.
+	 * @param coalesceWindow the time in milliseconds in which commands to the
+	 * same endpoint cluster are collapsed into the latest one, 0 to disable.
+	 */
+	public ZigbeeConverterHandler(ZigbeeController controller, EventPublisher eventPublisher, long coalesceWindow) {
+		this(controller, eventPublisher, coalesceWindow, 
+				new ZigbeeConverterExecutor(ZigbeeConverterExecutor.DEFAULT_THREADS, ZigbeeConverterExecutor.DEFAULT_TIMEOUT));
+	}
+	
+	/**
+	 * Constructor. Creates a new instance of the {@ link ZigbeeConverterHandler} class.
+	 * @param controller the {@link ZigbeeController} to use to send messages.
+	 * @param eventPublisher the {@link EventPublisher} to use to post updates.
+	 * @param coalesceWindow the time in milliseconds in which commands to the
+	 * same endpoint cluster are collapsed into the latest one, 0 to disable.
+	 * @param converterExecutor the {@link ZigbeeConverterExecutor} that runs the
+	 * converter commands and refreshes for this controller.
+	 */
+	public ZigbeeConverterHandler(ZigbeeController controller, EventPublisher eventPublisher, long coalesceWindow, ZigbeeConverterExecutor converterExecutor) {
 		this.controller = controller;
 		this.eventPublisher = eventPublisher;
+		this.commandCoalescer = new ZigbeeCommandCoalescer(coalesceWindow, converterExecutor);
+		this.converterExecutor = converterExecutor;
 		// add converters here
 		z4j_converters.put("onoff", new ZigbeeOnOffConverter(controller, eventPublisher));
-		//z4j_converters.put("temperature", new ZigbeeTemperatureConverter(controller, eventPublisher));
+		z4j_converters.put("temperature", new ZigbeeTemperatureConverter(controller, eventPublisher));
 		//converters.put(CommandClass.THERMOSTAT_SETPOINT, new ZigbeeThermostatSetpointConverter(controller, eventPublisher));
 		//converters.put(CommandClass.BATTERY, new ZigbeeBatteryConverter(controller, eventPublisher));
 		converters.put(CommandClass.SWITCH_BINARY, new ZigbeeBinarySwitchConverter(controller, eventPublisher));
@@ -89,7 +131,7 @@ public class ZigbeeConverterHandler {
 		//converters.put(CommandClass.METER, new ZigbeeMeterConverter(controller, eventPublisher));
 		//converters.put(CommandClass.BASIC, new ZigbeeBasicConverter(controller, eventPublisher));
 		converters.put(CommandClass.SCENE_ACTIVATION, new ZigbeeSceneConverter(controller, eventPublisher));
-		infoConverter = new ZigbeeInfoConverter(controller, eventPublisher);
+		infoConverter = new ZigbeeInfoConverter(controller, eventPublisher, commandCoalescer);
 		
 		// add preferred command classes per Item class here
 		preferredCommandClasses.put(SwitchItem.class, new CommandClass[] { CommandClass.SWITCH_BINARY, CommandClass.BASIC });
@@ -132,6 +174,25 @@ public class ZigbeeConverterHandler {
 	public Zigbee4JavaCommandConverter getConverter(String command) {
 		return z4j_converters.get(command);
 	}
+
+	/**
+	 * Returns the endpoint, command class and converter an item is bound to.
+	 * They are resolved when the item is subscribed to reports, which is done
+	 * for every item when it is bound, and are dropped when it is unsubscribed.
+	 * An item that is used before it is subscribed, or whose configuration
+	 * has been replaced since, is resolved again.
+	 * @param itemName the name of the item.
+	 * @param bindingConfiguration the binding configuration of the item.
+	 * @return the resolved binding.
+	 */
+	private ItemBinding resolve(String itemName, ZigbeeBindingConfig bindingConfiguration) {
+		ItemBinding binding = itemBindings.get(itemName);
+		if (binding == null || binding.bindingConfiguration != bindingConfiguration) {
+			binding = new ItemBinding(bindingConfiguration, getConverter(bindingConfiguration.getCommand()));
+			itemBindings.put(itemName, binding);
+		}
+		return binding;
+	}
 	
 	/**
 	 * Returns the command class that provides the best suitable converter to convert between the Zigbee API and the binding.
@@ -194,44 +255,57 @@ public class ZigbeeConverterHandler {
 	public void executeRefresh(ZigbeeBindingProvider provider, String itemName, boolean forceRefresh) {
 		ZigbeeBindingConfig bindingConfiguration = provider.getZigbeeBindingConfig(itemName);
 		
-//		Integer refresh_interval = bindingConfiguration.getRefreshInterval();
-//		logger.info("ZigbeeConverterHandler.executeRefresh()");
-//		if (refresh_interval.equals(0)) {
-//			return;
-//		}
-//		if(refresh_index==REFRESH_MAX-1) {
-//			refresh_index=0;
-//			return;
-//		}
-//		else if(refresh_index%refresh_interval!=0) {
-//			refresh_index+=1;
-//			return;
-//		}
+		// Group items have no device of their own to refresh
+		if (provider.getItem(itemName) instanceof GroupItem)
+			return;
 		
 		logger.info("ZigbeeConverterHandler.executeRefresh:  start to refresh");
-		//get Device from zigbeeDevices by ieee+endpoingid
-		//if can't find the Device, send permitJoin to add this device to controller's zigbeeDevices
-		ZigBeeApiContext zigbeeApiContext = this.controller.getZigbeeApiContext();
-		Device device = zigbeeApiContext.getDevice(bindingConfiguration.getEndpointId());
+		ItemBinding binding = resolve(itemName, bindingConfiguration);
+		//get Device from the device registry by ieee+endpointid
+		//if can't find the Device, send permitJoin to add this device to controller's device registry
+		final Device device = this.controller.getDevice(binding.endpointKey);
 		if(device == null) {
 			logger.error("Item {} has non existant node {}", itemName, bindingConfiguration.getEndpointId());
 			return;
 		}
-		System.out.println("Yxxxxxxxxxxxxxxxxxxx111");
 		//get CommandClass from command string in provider
 		//need to have a map between commands in demo.items and CommandClass in zigbee4java
 		//also need to create the map between openhab items(Switch, Dimmer, Number, String etc.) and CommandClass's function in zigbee4java
-		Map<String, String> arguments = bindingConfiguration.getArguments();
-		if (!arguments.containsKey("command")) {
+		final Map<String, String> arguments = bindingConfiguration.getArguments();
+		if (bindingConfiguration.getCommand() == null) {
 			logger.error("Item {} has no device type set {}", itemName, bindingConfiguration.getEndpointId());
 			return;
 		}
-		System.out.println("Yxxxxxxxxxxxxxxxxxxx222");
-		Item item = provider.getItem(itemName);
+		final Item item = provider.getItem(itemName);
 		
-		Zigbee4JavaCommandConverter converter = getConverter(arguments.get("command"));
+		final Zigbee4JavaCommandConverter converter = binding.converter;
+		if (converter == null) {
+			logger.warn("No converter found for item = {}, command = {}, ignoring.", itemName, bindingConfiguration.getCommand());
+			return;
+		}
+
+		// Serve the refresh from the attribute cache when the value is recent enough
+		long maxAge = bindingConfiguration.getMaxAge();
+		Attribute attribute = maxAge > 0 && binding.clusterId >= 0 ? converter.getReportingAttribute(device, arguments) : null;
+		if (attribute != null) {
+			Object value = controller.getAttributeCache().get(device, binding.clusterId, attribute.getId(), maxAge);
+			if (value != null) {
+				logger.trace("Item {}: refreshed from cache", itemName);
+				converter.handleReport(item, value, arguments);
+				return;
+			}
+		}
 
-		converter.executeRefresh(provider.getItem(itemName), device, bindingConfiguration.getArguments());
+		// A sleeping device can't be read, read it when it wakes up.
+		if (bindingConfiguration.isSleepy() && mailbox.holdRead(bindingConfiguration.getIeeeAddress(), itemName, new Runnable() {
+				@Override
+				public void run() {
+					converter.executeRefreshAsync(converterExecutor, item, device, arguments);
+				}
+			}))
+			return;
+
+		converter.executeRefreshAsync(converterExecutor, item, device, arguments);
 
 
 		/*Class<? extends Cluster> deviceTypeClass = ZigbeeDeviceTypes.getTypeDispatcher(arguments.get("type"));
@@ -334,6 +408,258 @@ public class ZigbeeConverterHandler {
 		 converter.executeRefresh(node, commandClass, bindingConfiguration.getEndpoint(), bindingConfiguration.getArguments());
 	*/}
 
+	/**
+	 * Subscribes to the attribute reports of the item, if the converter of the item
+	 * supports reporting. Reporting can be switched off for an item with the
+	 * report=false binding argument. Does nothing if the item is already subscribed.
+	 * @param provider the {@link ZigbeeBindingProvider} that provides the item
+	 * @param itemName the name of the item to subscribe.
+	 * @return true if attribute reports are received for the item, false
+	 * if the item has to be polled.
+	 */
+	public boolean subscribeReports(ZigbeeBindingProvider provider, String itemName) {
+		if (reportSubscriptions.containsKey(itemName))
+			return true;
+
+		ZigbeeBindingConfig bindingConfiguration = provider.getZigbeeBindingConfig(itemName);
+		Item item = provider.getItem(itemName);
+		if (bindingConfiguration == null || item == null)
+			return false;
+
+		// Resolved when the item is bound, so later refreshes and commands don't have to
+		ItemBinding binding = resolve(itemName, bindingConfiguration);
+		if (!bindingConfiguration.isReporting())
+			return false;
+
+		Map<String, String> arguments = bindingConfiguration.getArguments();
+		Zigbee4JavaCommandConverter converter = binding.converter;
+		if (converter == null)
+			return false;
+
+		Device device = this.controller.getDevice(binding.endpointKey);
+		if (device == null)
+			return false;
+
+		Attribute attribute = converter.getReportingAttribute(device, arguments);
+		if (attribute == null || !attribute.isReportable())
+			return false;
+
+		Reporter reporter = attribute.getReporter();
+		if (reporter == null)
+			return false;
+
+		ReportSubscription subscription = new ReportSubscription(item, converter, device, reporter, arguments,
+				bindingConfiguration.getIeeeAddress());
+		if (!reporter.addReportListener(subscription)) {
+			logger.warn("Item {}: unable to subscribe to reports of attribute {}, falling back to polling.", itemName, attribute.getName());
+			return false;
+		}
+
+		reportSubscriptions.put(itemName, subscription);
+		logger.debug("Item {}: subscribed to reports of attribute {}", itemName, attribute.getName());
+		return true;
+	}
+
+	/**
+	 * Removes the attribute report subscription of the item, if any,
+	 * and drops its resolved binding.
+	 * @param itemName the name of the item to unsubscribe.
+	 */
+	public void unsubscribeReports(String itemName) {
+		itemBindings.remove(itemName);
+		ReportSubscription subscription = reportSubscriptions.remove(itemName);
+		if (subscription == null)
+			return;
+
+		subscription.reporter.removeReportListener(subscription);
+		logger.debug("Item {}: unsubscribed from attribute reports", itemName);
+	}
+
+	/**
+	 * Adds the device an item is bound to to the ZigBee group set
+	 * with the 'group' argument of the binding, so that the device
+	 * can be switched with a group command. 
+	 * @param provider the {@link ZigbeeBindingProvider} that provides the item
+	 * @param itemName the name of the item.
+	 */
+	public void joinGroup(ZigbeeBindingProvider provider, String itemName) {
+		ZigbeeBindingConfig bindingConfiguration = provider.getZigbeeBindingConfig(itemName);
+		if (bindingConfiguration == null || bindingConfiguration.getGroupId() == null)
+			return;
+		
+		if (provider.getItem(itemName) instanceof GroupItem)
+			return;
+		
+		int groupId = bindingConfiguration.getGroupId();
+		String membership = bindingConfiguration.getEndpointId() + "#" + groupId;
+		if (groupMemberships.contains(membership))
+			return;
+		
+		Device device = this.controller.getDevice(resolve(itemName, bindingConfiguration).endpointKey);
+		if (device == null) {
+			logger.debug("Item {}: device {} not found, can't join group {}", itemName, bindingConfiguration.getEndpointId(), groupId);
+			return;
+		}
+		
+		Groups groups = device.getCluster(Groups.class);
+		if (groups == null) {
+			logger.debug("Item {}: device {} does not support groups", itemName, bindingConfiguration.getEndpointId());
+			return;
+		}
+		
+		try {
+			groups.addGroup(groupId, "");
+			groupMemberships.add(membership);
+			logger.debug("Item {}: device {} joined group {}", itemName, bindingConfiguration.getEndpointId(), groupId);
+		} catch (ZigBeeDeviceException e) {
+			logger.warn("Item {}: device {} could not join group {}: {}", 
+					new Object[] { itemName, bindingConfiguration.getEndpointId(), groupId, e.getLocalizedMessage() });
+		}
+	}
+
+	/**
+	 * Sends a command for a group item to all its members with a single
+	 * group addressed frame. The members are remembered before the frame
+	 * is sent, as openHAB passes the command on to them at the same time,
+	 * so that those commands are not sent again. The frame is sent on the
+	 * converter executor. When it fails, the members that already had
+	 * their command skipped are sent it one by one.
+	 * @param provider the {@link ZigbeeBindingProvider} that provides the item
+	 * @param itemName the name of the group item.
+	 * @param bindingConfiguration the binding configuration of the group item.
+	 * @param command the command to send.
+	 */
+	private void sendGroupCommand(final ZigbeeBindingProvider provider, String itemName, ZigbeeBindingConfig bindingConfiguration, final Command command) {
+		final int groupId = bindingConfiguration.getGroupId();
+		ItemBinding binding = resolve(itemName, bindingConfiguration);
+		Zigbee4JavaCommandConverter converter = binding.converter;
+		if (converter == null || binding.clusterId < 0 || converter.getGroupCommandId(command) < 0) {
+			logger.debug("Group {}: command {} is sent to the members one by one", groupId, command);
+			return;
+		}
+		final int clusterId = binding.clusterId;
+		final int commandId = converter.getGroupCommandId(command);
+		
+		long now = System.currentTimeMillis();
+		final Map<String, GroupCommand> covered = new HashMap<String, GroupCommand>();
+		for (String member : provider.getItemNamesForGroup(groupId)) {
+			ZigbeeBindingConfig memberConfiguration = provider.getZigbeeBindingConfig(member);
+			if (memberConfiguration == null || provider.getItem(member) instanceof GroupItem)
+				continue;
+			
+			// Only devices that are known to be in the group are switched
+			if (!groupMemberships.contains(memberConfiguration.getEndpointId() + "#" + groupId))
+				continue;
+			
+			GroupCommand groupCommand = new GroupCommand(command, now);
+			groupCommands.put(member, groupCommand);
+			covered.put(member, groupCommand);
+		}
+		
+		Future<?> future = converterExecutor.submit("Group " + groupId + " command " + command, new Runnable() {
+			@Override
+			public void run() {
+				if (!controller.sendGroupCommand(groupId, clusterId, commandId))
+					sendToMembers(provider, groupId, covered, command);
+			}
+		});
+		if (future.isCancelled())
+			sendToMembers(provider, groupId, covered, command);
+	}
+
+	/**
+	 * Sends a command one by one to the members of a group, after the
+	 * group command could not be sent. Members whose command has not
+	 * arrived yet send it themselves.
+	 * @param provider the {@link ZigbeeBindingProvider} that provides the items.
+	 * @param groupId the group.
+	 * @param covered the members that were to be switched by the group command.
+	 * @param command the command to send.
+	 */
+	private void sendToMembers(ZigbeeBindingProvider provider, int groupId, Map<String, GroupCommand> covered, Command command) {
+		logger.debug("Group {}: group command failed, command {} is sent to the members one by one", groupId, command);
+		for (Map.Entry<String, GroupCommand> entry : covered.entrySet()) {
+			groupCommands.remove(entry.getKey(), entry.getValue());
+			if (!entry.getValue().claim())
+				receiveCommand(provider, entry.getKey(), command);
+		}
+	}
+
+	/**
+	 * Checks whether a command for an item has already been sent
+	 * to the device as part of a group command.
+	 * @param itemName the name of the item.
+	 * @param command the command for the item.
+	 * @return true if the command does not need to be sent.
+	 */
+	private boolean isCoveredByGroupCommand(String itemName, Command command) {
+		GroupCommand groupCommand = groupCommands.remove(itemName);
+		return groupCommand != null && groupCommand.command.equals(command) &&
+				System.currentTimeMillis() - groupCommand.time < GROUP_COMMAND_TIMEOUT &&
+				groupCommand.claim();
+	}
+
+	/**
+	 * Removes all attribute report subscriptions.
+	 */
+	public void unsubscribeAllReports() {
+		for (String itemName : reportSubscriptions.keySet())
+			unsubscribeReports(itemName);
+	}
+
+	/**
+	 * Forgets the state converters the converters have resolved
+	 * for the bound items, e.g. because the bindings have changed.
+	 */
+	public void invalidateStateConverters() {
+		for (ZigbeeCommandClassConverter<?> converter : converters.values())
+			converter.invalidateStateConverters();
+		infoConverter.invalidateStateConverters();
+	}
+
+	/**
+	 * Stops the converter handler. Attribute reports are unsubscribed,
+	 * commands that are held back are no longer sent and converter calls
+	 * that are still queued or running are cancelled.
+	 */
+	public void shutdown() {
+		unsubscribeAllReports();
+		commandCoalescer.shutdown();
+		mailbox.clear();
+		converterExecutor.shutdown();
+	}
+
+	/**
+	 * Drops the commands and reads that were held too long for a
+	 * device that didn't wake up.
+	 * @return the number of messages dropped.
+	 */
+	public int expireHeldMessages() {
+		return mailbox.expire();
+	}
+
+	/**
+	 * Returns whether attribute reports are received for the item.
+	 * @param itemName the name of the item.
+	 * @return true if the item is subscribed to attribute reports.
+	 */
+	public boolean isReporting(String itemName) {
+		return reportSubscriptions.containsKey(itemName);
+	}
+
+	/**
+	 * Returns whether the device of an item has sent an attribute report
+	 * for it recently. A subscription counts as a report, so the device
+	 * gets a full interval to send its first one.
+	 * @param itemName the name of the item.
+	 * @param maxAge the time in milliseconds in which the report must have been received.
+	 * @return true if the item is subscribed and a report was received within maxAge.
+	 */
+	public boolean hasRecentReport(String itemName, long maxAge) {
+		ReportSubscription subscription = reportSubscriptions.get(itemName);
+		return subscription != null && System.currentTimeMillis() - subscription.lastReport < maxAge;
+	}
+
 	/**
 	 * Get the refresh interval for an item binding
 	 * 
@@ -345,8 +671,6 @@ public class ZigbeeConverterHandler {
 	@SuppressWarnings("unchecked")
 	public Integer getRefreshInterval(ZigbeeBindingProvider provider, String itemName) {
 		ZigbeeBindingConfig bindingConfiguration = provider.getZigbeeBindingConfig(itemName);
-		ZigbeeCommandClass commandClass;
-		String commandClassName = bindingConfiguration.getArguments().get("command");
 
 		// this binding is configured not to poll.
 		if (bindingConfiguration.getRefreshInterval() != null && 0 == bindingConfiguration.getRefreshInterval())
@@ -407,18 +731,16 @@ public class ZigbeeConverterHandler {
 	 public void handleEvent(ZigbeeBindingProvider provider, String itemName, ZigbeeCommandClassValueEvent event) {
 		ZigbeeBindingConfig bindingConfiguration = provider.getZigbeeBindingConfig(itemName);
 		Item item = provider.getItem(itemName);
-		String commandClassName = bindingConfiguration.getArguments().get("command");
-		boolean respondToBasic = "true".equalsIgnoreCase(bindingConfiguration.getArguments().get("respond_to_basic"));
 
-		logger.trace("Getting converter for item = {}, command class = {}, item command class = {}", itemName, event.getCommandClass().getLabel(), commandClassName);
+		logger.trace("Getting converter for item = {}, command class = {}, item command class = {}", itemName, event.getCommandClass(), bindingConfiguration.getCommand());
 		
 		if (item == null)
 			return;
 		
 		// check whether this item is bound to the right command class.
 		
-		if (commandClassName != null && !commandClassName.equalsIgnoreCase(event.getCommandClass().getLabel().toLowerCase()) &&
-				!(respondToBasic && event.getCommandClass() == CommandClass.BASIC)) 
+		if (bindingConfiguration.getCommand() != null && resolve(itemName, bindingConfiguration).commandClass != event.getCommandClass() &&
+				!(bindingConfiguration.isRespondToBasic() && event.getCommandClass() == CommandClass.BASIC)) 
 			return;
 		
 		 ZigbeeCommandClassConverter<?> converter = this.getConverter(event.getCommandClass());
@@ -443,10 +765,25 @@ public class ZigbeeConverterHandler {
 	public void receiveCommand(ZigbeeBindingProvider provider, String itemName, Command command) {
 		ZigbeeBindingConfig bindingConfiguration = provider.getZigbeeBindingConfig(itemName);
 		
-		//get Device from zigbeeDevices by ieee+endpoingid
-		//if can't find the Device, send permitJoin to add this device to controller's zigbeeDevices
-		ZigBeeApiContext zigbeeApiContext = this.controller.getZigbeeApiContext();
-		Device device = zigbeeApiContext.getDevice(bindingConfiguration.getEndpointId());
+		// Commands to a group item are sent as one group addressed frame. The
+		// commands openHAB passes on to the members are then already handled.
+		if (bindingConfiguration.getGroupId() != null) {
+			if (provider.getItem(itemName) instanceof GroupItem) {
+				sendGroupCommand(provider, itemName, bindingConfiguration, command);
+				return;
+			}
+			if (isCoveredByGroupCommand(itemName, command)) {
+				logger.debug("Item {} already received command {} through its group", itemName, command);
+				if (command instanceof State)
+					this.getEventPublisher().postUpdate(itemName, (State)command);
+				return;
+			}
+		}
+		
+		ItemBinding binding = resolve(itemName, bindingConfiguration);
+		//get Device from the device registry by ieee+endpointid
+		//if can't find the Device, send permitJoin to add this device to controller's device registry
+		Device device = this.controller.getDevice(binding.endpointKey);
 		if(device == null) {
 			logger.error("Item {} has non existant node {}", itemName, bindingConfiguration.getEndpointId());
 			return;
@@ -455,68 +792,55 @@ public class ZigbeeConverterHandler {
 		//get CommandClass from command string in provider
 		//need to have a map between commands in demo.items and CommandClass in zigbee4java
 		//also need to create the map between openhab items(Switch, Dimmer, Number, String etc.) and CommandClass's function in zigbee4java
-		Map<String, String> arguments = bindingConfiguration.getArguments();
-		if (!arguments.containsKey("command")) {
+		if (bindingConfiguration.getCommand() == null) {
 			logger.error("Item {} has no device type set {}", itemName, bindingConfiguration.getEndpointId());
 			return;
 		}
 		
-		Item item = provider.getItem(itemName);
+		final Item item = provider.getItem(itemName);
 		
-		Zigbee4JavaCommandConverter converter = getConverter(arguments.get("command"));
-
-		converter.receiveCommand(provider.getItem(itemName), command, device, bindingConfiguration.getArguments());
+		final Zigbee4JavaCommandConverter converter = binding.converter;
+		if (converter == null) {
+			logger.warn("No converter found for item = {}, command = {}, ignoring.", itemName, bindingConfiguration.getCommand());
+			return;
+		}
 
-		/*Class<? extends Cluster> deviceTypeClass = ZigbeeDeviceTypes.getTypeDispatcher(arguments.get("type"));
-		//Class<? extends Cluster> ZigbeeDeviceTypes().getCluster("Switch");
-		Cluster cluster = device.getCluster(deviceTypeClass);
-		*/
-		//translate command to CommandClass's function
-		//then execute the function
-		//then send response to UI/content provider
-		System.out.println("print command:");
-		System.out.println(command);
-		if (arguments.get("command").equalsIgnoreCase("SWITCH_BINARY")) {
-			
-			
+		final Command latestCommand = command;
+		final Device targetDevice = device;
+		final Map<String, String> converterArguments = bindingConfiguration.getArguments();
+		
+		// Commands for a sleeping device are held until it wakes up, unless it
+		// has just reported. The state is only updated when the command is sent.
+		if (bindingConfiguration.isSleepy() && mailbox.holdCommand(bindingConfiguration.getIeeeAddress(), bindingConfiguration.getCommandKey(), itemName, new Runnable() {
+				@Override
+				public void run() {
+					converter.receiveCommandAsync(converterExecutor, item, latestCommand, targetDevice, converterArguments);
+					controller.recordCommand();
+					if (latestCommand instanceof State)
+						getEventPublisher().postUpdate(item.getName(), (State)latestCommand);
+				}
+			})) {
+			logger.debug("Item {}: device is asleep, holding command {}", itemName, command);
+			return;
+		}
+		
+		// The coalescer runs the command on the converter executor, after the
+		// commands for the same endpoint cluster that are still running.
+		commandCoalescer.submit(bindingConfiguration.getCommandKey(), "Command " + command + " for item " + itemName, new Runnable() {
+			@Override
+			public void run() {
+				converter.receiveCommand(item, latestCommand, targetDevice, converterArguments);
+			}
+		});
+		this.controller.recordCommand();
 		
-			OnOff onOff = device.getCluster(OnOff.class);
-			
-            try {
-            	if (command==OnOffType.ON) {
-            		System.out.println("xxxxxxxxxxxxxxxxxxxONNN");
-            		onOff.on();
-            	}
-            	else if (command==OnOffType.OFF) {
-            		System.out.println("xxxxxxxxxxxxxxxxxxxOFFF");
-                	onOff.off();
-                	
-            	}
-            	else
-            		System.out.println("wrong commands!!!!!!!!!!!!!11");
-            } catch (ZigBeeDeviceException e) {
-                e.printStackTrace();
-            }
-		} 
-		
-		System.out.println("xxxxxxxxxxxxxxxxxxx333");
 		if (command instanceof State)
 			this.getEventPublisher().postUpdate(item.getName(), (State)command);
 		
-		/*
-		 OnOff onOff = device.getCluster(OnOff.class);
-            try {
-                onOff.on();
-            } catch (ZigBeeDeviceException e) {
-                e.printStackTrace();
-            }
-		 */
-		
 
 		
 	/*
-		ZigBeeApiContext zigbeeApiContext = this.controller.getZigbeeApiContext();
-		Device device = zigbeeApiContext.getDevice(bindingConfiguration.getEndpointId());
+		Device device = this.controller.getDevice(bindingConfiguration.getEndpointKey());
 		if(device == null) {
 			logger.error("Item {} has non existant node {}", itemName, bindingConfiguration.getEndpointId());
 			return;
@@ -552,5 +876,89 @@ public class ZigbeeConverterHandler {
 		 converter.receiveCommand(provider.getItem(itemName), command, device, commandClass, bindingConfiguration.getEndpoint(), bindingConfiguration.getArguments());
 		*/
 	}
+
+	/**
+	 * ReportSubscription class. Receives the attribute reports of a
+	 * single item and passes them on to the converter of the item.
+	 */
+	private class ReportSubscription implements ReportListener {
+		private final Item item;
+		private final Zigbee4JavaCommandConverter converter;
+		private final Device device;
+		private final Reporter reporter;
+		private final Map<String, String> arguments;
+		private final long ieeeAddress;
+		private volatile long lastReport = System.currentTimeMillis();
+
+		ReportSubscription(Item item, Zigbee4JavaCommandConverter converter, Device device, Reporter reporter, Map<String, String> arguments, long ieeeAddress) {
+			this.item = item;
+			this.converter = converter;
+			this.device = device;
+			this.reporter = reporter;
+			this.arguments = arguments;
+			this.ieeeAddress = ieeeAddress;
+		}
+
+		/**
+		 * {@inheritDoc}
+		 */
+		@Override
+		public void receivedReport(Dictionary<Attribute, Object> reports) {
+			Object value = reports.get(reporter.getAttribute());
+			if (value == null)
+				return;
+
+			logger.trace("Item {}: received report {}", item.getName(), value);
+			lastReport = System.currentTimeMillis();
+			
+			// A report is the only frame a sleeping device is known to send, it
+			// shows the device is awake. Send what was held for it.
+			mailbox.wakeUp(ieeeAddress);
+			if (converter.getClusterId() >= 0)
+				controller.getAttributeCache().put(device, converter.getClusterId(), reporter.getAttribute().getId(), value);
+			converter.handleReport(item, value, arguments);
+		}
+	}
+
+	/**
+	 * The endpoint, command class and converter of an item, resolved
+	 * from its binding configuration.
+	 */
+	private static class ItemBinding {
+		private final ZigbeeBindingConfig bindingConfiguration;
+		private final ZigbeeEndpointKey endpointKey;
+		private final CommandClass commandClass;
+		private final Zigbee4JavaCommandConverter converter;
+		private final int clusterId;
 		
+		private ItemBinding(ZigbeeBindingConfig bindingConfiguration, Zigbee4JavaCommandConverter converter) {
+			String command = bindingConfiguration.getCommand();
+			this.bindingConfiguration = bindingConfiguration;
+			this.endpointKey = new ZigbeeEndpointKey(bindingConfiguration.getIeeeAddress(), bindingConfiguration.getEndpoint());
+			this.commandClass = command != null ? CommandClass.getCommandClass(command) : null;
+			this.converter = converter;
+			this.clusterId = converter != null ? converter.getClusterId() : -1;
+		}
+	}
+
+	/**
+	 * Command that is sent to an item as a member of a group. It is
+	 * claimed either by the command openHAB passes on to the member,
+	 * which is then skipped, or by a failed group command, after which
+	 * the member's command is sent on its own.
+	 */
+	private static class GroupCommand {
+		private final Command command;
+		private final long time;
+		private final AtomicBoolean claimed = new AtomicBoolean(false);
+		
+		private GroupCommand(Command command, long time) {
+			this.command = command;
+			this.time = time;
+		}
+		
+		private boolean claim() {
+			return claimed.compareAndSet(false, true);
+		}
+	}
 }
@@ -37,15 +37,19 @@ public class ZigbeeInfoConverter extends ZigbeeConverterBase {
 
 	private static final Logger logger = LoggerFactory.getLogger(ZigbeeInfoConverter.class);
 	private static final int REFRESH_INTERVAL = 10; // refresh interval in seconds
+	
+	private final ZigbeeCommandCoalescer commandCoalescer;
 
 	/**
 	 * Constructor. Creates a new instance of the {@link ZigbeeConverterBase}
 	 * class.
 	 * @param controller the {@link ZigbeeController} to use to send messages.
 	 * @param eventPublisher the {@link EventPublisher} that can be used to send updates.
+	 * @param commandCoalescer the {@link ZigbeeCommandCoalescer} the commands are sent through.
 	 */
-	public ZigbeeInfoConverter(ZigbeeController controller, EventPublisher eventPublisher) {
+	public ZigbeeInfoConverter(ZigbeeController controller, EventPublisher eventPublisher, ZigbeeCommandCoalescer commandCoalescer) {
 		super(controller, eventPublisher);
+		this.commandCoalescer = commandCoalescer;
         
 		// State converters used by this converter. 
         this.addStateConverter(new StringStringTypeConverter());
@@ -150,6 +154,34 @@ public class ZigbeeInfoConverter extends ZigbeeConverterBase {
 				return this.getController().getOOFCount();
 			case REPORT_TIME_OUT:
 				return this.getController().getTimeOutCount();
+			case REPORT_CACHE_HITS:
+				return this.getController().getAttributeCache().getHitCount();
+			case REPORT_CACHE_MISSES:
+				return this.getController().getAttributeCache().getMissCount();
+			case REPORT_EVENT_QUEUE:
+				return this.getController().getEventQueueDepth();
+			case REPORT_EVENT_QUEUE_MAX:
+				return this.getController().getMaxEventQueueDepth();
+			case REPORT_EVENTS_DROPPED:
+				return this.getController().getDroppedEventCount();
+			case REPORT_TIME_TO_FIRST_COMMAND:
+				return this.getController().getTimeToFirstCommand();
+			case REPORT_TIME_TO_BROWSED:
+				return this.getController().getTimeToFullyBrowsed();
+			case REPORT_RTT:
+				return this.getController().getRoundTripEstimator().getSmoothedRoundTripTime(node.getNodeId());
+			case REPORT_RTT_P50:
+				return this.getController().getRoundTripEstimator().getRoundTripTimePercentile(node.getNodeId(), 50);
+			case REPORT_RTT_P90:
+				return this.getController().getRoundTripEstimator().getRoundTripTimePercentile(node.getNodeId(), 90);
+			case REPORT_RTT_P99:
+				return this.getController().getRoundTripEstimator().getRoundTripTimePercentile(node.getNodeId(), 99);
+			case REPORT_RESPONSE_TIMEOUT:
+				return this.getController().getRoundTripEstimator().getTimeout(node.getNodeId());
+			case REPORT_COMMANDS_SENT:
+				return commandCoalescer.getSentCount();
+			case REPORT_COMMANDS_COALESCED:
+				return commandCoalescer.getCoalescedCount();
 			case REPORT_LASTUPDATE:
 				return node.getLastUpdated();
 		}
@@ -275,7 +307,77 @@ public class ZigbeeInfoConverter extends ZigbeeConverterBase {
 		/**
 		 * Reports the amount of out of timed out packets this node has received.
 		 */
-		REPORT_TIME_OUT("TIME_OUT");
+		REPORT_TIME_OUT("TIME_OUT"),
+		
+		/**
+		 * Reports the amount of refreshes served from the attribute cache.
+		 */
+		REPORT_CACHE_HITS("CACHE_HITS"),
+		
+		/**
+		 * Reports the amount of refreshes that could not be served from the attribute cache.
+		 */
+		REPORT_CACHE_MISSES("CACHE_MISSES"),
+		
+		/**
+		 * Reports the number of events waiting to be delivered to the event listeners.
+		 */
+		REPORT_EVENT_QUEUE("EVENT_QUEUE"),
+		
+		/**
+		 * Reports the largest number of events that have been waiting for a single event listener.
+		 */
+		REPORT_EVENT_QUEUE_MAX("EVENT_QUEUE_MAX"),
+		
+		/**
+		 * Reports the amount of events dropped because the queue of an event listener was full.
+		 */
+		REPORT_EVENTS_DROPPED("EVENTS_DROPPED"),
+		
+		/**
+		 * Reports the time in milliseconds from startup until the first command was sent to a device.
+		 */
+		REPORT_TIME_TO_FIRST_COMMAND("TIME_TO_FIRST_COMMAND"),
+		
+		/**
+		 * Reports the time in milliseconds from startup until the network was fully browsed.
+		 */
+		REPORT_TIME_TO_BROWSED("TIME_TO_BROWSED"),
+		
+		/**
+		 * Reports the smoothed round trip time in milliseconds of the requests to the node.
+		 */
+		REPORT_RTT("RTT"),
+		
+		/**
+		 * Reports the median round trip time in milliseconds of the last requests to the node.
+		 */
+		REPORT_RTT_P50("RTT_P50"),
+		
+		/**
+		 * Reports the 90th percentile round trip time in milliseconds of the last requests to the node.
+		 */
+		REPORT_RTT_P90("RTT_P90"),
+		
+		/**
+		 * Reports the 99th percentile round trip time in milliseconds of the last requests to the node.
+		 */
+		REPORT_RTT_P99("RTT_P99"),
+		
+		/**
+		 * Reports the current response timeout in milliseconds of the node.
+		 */
+		REPORT_RESPONSE_TIMEOUT("RESPONSE_TIMEOUT"),
+		
+		/**
+		 * Reports the amount of commands sent to the devices.
+		 */
+		REPORT_COMMANDS_SENT("COMMANDS_SENT"),
+		
+		/**
+		 * Reports the amount of commands replaced by a newer command before they were sent.
+		 */
+		REPORT_COMMANDS_COALESCED("COMMANDS_COALESCED");
 		
 		private String label;
 		private static Map<String, ZigbeeInformationItem> labelToZigbeeInfoItemMapping;
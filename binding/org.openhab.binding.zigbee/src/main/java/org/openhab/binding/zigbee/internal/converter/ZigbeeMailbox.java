@@ -0,0 +1,331 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.zigbee.internal.converter;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ZigbeeMailbox class. Holds the commands and reads for battery powered
+ * end devices that sleep most of the time. Sending to a sleeping device
+ * only ends in timeouts, so the messages are kept per device until it
+ * shows it is awake by sending a report, and are then sent in one burst.
+ * For a short time after that the device is taken to be awake, and new
+ * messages are not held but sent right away. A newer command with the
+ * same key replaces the held one, and an item is read at most once per
+ * wake-up. A device that never shows up again doesn't keep its messages
+ * forever: only a limited number of messages is held per device, and
+ * messages are dropped with a warning when they are too old.
+ * @author Brian Crosby
+ * @since 1.5.0
+ */
+public class ZigbeeMailbox {
+
+	/**
+	 * The default time in milliseconds after which a held message is dropped.
+	 */
+	public static final long DEFAULT_MAX_AGE = 3600000;
+
+	/**
+	 * The default maximum number of messages held per device.
+	 */
+	public static final int DEFAULT_CAPACITY = 16;
+
+	/**
+	 * The default time in milliseconds a device is taken to be awake after it woke up.
+	 */
+	public static final long DEFAULT_AWAKE_TIME = 5000;
+
+	private static final Logger logger = LoggerFactory.getLogger(ZigbeeMailbox.class);
+
+	private final ConcurrentMap<Long, Mailbox> mailboxes = new ConcurrentHashMap<Long, Mailbox>();
+	private final ConcurrentMap<Long, Long> awakeUntil = new ConcurrentHashMap<Long, Long>();
+	private final long maxAge;
+	private final int capacity;
+	private final long awakeTime;
+
+	private final AtomicLong heldCount = new AtomicLong();
+	private final AtomicLong replacedCount = new AtomicLong();
+	private final AtomicLong droppedCount = new AtomicLong();
+	private final AtomicLong flushCount = new AtomicLong();
+
+	/**
+	 * Constructor. Creates a new instance of the ZigbeeMailbox class
+	 * with the default maximum age, capacity and awake time.
+	 */
+	public ZigbeeMailbox() {
+		this(DEFAULT_MAX_AGE, DEFAULT_CAPACITY, DEFAULT_AWAKE_TIME);
+	}
+
+	/**
+	 * Constructor. Creates a new instance of the ZigbeeMailbox class.
+	 * @param maxAge the time in milliseconds after which a held message is dropped.
+	 * @param capacity the maximum number of messages held per device. The
+	 * oldest message is dropped to make room for a new one, reads before commands.
+	 * @param awakeTime the time in milliseconds a device is taken to be awake after it woke up.
+	 */
+	public ZigbeeMailbox(long maxAge, int capacity, long awakeTime) {
+		if (capacity < 1)
+			throw new IllegalArgumentException("capacity");
+		this.maxAge = maxAge;
+		this.capacity = capacity;
+		this.awakeTime = awakeTime;
+	}
+
+	/**
+	 * Holds a command for a device until it wakes up, unless
+	 * the device is awake and the command can be sent right away.
+	 * @param ieeeAddress the IEEE address of the device.
+	 * @param key the key identifying the endpoint and cluster of the command.
+	 * A held command with the same key is replaced.
+	 * @param itemName the name of the item the command is for.
+	 * @param command the task that sends the command.
+	 * @return true if the command is held, false if the device is awake
+	 * and the caller has to send the command itself.
+	 */
+	public boolean holdCommand(long ieeeAddress, String key, String itemName, Runnable command) {
+		return hold(ieeeAddress, true, key, itemName, command);
+	}
+
+	/**
+	 * Holds a read of an item until the device wakes up, unless
+	 * the device is awake and the item can be read right away.
+	 * A held read of the same item is replaced.
+	 * @param ieeeAddress the IEEE address of the device.
+	 * @param itemName the name of the item to read.
+	 * @param read the task that reads the item.
+	 * @return true if the read is held, false if the device is awake
+	 * and the caller has to read the item itself.
+	 */
+	public boolean holdRead(long ieeeAddress, String itemName, Runnable read) {
+		return hold(ieeeAddress, false, itemName, itemName, read);
+	}
+
+	/**
+	 * Returns whether a device has woken up a short time ago,
+	 * so that messages can be sent to it right away.
+	 * @param ieeeAddress the IEEE address of the device.
+	 * @return true if the device is awake.
+	 */
+	public boolean isAwake(long ieeeAddress) {
+		Long until = awakeUntil.get(ieeeAddress);
+		return until != null && until > System.currentTimeMillis();
+	}
+
+	/**
+	 * Marks a device as awake and sends the messages held for it. The
+	 * commands are sent first, so the reads return the new state.
+	 * @param ieeeAddress the IEEE address of the device.
+	 * @return the number of messages sent.
+	 */
+	public int wakeUp(long ieeeAddress) {
+		// Mark the device awake before taking its mailbox, a message that
+		// misses this mailbox sees the device awake and is sent right away.
+		awakeUntil.put(ieeeAddress, System.currentTimeMillis() + awakeTime);
+		Mailbox mailbox = mailboxes.remove(ieeeAddress);
+		if (mailbox == null)
+			return 0;
+
+		List<HeldMessage> messages;
+		synchronized (mailbox) {
+			mailbox.flushed = true;
+			messages = new ArrayList<HeldMessage>(mailbox.commands.size() + mailbox.reads.size());
+			messages.addAll(mailbox.commands.values());
+			messages.addAll(mailbox.reads.values());
+		}
+
+		logger.debug("Device {}: awake, sending {} held messages", Long.toHexString(ieeeAddress), messages.size());
+		flushCount.incrementAndGet();
+		for (HeldMessage message : messages) {
+			try {
+				message.task.run();
+			} catch (RuntimeException e) {
+				logger.error("Error sending held message for item {}: {}", message.itemName, e.getLocalizedMessage());
+			}
+		}
+		return messages.size();
+	}
+
+	/**
+	 * Drops the held messages that are older than the maximum age, and
+	 * forgets the devices that are no longer awake.
+	 * @return the number of messages dropped.
+	 */
+	public int expire() {
+		long now = System.currentTimeMillis();
+		for (Map.Entry<Long, Long> entry : awakeUntil.entrySet()) {
+			if (entry.getValue() <= now)
+				awakeUntil.remove(entry.getKey(), entry.getValue());
+		}
+		
+		long oldest = now - maxAge;
+		int expired = 0;
+		for (Map.Entry<Long, Mailbox> entry : mailboxes.entrySet()) {
+			Mailbox mailbox = entry.getValue();
+			synchronized (mailbox) {
+				if (mailbox.flushed)
+					continue;
+
+				List<String> itemNames = new ArrayList<String>();
+				expire(mailbox.commands, oldest, itemNames);
+				expire(mailbox.reads, oldest, itemNames);
+				if (itemNames.isEmpty())
+					continue;
+
+				logger.warn("Device {}: did not wake up, dropped held messages for items {}", Long.toHexString(entry.getKey()), itemNames);
+				expired += itemNames.size();
+				if (mailbox.commands.isEmpty() && mailbox.reads.isEmpty()) {
+					mailbox.flushed = true;
+					mailboxes.remove(entry.getKey(), mailbox);
+				}
+			}
+		}
+		droppedCount.addAndGet(expired);
+		return expired;
+	}
+
+	/**
+	 * Returns the number of messages that have been held.
+	 * @return the number of messages held.
+	 */
+	public long getHeldCount() {
+		return heldCount.get();
+	}
+
+	/**
+	 * Returns the number of held messages that were replaced by a newer
+	 * one before the device woke up.
+	 * @return the number of messages replaced.
+	 */
+	public long getReplacedCount() {
+		return replacedCount.get();
+	}
+
+	/**
+	 * Returns the number of held messages that were dropped, because they
+	 * were too old or to make room for newer ones.
+	 * @return the number of messages dropped.
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	/**
+	 * Returns the number of wake-ups for which held messages were sent.
+	 * @return the number of flushes.
+	 */
+	public long getFlushCount() {
+		return flushCount.get();
+	}
+
+	/**
+	 * Drops all held messages.
+	 */
+	public void clear() {
+		mailboxes.clear();
+		awakeUntil.clear();
+	}
+
+	private boolean hold(long ieeeAddress, boolean command, String key, String itemName, Runnable task) {
+		if (isAwake(ieeeAddress))
+			return false;
+
+		HeldMessage message = new HeldMessage(itemName, task, System.currentTimeMillis());
+		while (true) {
+			Mailbox mailbox = mailboxes.get(ieeeAddress);
+			if (mailbox == null) {
+				mailbox = new Mailbox();
+				Mailbox existing = mailboxes.putIfAbsent(ieeeAddress, mailbox);
+				if (existing != null)
+					mailbox = existing;
+			}
+
+			synchronized (mailbox) {
+				// The device woke up in the mean time, use a new mailbox.
+				if (mailbox.flushed)
+					continue;
+
+				if (isAwake(ieeeAddress))
+					return false;
+
+				Map<String, HeldMessage> messages = command ? mailbox.commands : mailbox.reads;
+				if (messages.remove(key) != null)
+					replacedCount.incrementAndGet();
+				else if (mailbox.commands.size() + mailbox.reads.size() >= capacity)
+					dropOldest(ieeeAddress, mailbox);
+				messages.put(key, message);
+			}
+			heldCount.incrementAndGet();
+			logger.trace("Device {}: holding {} for item {}", Long.toHexString(ieeeAddress), command ? "command" : "read", itemName);
+			return true;
+		}
+	}
+
+	/**
+	 * Drops the oldest held message of a full mailbox. A read is dropped
+	 * first, the item is polled again anyway.
+	 */
+	private void dropOldest(long ieeeAddress, Mailbox mailbox) {
+		Map<String, HeldMessage> messages = mailbox.reads.isEmpty() ? mailbox.commands : mailbox.reads;
+		Iterator<HeldMessage> it = messages.values().iterator();
+		HeldMessage oldest = it.next();
+		it.remove();
+		droppedCount.incrementAndGet();
+		logger.warn("Device {}: mailbox full, dropped held message for item {}", Long.toHexString(ieeeAddress), oldest.itemName);
+	}
+
+	/**
+	 * Drops the messages held before a time and adds their items to the
+	 * given list. The messages are in the order they were held, a replaced
+	 * message moves to the end.
+	 */
+	private void expire(Map<String, HeldMessage> messages, long oldest, List<String> itemNames) {
+		Iterator<HeldMessage> it = messages.values().iterator();
+		while (it.hasNext()) {
+			HeldMessage message = it.next();
+			if (message.heldTime >= oldest)
+				break;
+			it.remove();
+			itemNames.add(message.itemName);
+		}
+	}
+
+	/**
+	 * Messages held for a single device, in the order they were held.
+	 */
+	private static class Mailbox {
+		private final Map<String, HeldMessage> commands = new LinkedHashMap<String, HeldMessage>();
+		private final Map<String, HeldMessage> reads = new LinkedHashMap<String, HeldMessage>();
+		private boolean flushed = false;
+	}
+
+	/**
+	 * A held message and the item it is for.
+	 */
+	private static class HeldMessage {
+		private final String itemName;
+		private final Runnable task;
+		private final long heldTime;
+
+		private HeldMessage(String itemName, Runnable task, long heldTime) {
+			this.itemName = itemName;
+			this.task = task;
+			this.heldTime = heldTime;
+		}
+	}
+}
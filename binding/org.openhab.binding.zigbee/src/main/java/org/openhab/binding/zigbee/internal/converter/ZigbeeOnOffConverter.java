@@ -13,6 +13,7 @@ import java.util.Map;
 import org.bubblecloud.zigbee.api.Device;
 import org.bubblecloud.zigbee.api.ZigBeeDeviceException;
 import org.bubblecloud.zigbee.api.cluster.general.OnOff;
+import org.bubblecloud.zigbee.api.cluster.impl.api.core.Attribute;
 import org.openhab.binding.zigbee.internal.converter.command.BinaryOnOffCommandConverter;
 import org.openhab.binding.zigbee.internal.converter.command.ZigbeeCommandConverter;
 import org.openhab.binding.zigbee.internal.converter.state.BinaryDecimalTypeConverter;
@@ -45,6 +46,7 @@ public class ZigbeeOnOffConverter extends Zigbee4JavaCommandConverter  {
 
 	private static final Logger logger = LoggerFactory.getLogger(ZigbeeOnOffConverter.class);
 	private static final int REFRESH_INTERVAL = 0; // refresh interval in seconds for the binary switch;
+	private static final int ATTRIBUTE_ON_OFF = 0x0000;
 
 	/**
 	 * Constructor. Creates a new instance of the {@link ZigbeeOnOffConverter} class.
@@ -77,22 +79,21 @@ public class ZigbeeOnOffConverter extends Zigbee4JavaCommandConverter  {
 		
         try {
         	if (command==OnOffType.ON) {
-        		System.out.println("xxxxxxxxxxxxxxxxxxxONNN");
+        		logger.debug("Item {}: switching on", item.getName());
         		onOff.on();
+        		this.getController().getAttributeCache().put(device, getClusterId(), ATTRIBUTE_ON_OFF, Boolean.TRUE);
         	}
         	else if (command==OnOffType.OFF) {
-        		System.out.println("xxxxxxxxxxxxxxxxxxxOFFF");
+        		logger.debug("Item {}: switching off", item.getName());
             	onOff.off();
-            	
+            	this.getController().getAttributeCache().put(device, getClusterId(), ATTRIBUTE_ON_OFF, Boolean.FALSE);
         	}
         	else
-        		System.out.println("wrong commands!!!!!!!!!!!!!11");
+        		logger.warn("Item {}: command {} is not supported by the on/off cluster, ignoring.", item.getName(), command);
         } catch (ZigBeeDeviceException e) {
-            e.printStackTrace();
+            logger.error("Item {}: error sending command {}: {}", new Object[] { item.getName(), command, e.getLocalizedMessage() });
         }
 	
-	
-        System.out.println("xxxxxxxxxxxxxxxxxxx333");
         if (command instanceof State)
         	this.getEventPublisher().postUpdate(item.getName(), (State)command);
 
@@ -105,4 +106,49 @@ public class ZigbeeOnOffConverter extends Zigbee4JavaCommandConverter  {
 	int getRefreshInterval() {
 		return REFRESH_INTERVAL;
 	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Attribute getReportingAttribute(Device device, Map<String,String> arguments) {
+		OnOff onOff = device.getCluster(OnOff.class);
+		if (onOff == null)
+			return null;
+		
+		return onOff.getAttribute(ATTRIBUTE_ON_OFF);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void handleReport(Item item, Object value, Map<String,String> arguments) {
+		if (!(value instanceof Boolean)) {
+			logger.warn("Unexpected on/off report value {} for item {}, ignoring.", value, item.getName());
+			return;
+		}
+		
+		this.getEventPublisher().postUpdate(item.getName(), (Boolean)value ? OnOffType.ON : OnOffType.OFF);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int getClusterId() {
+		return org.bubblecloud.zigbee.api.cluster.impl.api.general.OnOff.ID;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int getGroupCommandId(Command command) {
+		if (command == OnOffType.ON)
+			return org.bubblecloud.zigbee.api.cluster.impl.api.general.OnOff.ON_ID;
+		if (command == OnOffType.OFF)
+			return org.bubblecloud.zigbee.api.cluster.impl.api.general.OnOff.OFF_ID;
+		return -1;
+	}
 }
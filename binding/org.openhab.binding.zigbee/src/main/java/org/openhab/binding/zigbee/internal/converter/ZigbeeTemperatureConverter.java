@@ -13,6 +13,7 @@ import java.util.Map;
 import org.bubblecloud.zigbee.api.Device;
 import org.bubblecloud.zigbee.api.ZigBeeDeviceException;
 import org.bubblecloud.zigbee.api.cluster.general.OnOff;
+import org.bubblecloud.zigbee.api.cluster.impl.api.core.Attribute;
 import org.bubblecloud.zigbee.api.cluster.impl.api.core.ZigBeeClusterException;
 import org.bubblecloud.zigbee.api.cluster.measureament_sensing.TemperatureMeasurement;
 import org.openhab.binding.zigbee.internal.converter.command.BinaryOnOffCommandConverter;
@@ -66,20 +67,57 @@ public class ZigbeeTemperatureConverter extends Zigbee4JavaCommandConverter  {
 	public void executeRefresh(Item item, Device device,
 			 Map<String,String> arguments) {
 		final TemperatureMeasurement temp = device.getCluster(TemperatureMeasurement.class);
+		if (temp == null) {
+			logger.warn("Item {}: device has no temperature measurement cluster, ignoring refresh.", item.getName());
+			return;
+		}
+		
+		// Every getValue() reads the attribute from the device, read it once.
+		final Attribute measuredValue = temp.getMeasuredValue();
 		try {
-			System.out.println("temp.getMeasuredValue(), id"
-					+ temp.getMeasuredValue().getId() + "name"
-					+ temp.getMeasuredValue().getName() + "value"
-					+ temp.getMeasuredValue().getValue());
+			Object value = measuredValue.getValue();
+			logger.debug("Item {}: temperature attribute {} ({}) = {}", 
+					new Object[] { item.getName(), measuredValue.getId(), measuredValue.getName(), value });
 			
-			this.getEventPublisher().postUpdate(item.getName(), 
-					(State)new DecimalType((int)temp.getMeasuredValue().getValue()));
+			this.getController().getAttributeCache().put(device, getClusterId(), measuredValue.getId(), value);
+			handleReport(item, value, arguments);
 		} catch (ZigBeeClusterException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			logger.error("Item {}: error reading temperature: {}", item.getName(), e.getLocalizedMessage());
 		}
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int getClusterId() {
+		return org.bubblecloud.zigbee.api.cluster.impl.api.measureament_sensing.TemperatureMeasurement.ID;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public Attribute getReportingAttribute(Device device, Map<String,String> arguments) {
+		final TemperatureMeasurement temp = device.getCluster(TemperatureMeasurement.class);
+		if (temp == null)
+			return null;
 		
+		return temp.getMeasuredValue();
+	}
 
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void handleReport(Item item, Object value, Map<String,String> arguments) {
+		if (!(value instanceof Number)) {
+			logger.warn("Unexpected temperature report value {} for item {}, ignoring.", value, item.getName());
+			return;
+		}
+		
+		this.getEventPublisher().postUpdate(item.getName(), 
+				(State)new DecimalType(((Number)value).intValue()));
 	}
 
 	/**
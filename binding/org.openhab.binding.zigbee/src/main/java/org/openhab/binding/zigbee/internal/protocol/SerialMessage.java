@@ -8,8 +8,7 @@
  */
 package org.openhab.binding.zigbee.internal.protocol;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -105,8 +104,10 @@ public class SerialMessage {
 	 * @param priority the message priority
 	 */
 	public SerialMessage(int nodeId, SerialMessageClass messageClass, SerialMessageType messageType, SerialMessageClass expectedReply, SerialMessagePriority priority) {
-		logger.debug(String.format("NODE %d: Creating empty message of class = %s (0x%02X), type = %s (0x%02X)", 
-				new Object[] { nodeId, messageClass, messageClass.key, messageType, messageType.ordinal()}));
+		if (logger.isDebugEnabled()) {
+			logger.debug(String.format("NODE %d: Creating empty message of class = %s (0x%02X), type = %s (0x%02X)", 
+					new Object[] { nodeId, messageClass, messageClass.key, messageType, messageType.ordinal()}));
+		}
 		this.sequenceNumber = sequence.getAndIncrement();
 		this.messageClass = messageClass;
 		this.messageType = messageType;
@@ -132,11 +133,13 @@ public class SerialMessage {
 	 * @param buffer the buffer to create the SerialMessage from.
 	 */
 	public SerialMessage(int nodeId, byte[] buffer) {
-		logger.trace("NODE {}: Creating new SerialMessage from buffer = {}", nodeId, SerialMessage.bb2hex(buffer));
+		if (logger.isTraceEnabled())
+			logger.trace("NODE {}: Creating new SerialMessage from buffer = {}", nodeId, ZigbeeHexDump.of(buffer));
 		messageLength = buffer.length - 2; // buffer[1];
 		byte messageCheckSumm = calculateChecksum(buffer);
 		byte messageCheckSummReceived = buffer[messageLength+1];
-		logger.trace(String.format("NODE %d: Message checksum calculated = 0x%02X, received = 0x%02X", nodeId, messageCheckSumm, messageCheckSummReceived));
+		if (logger.isTraceEnabled())
+			logger.trace(String.format("NODE %d: Message checksum calculated = 0x%02X, received = 0x%02X", nodeId, messageCheckSumm, messageCheckSummReceived));
 		if (messageCheckSumm == messageCheckSummReceived) {
 			logger.trace("NODE {}: Checksum matched", nodeId);
 			isValid = true;
@@ -149,7 +152,8 @@ public class SerialMessage {
 		this.messageClass = SerialMessageClass.getMessageClass(buffer[3] & 0xFF);
 		this.messagePayload = ArrayUtils.subarray(buffer, 4, messageLength + 1);
 		this.messageNode = nodeId;
-		logger.trace("NODE {}: Message payload = {}", getMessageNode(), SerialMessage.bb2hex(messagePayload));
+		if (logger.isTraceEnabled())
+			logger.trace("NODE {}: Message payload = {}", getMessageNode(), ZigbeeHexDump.of(messagePayload));
 	}
 
     /**
@@ -158,11 +162,7 @@ public class SerialMessage {
      * @return string the string representation
      */
     static public String bb2hex(byte[] bb) {
-		String result = "";
-		for (int i=0; i<bb.length; i++) {
-			result = result + String.format("%02X ", bb[i]);
-		}
-		return result;
+		return ZigbeeHexDump.toHex(bb);
 	}
 	
 	/**
@@ -175,7 +175,8 @@ public class SerialMessage {
 		for (int i=1; i<buffer.length-1; i++) {
 			checkSum = (byte) (checkSum ^ buffer[i]);
 		}
-		logger.trace(String.format("Calculated checksum = 0x%02X", checkSum));
+		if (logger.isTraceEnabled())
+			logger.trace(String.format("Calculated checksum = 0x%02X", checkSum));
 		return checkSum;
 	}
 
@@ -196,35 +197,62 @@ public class SerialMessage {
 	 * @return the message
 	 */
 	public byte[] getMessageBuffer() {
-		ByteArrayOutputStream resultByteBuffer = new ByteArrayOutputStream();
-		byte[] result;
-		resultByteBuffer.write((byte)0x01);
-		int messageLength = messagePayload.length + 
-				(this.messageClass == SerialMessageClass.SendData && 
-				this.messageType == SerialMessageType.Request ? 5 : 3); // calculate and set length
-		
-		resultByteBuffer.write((byte) messageLength);
-		resultByteBuffer.write((byte) messageType.ordinal());
-		resultByteBuffer.write((byte) messageClass.getKey());
-		
-		try {
-			resultByteBuffer.write(messagePayload);
-		} catch (IOException e) {
-			
+		byte[] result = new byte[getSerialFrameLength()];
+		encodeSerialFrame(ByteBuffer.wrap(result));
+		if (logger.isDebugEnabled())
+			logger.debug("Assembled message buffer = {}", ZigbeeHexDump.of(result));
+		return result;
+	}
+
+	/**
+	 * Returns the number of bytes {@link #encodeSerialFrame(ByteBuffer)} writes.
+	 * @return the length of the encoded message, including SOF and checksum.
+	 */
+	private int getSerialFrameLength() {
+		return messagePayload.length + (hasSendDataTrailer() ? 7 : 5);
+	}
+
+	/**
+	 * Returns whether the message ends with transmit options and a callback ID.
+	 */
+	private boolean hasSendDataTrailer() {
+		return this.messageClass == SerialMessageClass.SendData && this.messageType == SerialMessageType.Request;
+	}
+
+	/**
+	 * Encodes the message into a buffer in a single pass: header, payload,
+	 * transmit options and callback ID for a Send Data request, and the
+	 * checksum, which is calculated while the bytes are written.
+	 * @param buffer the buffer to write to, starting at its position. It
+	 * must have at least {@link #getSerialFrameLength()} bytes remaining.
+	 */
+	private void encodeSerialFrame(ByteBuffer buffer) {
+		boolean sendData = hasSendDataTrailer();
+		int messageLength = messagePayload.length + (sendData ? 5 : 3);
+		byte checkSum = (byte)0xFF;
+
+		buffer.put((byte)0x01);
+		buffer.put((byte) messageLength);
+		checkSum ^= (byte) messageLength;
+		buffer.put((byte) messageType.ordinal());
+		checkSum ^= (byte) messageType.ordinal();
+		buffer.put((byte) messageClass.getKey());
+		checkSum ^= (byte) messageClass.getKey();
+
+		for (byte b : messagePayload) {
+			buffer.put(b);
+			checkSum ^= b;
 		}
 
 		// callback ID and transmit options for a Send Data message.
-		if (this.messageClass == SerialMessageClass.SendData && this.messageType == SerialMessageType.Request) {
-			resultByteBuffer.write(transmitOptions);
-			resultByteBuffer.write(callbackId);
+		if (sendData) {
+			buffer.put((byte) transmitOptions);
+			checkSum ^= (byte) transmitOptions;
+			buffer.put((byte) callbackId);
+			checkSum ^= (byte) callbackId;
 		}
-		
-		resultByteBuffer.write((byte) 0x00);
-		result = resultByteBuffer.toByteArray();
-		result[result.length - 1] = 0x01;
-		result[result.length - 1] = calculateChecksum(result);
-		logger.debug("Assembled message buffer = " + SerialMessage.bb2hex(result));
-		return result;
+
+		buffer.put(checkSum);
 	}
 	
 	/**
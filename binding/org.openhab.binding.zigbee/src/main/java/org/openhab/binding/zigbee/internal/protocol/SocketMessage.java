@@ -8,8 +8,7 @@
  */
 package org.openhab.binding.zigbee.internal.protocol;
 
-import java.io.ByteArrayOutputStream;
-import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.Comparator;
 import java.util.HashMap;
@@ -42,6 +41,28 @@ import org.slf4j.LoggerFactory;
 public class SocketMessage {
 
 	private static final Logger logger = LoggerFactory.getLogger(SocketMessage.class);
+
+	/**
+	 * The length of the gateway frame header: 2 bytes length (LSB first) and 1 byte callback ID.
+	 */
+	public static final int FRAME_HEADER_LENGTH = 3;
+
+	/**
+	 * The version of the gateway protocol the binding speaks. Version 1 sent
+	 * the raw payload of a single request per connection and closed the
+	 * output. Version 2 keeps the connection open and frames every request
+	 * and response with its length and callback ID, see {@link #encodeFrame(ByteBuffer)}.
+	 * The gateway must implement version 2; this is checked with a handshake
+	 * frame when connecting, see {@link #createHandshake()}.
+	 */
+	public static final int PROTOCOL_VERSION = 2;
+
+	/**
+	 * The callback ID of the handshake frames. Requests never use it.
+	 */
+	public static final int HANDSHAKE_CALLBACK_ID = 0;
+
+	private static final byte[] HANDSHAKE_MAGIC = { 'Z', 'B', 'G', 'W' };
 	private final static AtomicLong sequence = new AtomicLong();
 
 	private long sequenceNumber;
@@ -105,8 +126,10 @@ public class SocketMessage {
 	 * @param priority the message priority
 	 */
 	public SocketMessage(long nodeId, SocketMessageClass messageClass, SocketMessageType messageType, SocketMessageClass expectedReply, SocketMessagePriority priority) {
-		logger.debug(String.format("NODE %d: Creating empty message of class = %s (0x%02X), type = %s (0x%02X)", 
-				new Object[] { nodeId, messageClass, messageClass.key, messageType, messageType.ordinal()}));
+		if (logger.isDebugEnabled()) {
+			logger.debug(String.format("NODE %d: Creating empty message of class = %s (0x%02X), type = %s (0x%02X)", 
+					new Object[] { nodeId, messageClass, messageClass.key, messageType, messageType.ordinal()}));
+		}
 		this.sequenceNumber = sequence.getAndIncrement();
 		this.messageClass = messageClass;
 		this.messageType = messageType;
@@ -132,7 +155,8 @@ public class SocketMessage {
 	 * @param buffer the buffer to create the SocketMessage from.
 	 */
 	public SocketMessage(int nodeId, byte[] buffer) {
-		logger.trace("NODE {}: Creating new SocketMessage from buffer = {}", nodeId, SocketMessage.bb2hex(buffer));
+		if (logger.isTraceEnabled())
+			logger.trace("NODE {}: Creating new SocketMessage from buffer = {}", nodeId, ZigbeeHexDump.of(buffer));
 		/*messageLength = buffer.length - 2; // buffer[1];
 		byte messageCheckSumm = calculateChecksum(buffer);
 		byte messageCheckSummReceived = buffer[messageLength+1];
@@ -152,7 +176,8 @@ public class SocketMessage {
 		this.messageClass = null;
 		this.messagePayload = buffer;
 		this.messageNode = nodeId;
-		logger.trace("NODE {}: Message payload = {}", getMessageNode(), SocketMessage.bb2hex(messagePayload));
+		if (logger.isTraceEnabled())
+			logger.trace("NODE {}: Message payload = {}", getMessageNode(), ZigbeeHexDump.of(messagePayload));
 	}
 
     /**
@@ -161,11 +186,7 @@ public class SocketMessage {
      * @return string the string representation
      */
     static public String bb2hex(byte[] bb) {
-		String result = "";
-		for (int i=0; i<bb.length; i++) {
-			result = result + String.format("%02X ", bb[i]);
-		}
-		return result;
+		return ZigbeeHexDump.toHex(bb);
 	}
 	
 	/**
@@ -178,7 +199,8 @@ public class SocketMessage {
 		for (int i=1; i<buffer.length-1; i++) {
 			checkSum = (byte) (checkSum ^ buffer[i]);
 		}
-		logger.trace(String.format("Calculated checksum = 0x%02X", checkSum));
+		if (logger.isTraceEnabled())
+			logger.trace(String.format("Calculated checksum = 0x%02X", checkSum));
 		return checkSum;
 	}
 
@@ -199,35 +221,84 @@ public class SocketMessage {
 	 * @return the message
 	 */
 	public byte[] getMessageBuffer() {
-		ByteArrayOutputStream resultByteBuffer = new ByteArrayOutputStream();
-		byte[] result;
-		resultByteBuffer.write((byte)0x01);
-		int messageLength = messagePayload.length + 
-				(this.messageClass == SocketMessageClass.SendData && 
-				this.messageType == SocketMessageType.Request ? 5 : 3); // calculate and set length
-		
-		resultByteBuffer.write((byte) messageLength);
-		resultByteBuffer.write((byte) messageType.ordinal());
-		resultByteBuffer.write((byte) messageClass.getKey());
-		
-		try {
-			resultByteBuffer.write(messagePayload);
-		} catch (IOException e) {
-			
+		byte[] result = new byte[getSerialFrameLength()];
+		encodeSerialFrame(ByteBuffer.wrap(result));
+		if (logger.isDebugEnabled())
+			logger.debug("Assembled message buffer = {}", ZigbeeHexDump.of(result));
+		return result;
+	}
+
+	/**
+	 * Returns the number of bytes {@link #encodeSerialFrame(ByteBuffer)} writes.
+	 * @return the length of the encoded message, including SOF and checksum.
+	 */
+	private int getSerialFrameLength() {
+		return messagePayload.length + (hasSendDataTrailer() ? 7 : 5);
+	}
+
+	/**
+	 * Returns whether the message ends with transmit options and a callback ID.
+	 */
+	private boolean hasSendDataTrailer() {
+		return this.messageClass == SocketMessageClass.SendData && this.messageType == SocketMessageType.Request;
+	}
+
+	/**
+	 * Encodes the message into a buffer in a single pass: header, payload,
+	 * transmit options and callback ID for a Send Data request, and the
+	 * checksum, which is calculated while the bytes are written.
+	 * @param buffer the buffer to write to, starting at its position. It
+	 * must have at least {@link #getSerialFrameLength()} bytes remaining.
+	 */
+	private void encodeSerialFrame(ByteBuffer buffer) {
+		boolean sendData = hasSendDataTrailer();
+		int messageLength = messagePayload.length + (sendData ? 5 : 3);
+		byte checkSum = (byte)0xFF;
+
+		buffer.put((byte)0x01);
+		buffer.put((byte) messageLength);
+		checkSum ^= (byte) messageLength;
+		buffer.put((byte) messageType.ordinal());
+		checkSum ^= (byte) messageType.ordinal();
+		buffer.put((byte) messageClass.getKey());
+		checkSum ^= (byte) messageClass.getKey();
+
+		for (byte b : messagePayload) {
+			buffer.put(b);
+			checkSum ^= b;
 		}
 
 		// callback ID and transmit options for a Send Data message.
-		if (this.messageClass == SocketMessageClass.SendData && this.messageType == SocketMessageType.Request) {
-			resultByteBuffer.write(transmitOptions);
-			resultByteBuffer.write(callbackId);
+		if (sendData) {
+			buffer.put((byte) transmitOptions);
+			checkSum ^= (byte) transmitOptions;
+			buffer.put((byte) callbackId);
+			checkSum ^= (byte) callbackId;
 		}
-		
-		resultByteBuffer.write((byte) 0x00);
-		result = resultByteBuffer.toByteArray();
-		result[result.length - 1] = 0x01;
-		result[result.length - 1] = calculateChecksum(result);
-		logger.debug("Assembled message buffer = " + SocketMessage.bb2hex(result));
-		return result;
+
+		buffer.put(checkSum);
+	}
+
+	/**
+	 * Returns the number of bytes {@link #encodeFrame(ByteBuffer)} writes.
+	 * @return the length of the gateway frame, header included.
+	 */
+	public int getFrameLength() {
+		return FRAME_HEADER_LENGTH + messagePayload.length;
+	}
+
+	/**
+	 * Encodes the message as a gateway frame: the length of the callback
+	 * ID and payload (LSB first), the callback ID and the payload.
+	 * @param buffer the buffer to write to, starting at its position. It
+	 * must have at least {@link #getFrameLength()} bytes remaining.
+	 */
+	public void encodeFrame(ByteBuffer buffer) {
+		int length = messagePayload.length + 1;
+		buffer.put((byte) (length & 0xFF));
+		buffer.put((byte) ((length >> 8) & 0xFF));
+		buffer.put((byte) callbackId);
+		buffer.put(messagePayload);
 	}
 	
 	/**
@@ -336,6 +407,36 @@ public class SocketMessage {
 		return callbackId;
 	}
 
+	/**
+	 * Creates the handshake frame that is sent when connecting to the
+	 * gateway: callback ID 0 and the payload "ZBGW" followed by the
+	 * protocol version. A gateway that implements the framing answers
+	 * with a frame in the same format carrying its own protocol version.
+	 * @return the handshake message.
+	 */
+	public static SocketMessage createHandshake() {
+		byte[] payload = Arrays.copyOf(HANDSHAKE_MAGIC, HANDSHAKE_MAGIC.length + 1);
+		payload[HANDSHAKE_MAGIC.length] = (byte) PROTOCOL_VERSION;
+		SocketMessage message = new SocketMessage(payload);
+		message.setCallbackId(HANDSHAKE_CALLBACK_ID);
+		return message;
+	}
+
+	/**
+	 * Returns the protocol version the gateway answered the handshake with.
+	 * @param frame the first frame received from the gateway.
+	 * @return the protocol version, or -1 if the frame is not a handshake.
+	 */
+	public static int getHandshakeVersion(ZigbeeFrameView frame) {
+		if (frame.getCallbackId() != HANDSHAKE_CALLBACK_ID || frame.getPayloadLength() != HANDSHAKE_MAGIC.length + 1)
+			return -1;
+		for (int i = 0; i < HANDSHAKE_MAGIC.length; i++) {
+			if (frame.getPayloadByte(i) != HANDSHAKE_MAGIC[i])
+				return -1;
+		}
+		return frame.getPayloadByte(HANDSHAKE_MAGIC.length);
+	}
+
 	/**
 	 * Sets the callback ID for this SendData Request
 	 * @param callbackId the callbackId to set
@@ -532,76 +633,23 @@ public class SocketMessage {
 
 	/**
 	 * Comparator Class. Compares two Socket messages with each other based on
-	 * node status (awake / sleep), priority and sequence number. 
+	 * priority and sequence number. The node status (awake / sleep) is
+	 * taken into account by the {@link ZigbeeSendQueue}.
 	 * @author Jan-Willem Spuij
 	 * @since 1.3.0
 	 */
 	public static class SocketMessageComparator implements Comparator<SocketMessage> {
 
-		private final ZigbeeController controller;
-		
-		/**
-		 * Constructor. Creates a new instance of the SocketMessageComparator class.
-		 * @param controller the {@link ZigbeeController to use}
-		 */
-		public SocketMessageComparator(ZigbeeController controller) {
-			this.controller = controller;
-		}
-
 		/**
 		 * Compares a Socket message to another Socket message.
-		 * Used by the priority queue to order messages.
+		 * Used by the send queue to order the messages of a single node.
+		 * Messages with a higher priority come first, messages with the
+		 * same priority are kept in the order they were created.
 		 * @param arg0 the first Socket message to compare the other to.
 		 * @param arg1 the other Socket message to compare the first one to.
 		 */
 		@Override
 		public int compare(SocketMessage arg0, SocketMessage arg1) {
-
-			boolean arg0Awake = false;
-			boolean arg0Listening = true;
-			boolean arg1Awake = false;
-			boolean arg1Listening = true;
-			
-			if ((arg0.getMessageClass() == SocketMessageClass.RequestNodeInfo ||
-					arg0.getMessageClass() == SocketMessageClass.SendData)) {
-				ZigbeeNode node = this.controller.getNode(arg0.getMessageNode());
-				
-				if (node != null && !node.isListening() && !node.isFrequentlyListening()) {
-					arg0Listening = false;
-					//ZigbeeWakeUpCommandClass wakeUpCommandClass = (ZigbeeWakeUpCommandClass)node.getCommandClass(CommandClass.WAKE_UP);
-					
-					//if (wakeUpCommandClass != null && wakeUpCommandClass.isAwake())
-					//	arg0Awake = true;
-				}
-			}
-			
-			if ((arg1.getMessageClass() == SocketMessageClass.RequestNodeInfo ||
-					arg1.getMessageClass() == SocketMessageClass.SendData)) {
-				ZigbeeNode node = this.controller.getNode(arg1.getMessageNode());
-				
-				if (node != null && !node.isListening() && !node.isFrequentlyListening()) {
-					arg1Listening = false;
-					//ZigbeeWakeUpCommandClass wakeUpCommandClass = (ZigbeeWakeUpCommandClass)node.getCommandClass(CommandClass.WAKE_UP);
-					
-					//if (wakeUpCommandClass != null && wakeUpCommandClass.isAwake())
-					//	arg1Awake = true;
-				}
-			}
-			
-			// messages for awake nodes get priority over 
-			// messages for sleeping (or listening) nodes.
-			if (arg0Awake && !arg1Awake)
-				return -1;
-			else if (arg1Awake && !arg0Awake)
-				return 1;
-			
-			// messages for listening nodes get priority over
-			// non listening nodes.
-			if (arg0Listening && !arg1Listening)
-				return -1;
-			else if (arg1Listening && !arg0Listening)
-				return 1;
-			
 			int res = arg0.priority.compareTo(arg1.priority);
 			
 			if (res == 0 && arg0 != arg1)
@@ -609,6 +657,5 @@ public class SocketMessage {
 			
 			return res;
 		}
-
 	}
 }
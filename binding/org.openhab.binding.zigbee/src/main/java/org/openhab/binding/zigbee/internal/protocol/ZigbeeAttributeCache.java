@@ -0,0 +1,117 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.zigbee.internal.protocol;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.bubblecloud.zigbee.api.Device;
+
+/**
+ * Cache of the last known attribute values of the devices in the network.
+ * Values are keyed by device (IEEE address / endpoint), cluster and attribute
+ * and are updated from reads, attribute reports and command echoes. A refresh
+ * can be served from the cache when the value is younger than the maximum
+ * age that is set for the item.
+ * @author Brian Crosby
+ * @since 1.5.0
+ */
+public class ZigbeeAttributeCache {
+
+	private final Map<String, CachedValue> values = new ConcurrentHashMap<String, CachedValue>();
+
+	private final AtomicLong hitCount = new AtomicLong();
+	private final AtomicLong missCount = new AtomicLong();
+
+	/**
+	 * Stores the current value of an attribute.
+	 * @param device the device the value was received from.
+	 * @param clusterId the cluster the attribute belongs to.
+	 * @param attributeId the attribute.
+	 * @param value the value of the attribute.
+	 */
+	public void put(Device device, int clusterId, int attributeId, Object value) {
+		if (value == null)
+			return;
+
+		values.put(getKey(device, clusterId, attributeId), new CachedValue(value, System.currentTimeMillis()));
+	}
+
+	/**
+	 * Returns the value of an attribute if it is not older than the given age.
+	 * @param device the device to get the value for.
+	 * @param clusterId the cluster the attribute belongs to.
+	 * @param attributeId the attribute.
+	 * @param maxAge the maximum age of the value in milliseconds.
+	 * @return the value, or null if there is no value that is recent enough.
+	 */
+	public Object get(Device device, int clusterId, int attributeId, long maxAge) {
+		CachedValue cached = values.get(getKey(device, clusterId, attributeId));
+		if (cached == null || System.currentTimeMillis() - cached.timestamp > maxAge) {
+			missCount.incrementAndGet();
+			return null;
+		}
+
+		hitCount.incrementAndGet();
+		return cached.value;
+	}
+
+	/**
+	 * Removes all values of a device, e.g. when it has left the network.
+	 * @param device the device to remove the values for.
+	 */
+	public void invalidate(Device device) {
+		String prefix = device.getEndpointId() + "/";
+		for (String key : values.keySet()) {
+			if (key.startsWith(prefix))
+				values.remove(key);
+		}
+	}
+
+	/**
+	 * Removes all values.
+	 */
+	public void clear() {
+		values.clear();
+	}
+
+	/**
+	 * Returns the number of refreshes that were served from the cache.
+	 * @return the number of cache hits.
+	 */
+	public long getHitCount() {
+		return hitCount.get();
+	}
+
+	/**
+	 * Returns the number of refreshes that had to go to the device.
+	 * @return the number of cache misses.
+	 */
+	public long getMissCount() {
+		return missCount.get();
+	}
+
+	private static String getKey(Device device, int clusterId, int attributeId) {
+		return device.getEndpointId() + "/" + clusterId + "/" + attributeId;
+	}
+
+	/**
+	 * Attribute value and the time it was received.
+	 */
+	private static class CachedValue {
+		private final Object value;
+		private final long timestamp;
+
+		private CachedValue(Object value, long timestamp) {
+			this.value = value;
+			this.timestamp = timestamp;
+		}
+	}
+}
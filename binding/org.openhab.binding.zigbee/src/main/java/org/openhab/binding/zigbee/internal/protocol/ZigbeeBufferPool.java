@@ -0,0 +1,88 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.zigbee.internal.protocol;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Pool of direct byte buffers that messages are encoded into before
+ * they are written to the gateway. The buffers are allocated once and
+ * reused, so sending a message doesn't allocate. A message that doesn't
+ * fit in a pooled buffer gets a buffer of its own that isn't pooled.
+ * @author Brian Crosby
+ * @since 1.5.0
+ */
+public class ZigbeeBufferPool {
+
+	/**
+	 * The default buffer size. Large enough for any message with
+	 * a payload of a single byte length.
+	 */
+	public static final int DEFAULT_BUFFER_SIZE = 512;
+
+	private final BlockingQueue<ByteBuffer> buffers;
+	private final int bufferSize;
+	private final AtomicLong missCount = new AtomicLong();
+
+	/**
+	 * Constructor. Creates a new instance of the ZigbeeBufferPool class.
+	 * @param poolSize the number of buffers in the pool.
+	 * @param bufferSize the size of each buffer.
+	 */
+	public ZigbeeBufferPool(int poolSize, int bufferSize) {
+		this.bufferSize = bufferSize;
+		this.buffers = new ArrayBlockingQueue<ByteBuffer>(poolSize);
+		for (int i = 0; i < poolSize; i++)
+			buffers.offer(allocate(bufferSize));
+	}
+
+	private static ByteBuffer allocate(int size) {
+		return ByteBuffer.allocateDirect(size).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Takes a cleared buffer from the pool.
+	 * @param size the number of bytes the buffer must be able to hold.
+	 * @return the buffer. It must be given back with {@link #release(ByteBuffer)}.
+	 */
+	public ByteBuffer acquire(int size) {
+		if (size <= bufferSize) {
+			ByteBuffer buffer = buffers.poll();
+			if (buffer != null) {
+				buffer.clear();
+				return buffer;
+			}
+		}
+		missCount.incrementAndGet();
+		return allocate(Math.max(size, bufferSize));
+	}
+
+	/**
+	 * Gives a buffer back to the pool. Buffers that don't fit in the pool
+	 * are left to the garbage collector.
+	 * @param buffer the buffer to give back.
+	 */
+	public void release(ByteBuffer buffer) {
+		if (buffer != null && buffer.capacity() == bufferSize)
+			buffers.offer(buffer);
+	}
+
+	/**
+	 * Returns the number of buffers that had to be allocated because the
+	 * pool was empty or the message was too large.
+	 * @return the number of misses.
+	 */
+	public long getMissCount() {
+		return missCount.get();
+	}
+}
@@ -16,26 +16,38 @@ package org.openhab.binding.zigbee.internal.protocol;
 //import gnu.io.UnsupportedCommOperationException;
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import java.util.Timer;
 import java.util.TimerTask;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.concurrent.Semaphore;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import org.bubblecloud.zigbee.ZigBeeApi;
 import org.bubblecloud.zigbee.ZigBeeApiContext;
 import org.bubblecloud.zigbee.api.Device;
+import org.bubblecloud.zigbee.network.packet.ZToolPacket;
+import org.bubblecloud.zigbee.util.DoubleByte;
 import org.openhab.binding.zigbee.ZigbeeBindingConfig;
 import org.openhab.binding.zigbee.ZigbeeBindingProvider;
 import org.openhab.binding.zigbee.internal.protocol.SerialMessage.SerialMessageClass;
@@ -44,7 +56,9 @@ import org.openhab.binding.zigbee.internal.protocol.SerialMessage.SerialMessageT
 import org.openhab.binding.zigbee.internal.protocol.NodeStage;
 import org.openhab.binding.zigbee.internal.protocol.SocketMessage.SocketMessageClass;
 import org.openhab.binding.zigbee.internal.protocol.SocketMessage.SocketMessageType;
+import org.openhab.binding.zigbee.internal.protocol.ZigbeeEventDispatcher.OverflowPolicy;
 import org.openhab.binding.zigbee.internal.protocol.commandclass.ZigbeeCommandClass.CommandClass;
+import org.openhab.binding.zigbee.internal.protocol.event.ZigbeeCommandClassValueEvent;
 import org.openhab.binding.zigbee.internal.protocol.event.ZigbeeEvent;
 import org.openhab.binding.zigbee.internal.protocol.event.ZigbeeInclusionEvent;
 import org.openhab.binding.zigbee.internal.protocol.event.ZigbeeInitializationCompletedEvent;
@@ -92,21 +106,41 @@ public class ZigbeeController {
 	private static final int QUERY_STAGE_TIMEOUT = 120000;
 	private static final int ZIGBEE_RESPONSE_TIMEOUT = 5000;		// 5000 ms ZIGBEE_RESPONSE TIMEOUT
 	private static final int ZIGBEE_RECEIVE_TIMEOUT = 1000;		// 1000 ms ZIGBEE_RECEIVE_TIMEOUT
-	private static final int INITIAL_QUEUE_SIZE = 128; 
-	private static final long WATCHDOG_TIMER_PERIOD = 10000;	// 10 seconds watchdog timer
+	private static final int DEFAULT_OUTSTANDING_REQUESTS = 4;
+	private static final int MAX_OUTSTANDING_REQUESTS = 64;
+	private static final long WATCHDOG_TIMER_PERIOD = 1000;	// 1 second watchdog timer
+	private static final long HANDSHAKE_TIMEOUT = 5000;		// time the gateway has to answer the protocol handshake
+	private static final long RECONNECT_MIN_DELAY = 1000;		// first retry 1 second after a failed reconnect
+	private static final long RECONNECT_MAX_DELAY = 60000;		// retries back off to once a minute
+	private static final long BROWSE_POLL_PERIOD = 250;		// 250 ms between checks for newly browsed devices
 
 	private static final int TRANSMIT_OPTION_ACK = 0x01;
 	private static final int TRANSMIT_OPTION_AUTO_ROUTE = 0x04;
 	private static final int TRANSMIT_OPTION_EXPLORE = 0x20;
 	
-	private Map<Long, ZigbeeNode> zigbeeNodes = new HashMap<Long, ZigbeeNode>();
-	//the map to store devices in zigbee network
-	private Map<String, Device> zigbeeDevices = new HashMap<String, Device>();
-	private final ArrayList<ZigbeeEventListener> zigbeeEventListeners = new ArrayList<ZigbeeEventListener>();
-	private final PriorityBlockingQueue<SocketMessage> sendQueue = new PriorityBlockingQueue<SocketMessage>(INITIAL_QUEUE_SIZE, new SocketMessage.SocketMessageComparator(this));
+	private static final int AF_DATA_REQUEST_EXT = 0x2402;	// AF SREQ, extended addressing
+	private static final int ADDRESS_MODE_GROUP = 0x01;
+	private static final int GROUP_SOURCE_ENDPOINT = 0x01;
+	private static final int GROUP_RADIUS = 0x1E;
+	private static final int ZCL_FRAME_CLUSTER_SPECIFIC = 0x01;
+	private static final int ZCL_FRAME_DISABLE_DEFAULT_RESPONSE = 0x10;
+	
+	private final ZigbeeNodeTable zigbeeNodes = new ZigbeeNodeTable();
+	private final List<ListenerRegistration> zigbeeEventListeners = new CopyOnWriteArrayList<ListenerRegistration>();
+	// Listeners per event class, built on first use and dropped when a listener is added or removed
+	private final Map<Class<?>, ListenerRegistration[]> eventListenersByType = new ConcurrentHashMap<Class<?>, ListenerRegistration[]>();
+	private int eventListenersVersion = 0;
+	private final Map<Class<? extends ZigbeeEvent>, OverflowPolicy> overflowPolicies = new ConcurrentHashMap<Class<? extends ZigbeeEvent>, OverflowPolicy>();
+	private final Map<Class<?>, OverflowPolicy> overflowPoliciesByType = new ConcurrentHashMap<Class<?>, OverflowPolicy>();
+	private int eventQueueSize = ZigbeeEventDispatcher.DEFAULT_CAPACITY;
+	private final ZigbeeSendQueue sendQueue = new ZigbeeSendQueue(this);
 	private ZigbeeSendThread sendThread;
 	private ZigbeeReceiveThread receiveThread;
 	
+	private final ConcurrentMap<Integer, PendingTransaction> pendingTransactions = new ConcurrentHashMap<Integer, PendingTransaction>();
+	private final ConcurrentMap<Integer, Long> quarantinedCallbackIds = new ConcurrentHashMap<Integer, Long>();
+	private Semaphore outstandingRequests = new Semaphore(DEFAULT_OUTSTANDING_REQUESTS);
+	private int maxOutstandingRequests = DEFAULT_OUTSTANDING_REQUESTS;
 	private final Semaphore transactionCompleted = new Semaphore(1);
 	private volatile SocketMessage lastSentMessage = null;
 	private long lastMessageStartTime = 0;
@@ -115,12 +149,22 @@ public class ZigbeeController {
 	private ZigBeeApi zigbeeApi;
 	private ZigBeeApiContext zigApiContext;
 	private Boolean isZigbeeNetworkStarted = false;
-	private Boolean enableShutdown = false;
+	private volatile boolean enableShutdown = false;
+	private ZigbeeBrowseThread browseThread;
+	private final long startTime = System.currentTimeMillis();
+	private final AtomicLong firstCommandTime = new AtomicLong(-1);
+	private volatile long browseCompleteTime = -1;
 	private Socket socketClient;
-	private OutputStream socketOut;
-	private InputStream socketIn;
+	private volatile SocketChannel socketChannel;
+	private final Object gatewayLock = new Object();
+	private long reconnectDelay = RECONNECT_MIN_DELAY;
+	private long nextReconnectTime = 0;
+	private final AtomicInteger reconnectCount = new AtomicInteger(0);
+	private final ZigbeeBufferPool bufferPool = new ZigbeeBufferPool(2, ZigbeeBufferPool.DEFAULT_BUFFER_SIZE);
+	private String gatewayAddress;
 	private int port = 2540;
 	private int ZigbeeResponseTimeout = ZIGBEE_RESPONSE_TIMEOUT;
+	private ZigbeeRoundTripEstimator roundTripEstimator;
 	private Timer watchdog;
 	
 	private String ZigbeeVersion = "Unknown";
@@ -132,6 +176,10 @@ public class ZigbeeController {
 	private int deviceId = 0;
 	private int ZigbeeLibraryType = 0;
 	private int sentDataPointer = 1;
+	private final AtomicInteger groupTransactionId = new AtomicInteger(0);
+	private final ZigbeeAttributeCache attributeCache = new ZigbeeAttributeCache();
+	//the registry of the devices in zigbee network, updated by the device events of the API
+	private final ZigbeeDeviceRegistry deviceRegistry = new ZigbeeDeviceRegistry(attributeCache);
 	private boolean setSUC = false;
 	private ZigbeeDeviceType controllerType = ZigbeeDeviceType.UNKNOWN;
 	private int sucID = 0;
@@ -156,17 +204,61 @@ public class ZigbeeController {
 	 * @throws SerialInterfaceException when a connection error occurs.
 	 */
 	public ZigbeeController(final boolean isSUC, final String port, final Integer timeout) throws SerialInterfaceException {
+		this(isSUC, port, null, timeout, null);
+	}
+
+	/**
+	 * Constructor. Creates a new instance of the Zigbee controller class
+	 * that also keeps a connection open to the Zigbee gateway.
+	 * @param serialPortName the serial port name to use for 
+	 * communication with the Zigbee controller stick.
+	 * @param gatewayAddress the host name or IP address of the gateway, or null
+	 * when no gateway connection should be made.
+	 * @param outstandingRequests the maximum number of requests that may be
+	 * awaiting a response from the gateway at the same time.
+	 * @throws SerialInterfaceException when a connection error occurs.
+	 */
+	public ZigbeeController(final boolean isSUC, final String port, final String gatewayAddress, final Integer timeout, final Integer outstandingRequests) throws SerialInterfaceException {
+		this(isSUC, port, gatewayAddress, timeout, outstandingRequests, null);
+	}
+
+	/**
+	 * Constructor. Creates a new instance of the Zigbee controller class
+	 * that also keeps a connection open to the Zigbee gateway.
+	 * @param serialPortName the serial port name to use for 
+	 * communication with the Zigbee controller stick.
+	 * @param gatewayAddress the host name or IP address of the gateway, or null
+	 * when no gateway connection should be made.
+	 * @param outstandingRequests the maximum number of requests that may be
+	 * awaiting a response from the gateway at the same time.
+	 * @param eventQueueSize the number of events that can be queued for each
+	 * event listener.
+	 * @throws SerialInterfaceException when a connection error occurs.
+	 */
+	public ZigbeeController(final boolean isSUC, final String port, final String gatewayAddress, final Integer timeout, final Integer outstandingRequests, final Integer eventQueueSize) throws SerialInterfaceException {
 			logger.info("Starting Zigbee controller");
 			this.setSUC = isSUC;
+			this.gatewayAddress = gatewayAddress;
 			if(timeout != null && timeout >= 1500 && timeout <= 10000) {
 				ZigbeeResponseTimeout = timeout;
 			}
 			logger.info("Zigbee timeout is set to {}ms.", ZigbeeResponseTimeout);
+			this.roundTripEstimator = new ZigbeeRoundTripEstimator(ZigbeeResponseTimeout);
+			if(outstandingRequests != null && outstandingRequests >= 1 && outstandingRequests <= MAX_OUTSTANDING_REQUESTS) {
+				maxOutstandingRequests = outstandingRequests;
+			}
+			logger.info("Zigbee outstanding requests is set to {}.", maxOutstandingRequests);
+			if(eventQueueSize != null && eventQueueSize >= 1) {
+				this.eventQueueSize = eventQueueSize;
+			}
+			logger.info("Zigbee event queue size is set to {}.", this.eventQueueSize);
+			// Only the latest value matters, but inclusion events must never get lost
+			this.overflowPolicies.put(ZigbeeEvent.class, OverflowPolicy.NEVER_DROP);
+			this.overflowPolicies.put(ZigbeeCommandClassValueEvent.class, OverflowPolicy.DROP_OLDEST);
+			this.overflowPolicies.put(ZigbeeInclusionEvent.class, OverflowPolicy.NEVER_DROP);
 			connect(port);
-			this.watchdog = new Timer(true);
-		//	this.watchdog.schedule(
-		//			new WatchDogTimerTask(ipAddress), 
-		//			WATCHDOG_TIMER_PERIOD, WATCHDOG_TIMER_PERIOD);
+			this.watchdog = new Timer("Zigbee watchdog", true);
+			this.watchdog.schedule(new WatchDogTimerTask(), WATCHDOG_TIMER_PERIOD, WATCHDOG_TIMER_PERIOD);
 	}
 
 	// Incoming message handlers
@@ -174,9 +266,11 @@ public class ZigbeeController {
 	/**
 	 * Handles incoming Serial Messages. Serial messages can either be messages
 	 * that are a response to our own requests, or the stick asking us information.
+	 * The frame is only copied into a SocketMessage when a command processor
+	 * handles it.
 	 * @param incomingMessage the incoming message to process.
 	 */
-	private void handleIncomingMessage(SocketMessage incomingMessage, SocketMessage lastSentMessage) {
+	private void handleIncomingMessage(ZigbeeFrameView incomingMessage, SocketMessage lastSentMessage) {
 		logger.trace("Incoming message to process");
 		//logger.debug(incomingMessage.toString());
 		
@@ -199,23 +293,21 @@ public class ZigbeeController {
 	 * An incoming request message is a message initiated by a node or the controller.
 	 * @param incomingMessage the incoming message to process.
 	 */
-	private void handleIncomingRequestMessage(SocketMessage incomingMessage, SocketMessage lastSentMessage) {
+	private void handleIncomingRequestMessage(ZigbeeFrameView incomingMessage, SocketMessage lastSentMessage) {
 		logger.trace("Message type = REQUEST");
 
 		ZigbeeCommandProcessor processor = ZigbeeCommandProcessor.getMessageDispatcher(incomingMessage.getMessageClass());
 		if(processor != null) {
-			processor.handleRequest(this, lastSentMessage, incomingMessage);
+			processor.handleRequest(this, lastSentMessage, incomingMessage.toSocketMessage());
 
 			if(processor.isTransactionComplete()) {
-				notifyEventListeners(new ZigbeeTransactionCompletedEvent(this.lastSentMessage));
+				notifyEventListeners(new ZigbeeTransactionCompletedEvent(lastSentMessage));
 				transactionCompleted.release();
 				logger.trace("Released. Transaction completed permit count -> {}", transactionCompleted.availablePermits());
 			}
 		}
 		else {
-			logger.warn(String.format("TODO: Implement processing of Request Message = %s (0x%02X)",
-					incomingMessage.getMessageClass().getLabel(),
-					incomingMessage.getMessageClass().getKey()));
+			logger.warn("TODO: Implement processing of Request Message = {}", incomingMessage.getMessageClass());
 		}
 	}
 
@@ -233,23 +325,21 @@ public class ZigbeeController {
 	 * An incoming response message is a response, based one of our own requests.
 	 * @param incomingMessage the response message to process.
 	 */
-	private void handleIncomingResponseMessage(SocketMessage incomingMessage, SocketMessage lastSentMessage) {
+	private void handleIncomingResponseMessage(ZigbeeFrameView incomingMessage, SocketMessage lastSentMessage) {
 		logger.trace("Message type = RESPONSE");
 
 		ZigbeeCommandProcessor processor = ZigbeeCommandProcessor.getMessageDispatcher(lastSentMessage.getMessageClass());
 		if(processor != null) {
-			processor.handleResponse(this, lastSentMessage, incomingMessage);
+			processor.handleResponse(this, lastSentMessage, incomingMessage.toSocketMessage());
 
 		/*	if(processor.isTransactionComplete()) {
-				notifyEventListeners(new ZigbeeTransactionCompletedEvent(this.lastSentMessage));
+				notifyEventListeners(new ZigbeeTransactionCompletedEvent(lastSentMessage));
 				transactionCompleted.release();
 				logger.trace("Released. Transaction completed permit count -> {}", transactionCompleted.availablePermits());
 			}*/
 		}
 		else {
-			logger.warn(String.format("TODO: Implement processing of Response Message = %s (0x%02X)",
-					incomingMessage.getMessageClass().getLabel(),
-					incomingMessage.getMessageClass().getKey()));
+			logger.warn("TODO: Implement processing of Response Message = {}", lastSentMessage.getMessageClass());
 		}
 
 		switch (lastSentMessage.getMessageClass()) {
@@ -331,6 +421,9 @@ public class ZigbeeController {
 	public void connect(final String port)
 			throws SerialInterfaceException {
 		logger.info("Connecting to serial port {}", port);
+		
+		// Nodes known from an earlier run are available before the network is browsed
+		restoreNodes();
 		 
 		logger.info("ZigBee API starting up...");
 		try {
@@ -349,15 +442,7 @@ public class ZigbeeController {
 			// TODO Auto-generated catch block
 			e.printStackTrace();
 		}*/
-        System.out.print("Browsing network ...");
-        while (!enableShutdown && !zigbeeApi.isInitialBrowsingComplete()) {
-            System.out.print('.');
-            try {
-                Thread.sleep(250);
-            } catch (InterruptedException e) {
-                break;
-            }
-        }
+        connectGateway();
         /*
 		try {
 			CommPortIdentifier portIdentifier = CommPortIdentifier.getPortIdentifier(ipAddress);
@@ -386,6 +471,207 @@ public class ZigbeeController {
 		}*/
 	}
 	
+	/**
+	 * Restores the nodes that were saved in the node store in parallel,
+	 * so that they can be used right away.
+	 */
+	private void restoreNodes() {
+		long start = System.currentTimeMillis();
+		final ZigbeeNodeSerializer nodeSerializer = new ZigbeeNodeSerializer();
+		Set<Long> nodeIds = nodeSerializer.getNodeIds();
+		if (nodeIds.isEmpty())
+			return;
+		
+		ExecutorService executor = Executors.newFixedThreadPool(
+				Math.min(nodeIds.size(), Runtime.getRuntime().availableProcessors()));
+		List<Callable<Object>> tasks = new ArrayList<Callable<Object>>(nodeIds.size());
+		for (final Long nodeId : nodeIds) {
+			tasks.add(Executors.callable(new Runnable() {
+				@Override
+				public void run() {
+					ZigbeeNode node = nodeSerializer.DeserializeNode(nodeId, ZigbeeController.this);
+					if (node == null)
+						return;
+					
+					// The node keeps the stage it was stored with, nodes that were
+					// still being interviewed are not taken to be complete.
+					logger.debug("NODE {}: Restored at stage {}", nodeId, node.getNodeStage());
+					zigbeeNodes.put(nodeId, node);
+				}
+			}));
+		}
+		
+		try {
+			executor.invokeAll(tasks);
+		} catch (InterruptedException e) {
+			logger.warn("Interrupted while restoring nodes.");
+			Thread.currentThread().interrupt();
+		} finally {
+			executor.shutdownNow();
+		}
+		logger.info("Restored {} of {} nodes in {}ms.", zigbeeNodes.size(), nodeIds.size(), System.currentTimeMillis() - start);
+	}
+	
+	/**
+	 * Opens the connection to the Zigbee gateway and starts the send
+	 * and receive threads. The connection is kept open for the lifetime
+	 * of the controller, requests and responses are framed and matched
+	 * on their callback ID so that several requests can be outstanding.
+	 * This framing is version {@link SocketMessage#PROTOCOL_VERSION} of the
+	 * gateway protocol, the gateway has to confirm it speaks this version
+	 * before any request is sent. When the gateway can't be reached, or
+	 * doesn't speak the protocol, the watchdog keeps trying to connect,
+	 * backing off up to once a minute.
+	 * @return true if the connection was opened.
+	 */
+	private boolean connectGateway() {
+		if (gatewayAddress == null)
+			return false;
+		
+		synchronized (gatewayLock) {
+			logger.info("Connecting to Zigbee gateway {}:{}", gatewayAddress, port);
+			try {
+				socketChannel = SocketChannel.open(new InetSocketAddress(gatewayAddress, port));
+				socketClient = socketChannel.socket();
+				socketClient.setTcpNoDelay(true);
+				socketClient.setKeepAlive(true);
+				handshake(socketChannel);
+			} catch (IOException e) {
+				closeGateway();
+				nextReconnectTime = System.currentTimeMillis() + reconnectDelay;
+				logger.warn("Unable to connect to Zigbee gateway {}:{}: {}, retrying in {}ms.", 
+						new Object[] { gatewayAddress, port, e.getLocalizedMessage(), reconnectDelay });
+				reconnectDelay = Math.min(reconnectDelay * 2, RECONNECT_MAX_DELAY);
+				return false;
+			}
+			
+			reconnectDelay = RECONNECT_MIN_DELAY;
+			this.outstandingRequests = new Semaphore(maxOutstandingRequests);
+			this.receiveThread = new ZigbeeReceiveThread();
+			this.receiveThread.start();
+			this.sendThread = new ZigbeeSendThread();
+			this.sendThread.start();
+			logger.info("Zigbee Socket is initialized");
+			return true;
+		}
+	}
+	
+	/**
+	 * Checks that the gateway speaks the framed protocol, by sending the
+	 * handshake frame and waiting for the gateway to answer it.
+	 * @param channel the connection to the gateway.
+	 * @throws IOException when the gateway doesn't answer the handshake
+	 * in time or answers with another protocol version.
+	 */
+	private void handshake(SocketChannel channel) throws IOException {
+		SocketMessage handshake = SocketMessage.createHandshake();
+		ByteBuffer buffer = ByteBuffer.allocate(handshake.getFrameLength());
+		handshake.encodeFrame(buffer);
+		buffer.flip();
+		while (buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		
+		ZigbeeFrameDecoder decoder = new ZigbeeFrameDecoder(64);
+		ZigbeeFrameView frame = new ZigbeeFrameView();
+		long deadline = System.currentTimeMillis() + HANDSHAKE_TIMEOUT;
+		Selector selector = Selector.open();
+		try {
+			channel.configureBlocking(false);
+			channel.register(selector, SelectionKey.OP_READ);
+			while (!decoder.next(frame)) {
+				long remaining = deadline - System.currentTimeMillis();
+				if (remaining <= 0)
+					throw new IOException("No answer to the protocol handshake, the gateway must implement protocol version " + SocketMessage.PROTOCOL_VERSION);
+				selector.select(remaining);
+				selector.selectedKeys().clear();
+				if (decoder.readFrom(channel) < 0)
+					throw new IOException("Gateway closed the connection during the protocol handshake");
+			}
+		} finally {
+			selector.close();
+			channel.configureBlocking(true);
+		}
+		
+		int version = SocketMessage.getHandshakeVersion(frame);
+		if (version != SocketMessage.PROTOCOL_VERSION)
+			throw new IOException("Gateway answered the handshake with protocol version " + version 
+					+ ", protocol version " + SocketMessage.PROTOCOL_VERSION + " is required");
+		logger.debug("Zigbee gateway speaks protocol version {}", version);
+	}
+	
+	/**
+	 * Closes the connection to the Zigbee gateway. This also unblocks
+	 * the receive thread if it is waiting for data.
+	 */
+	private void closeGateway() {
+		SocketChannel channel = socketChannel;
+		if (channel == null)
+			return;
+		
+		try {
+			channel.close();
+		} catch (IOException e) {
+			logger.debug("Error closing gateway socket: {}", e.getLocalizedMessage());
+		}
+		socketClient = null;
+		socketChannel = null;
+	}
+	
+	/**
+	 * Called by the send or receive thread when the connection failed.
+	 * Closes the channel so the other thread stops as well; the
+	 * watchdog reconnects.
+	 * @param channel the channel that failed.
+	 */
+	private void gatewayFailed(SocketChannel channel) {
+		try {
+			channel.close();
+		} catch (IOException e) {
+			logger.debug("Error closing gateway socket: {}", e.getLocalizedMessage());
+		}
+	}
+	
+	/**
+	 * Checks the connection to the gateway, and reconnects when it was
+	 * lost or could not be opened. Called by the watchdog.
+	 */
+	private void checkGateway() {
+		if (gatewayAddress == null)
+			return;
+		
+		synchronized (gatewayLock) {
+			if (enableShutdown)
+				return;
+			SocketChannel channel = socketChannel;
+			if (channel != null && channel.isOpen() && receiveThread != null && receiveThread.isAlive() 
+					&& sendThread != null && sendThread.isAlive())
+				return;
+			if (System.currentTimeMillis() < nextReconnectTime)
+				return;
+			
+			logger.warn("Connection to Zigbee gateway lost, reconnecting");
+			disconnect();
+			if (connectGateway())
+				reconnectCount.incrementAndGet();
+		}
+	}
+	
+	/**
+	 * Gives up on a request that could not be completed. The request is
+	 * sent again if it has attempts left, otherwise it is discarded.
+	 * @param message the request.
+	 * @param reason the reason for the log.
+	 */
+	private void retryOrDiscard(SocketMessage message, String reason) {
+		if (--message.attempts >= 0) {
+			logger.error("NODE {}: {} while sending message. Requeueing", message.getMessageNode(), reason);
+			enqueue(message);
+		} else {
+			logger.warn("NODE {}: Discarding message: {}", message.getMessageNode(), message.toString());
+		}
+	}
+	
 	public boolean isZigbeeNetowrkStarted() {
 		return isZigbeeNetworkStarted;
 	}
@@ -394,6 +680,11 @@ public class ZigbeeController {
 	 * Closes the connection to the Zigbee controller.
 	 */
 	public void close()	{
+		enableShutdown = true;
+		if (browseThread != null) {
+			browseThread.interrupt();
+			browseThread = null;
+		}
 		if (watchdog != null) {
 			watchdog.cancel();
 			watchdog = null;
@@ -402,15 +693,22 @@ public class ZigbeeController {
 		disconnect();
 		
 		// clear nodes collection and send queue
-		for (Object listener : this.zigbeeEventListeners.toArray()) {
-			if (!(listener instanceof ZigbeeNode))
-				continue;
-			
-			this.zigbeeEventListeners.remove(listener);
+		synchronized (this.zigbeeEventListeners) {
+			for (ListenerRegistration registration : this.zigbeeEventListeners) {
+				if (registration.listener instanceof ZigbeeNode) {
+					this.zigbeeEventListeners.remove(registration);
+					registration.dispatcher.shutdown();
+				}
+			}
+			listenersChanged();
 		}
 		
+		if (zigbeeApi != null)
+			zigbeeApi.removeDeviceListener(deviceRegistry);
+		this.deviceRegistry.clear();
 		this.zigbeeNodes.clear();
 		this.sendQueue.clear();
+		this.attributeCache.clear();
 		
 		logger.info("Stopped Zigbee controller");
 	}
@@ -420,6 +718,24 @@ public class ZigbeeController {
 	 * send and receive threads.
 	 */
 	public void disconnect() {
+		synchronized (gatewayLock) {
+			stopGateway();
+		}
+		
+		if(transactionCompleted.availablePermits() < 0)
+			transactionCompleted.release(transactionCompleted.availablePermits());
+		
+		transactionCompleted.drainPermits();
+		logger.trace("Transaction completed permit count -> {}", transactionCompleted.availablePermits());
+		logger.info("Disconnected from serial port");
+	}
+	
+	/**
+	 * Closes the gateway connection, stops the send and receive threads
+	 * and fails the requests that are still in flight.
+	 */
+	private void stopGateway() {
+		closeGateway();
 		if (sendThread != null) {
 			sendThread.interrupt();
 			try {
@@ -436,16 +752,14 @@ public class ZigbeeController {
 			}
 			receiveThread = null;
 		}
-		if(transactionCompleted.availablePermits() < 0)
-			transactionCompleted.release(transactionCompleted.availablePermits());
 		
-		transactionCompleted.drainPermits();
-		logger.trace("Transaction completed permit count -> {}", transactionCompleted.availablePermits());
-//		if (this.serialPort != null) {
-//			this.serialPort.close();
-//			this.serialPort = null;
-//		}
-		logger.info("Disconnected from serial port");
+		// Requests that are still in flight will never be answered on a new connection.
+		for (Map.Entry<Integer, PendingTransaction> entry : pendingTransactions.entrySet()) {
+			if (pendingTransactions.remove(entry.getKey(), entry.getValue()))
+				retryOrDiscard(entry.getValue().message, "Connection lost");
+		}
+		// Nor will the late responses to requests that timed out.
+		quarantinedCallbackIds.clear();
 	}
 	
 	/**
@@ -465,14 +779,17 @@ public class ZigbeeController {
 	}
 
 	/**
-	 * Notify our own event listeners of a Zigbee event.
+	 * Notify our own event listeners of a Zigbee event. The event is queued
+	 * for every listener and delivered on the thread of that listener, so
+	 * this returns without waiting for the listeners.
 	 * @param event the event to send.
 	 */
 	public void notifyEventListeners(ZigbeeEvent event) {
 		logger.debug("Notifying event listeners");
-		for (ZigbeeEventListener listener : this.zigbeeEventListeners) {
-			logger.trace("Notifying {}", listener.toString());
-			listener.ZigbeeIncomingEvent(event);
+		OverflowPolicy policy = getOverflowPolicy(event.getClass());
+		for (ListenerRegistration registration : getEventListeners(event.getClass())) {
+			logger.trace("Notifying {}", registration.listener);
+			registration.dispatcher.offer(event, policy);
 		}
 		
 		// We also need to handle the inclusion internally within the controller
@@ -513,7 +830,9 @@ public class ZigbeeController {
 	}
 	
 	/**
-	 * Initializes communication with the Zigbee controller stick.
+	 * Initializes communication with the Zigbee controller stick. Browsing
+	 * the network continues in the background; listeners receive a
+	 * {@link ZigbeeInitializationCompletedEvent} when it has completed.
 	 */
 	public void initialize() {
 		//this.enqueue(new GetVersionMessageClass().doRequest());
@@ -524,13 +843,14 @@ public class ZigbeeController {
 		//this.enqueue(new SocketGetDeviceListClass().doRequest());
 		
         System.out.println("ZigbeeController: get device list");
-        System.out.println("Found " + zigbeeApi.getDevices().size() + " nodes.");
         zigApiContext = zigbeeApi.getZigBeeApiContext();
-        zigbeeDevices.clear();
-        List<Device> devices = zigbeeApi.getDevices();
-        for (int i=0; i<devices.size(); i++) {
-        	Device device = devices.get(i);
-        	zigbeeDevices.put(device.getIEEEAddress()+"/"+device.getEndpointId(), device);
+        // Devices found from now on are added by the device events, add the ones found before
+        zigbeeApi.addDeviceListener(deviceRegistry);
+        deviceRegistry.addAll(zigbeeApi.getDevices());
+        logger.debug("Found {} nodes.", deviceRegistry.size());
+        if (browseThread == null) {
+        	this.browseThread = new ZigbeeBrowseThread();
+        	this.browseThread.start();
         }
 		
 	}
@@ -595,7 +915,7 @@ public class ZigbeeController {
 		}
 		
 		logger.trace("Checking for Dead or Sleeping Nodes.");
-		for (Map.Entry<Long, ZigbeeNode> entry : zigbeeNodes.entrySet()){
+		for (ZigbeeNode node : zigbeeNodes.snapshot()){
 			if (entry.getValue().getNodeStage() == NodeStage.EMPTYNODE)
 				continue;
 			
@@ -786,11 +1106,33 @@ public class ZigbeeController {
 	}
 	
 	/**
-	 * Add a listener for Zigbee events to this controller.
+	 * Add a listener for all Zigbee events to this controller.
 	 * @param eventListener the event listener to add.
 	 */
 	public void addEventListener(ZigbeeEventListener eventListener) {
-		this.zigbeeEventListeners.add(eventListener);
+		addEventListener(eventListener, ZigbeeEvent.class);
+	}
+
+	/**
+	 * Add a listener for Zigbee events to this controller. The listener
+	 * is only notified of events of the given types and their subclasses.
+	 * Adding a listener that was already added replaces its event types.
+	 * @param eventListener the event listener to add.
+	 * @param eventTypes the event types the listener handles.
+	 */
+	@SafeVarargs
+	public final void addEventListener(ZigbeeEventListener eventListener, Class<? extends ZigbeeEvent>... eventTypes) {
+		// The array is copied, the registration must not keep the caller's array
+		List<Class<? extends ZigbeeEvent>> types = new ArrayList<Class<? extends ZigbeeEvent>>(eventTypes.length);
+		for (Class<? extends ZigbeeEvent> eventType : eventTypes)
+			types.add(eventType);
+		ListenerRegistration registration = new ListenerRegistration(eventListener, types,
+				new ZigbeeEventDispatcher(eventListener, this.eventQueueSize));
+		synchronized (this.zigbeeEventListeners) {
+			removeRegistrations(eventListener);
+			this.zigbeeEventListeners.add(registration);
+			listenersChanged();
+		}
 	}
 
 	/**
@@ -798,7 +1140,125 @@ public class ZigbeeController {
 	 * @param eventListener the event listener to remove.
 	 */
 	public void removeEventListener(ZigbeeEventListener eventListener) {
-		this.zigbeeEventListeners.remove(eventListener);
+		synchronized (this.zigbeeEventListeners) {
+			removeRegistrations(eventListener);
+			listenersChanged();
+		}
+	}
+	
+	private void listenersChanged() {
+		this.eventListenersVersion++;
+		this.eventListenersByType.clear();
+	}
+	
+	private void removeRegistrations(ZigbeeEventListener eventListener) {
+		for (ListenerRegistration registration : this.zigbeeEventListeners) {
+			if (registration.listener == eventListener) {
+				this.zigbeeEventListeners.remove(registration);
+				registration.dispatcher.shutdown();
+			}
+		}
+	}
+	
+	/**
+	 * Returns the listeners that handle events of the given class.
+	 * @param eventClass the class of the event.
+	 * @return the listeners to notify.
+	 */
+	private ListenerRegistration[] getEventListeners(Class<?> eventClass) {
+		ListenerRegistration[] listeners = this.eventListenersByType.get(eventClass);
+		if (listeners != null)
+			return listeners;
+		
+		int version;
+		synchronized (this.zigbeeEventListeners) {
+			version = this.eventListenersVersion;
+		}
+		
+		List<ListenerRegistration> result = new ArrayList<ListenerRegistration>();
+		for (ListenerRegistration registration : this.zigbeeEventListeners) {
+			if (registration.handles(eventClass))
+				result.add(registration);
+		}
+		listeners = result.toArray(new ListenerRegistration[result.size()]);
+		
+		// Don't keep the entry when listeners were added or removed in the mean time
+		synchronized (this.zigbeeEventListeners) {
+			if (this.eventListenersVersion == version)
+				this.eventListenersByType.put(eventClass, listeners);
+		}
+		return listeners;
+	}
+	
+	/**
+	 * Sets what happens to events of the given type when the event queue
+	 * of a listener is full. The policy also applies to subclasses of the type,
+	 * unless a policy has been set for the subclass itself.
+	 * @param eventType the event type to set the policy for.
+	 * @param policy the overflow policy.
+	 */
+	public void setOverflowPolicy(Class<? extends ZigbeeEvent> eventType, OverflowPolicy policy) {
+		this.overflowPolicies.put(eventType, policy);
+		this.overflowPoliciesByType.clear();
+	}
+	
+	/**
+	 * Returns the overflow policy for events of the given class, using the
+	 * policy of the closest superclass that has one.
+	 * @param eventClass the class of the event.
+	 * @return the overflow policy.
+	 */
+	private OverflowPolicy getOverflowPolicy(Class<?> eventClass) {
+		OverflowPolicy policy = this.overflowPoliciesByType.get(eventClass);
+		if (policy != null)
+			return policy;
+		
+		for (Class<?> type = eventClass; type != null; type = type.getSuperclass()) {
+			policy = this.overflowPolicies.get(type);
+			if (policy != null)
+				break;
+		}
+		if (policy == null)
+			policy = OverflowPolicy.NEVER_DROP;
+		this.overflowPoliciesByType.put(eventClass, policy);
+		return policy;
+	}
+	
+	/**
+	 * Returns the number of events that are waiting to be delivered to the listeners.
+	 * @return the total event queue depth.
+	 */
+	public int getEventQueueDepth() {
+		int depth = 0;
+		for (ListenerRegistration registration : this.zigbeeEventListeners) {
+			depth += registration.dispatcher.getQueueDepth();
+		}
+		return depth;
+	}
+	
+	/**
+	 * Returns the largest number of events that have been waiting for a single listener.
+	 * @return the maximum event queue depth.
+	 */
+	public int getMaxEventQueueDepth() {
+		int depth = 0;
+		for (ListenerRegistration registration : this.zigbeeEventListeners) {
+			depth = Math.max(depth, registration.dispatcher.getMaxQueueDepth());
+		}
+		return depth;
+	}
+	
+	/**
+	 * Returns the number of events that were dropped because the
+	 * event queue of a listener was full.
+	 * @return the number of events dropped.
+	 */
+	public long getDroppedEventCount() {
+		long dropped = 0;
+		for (ListenerRegistration registration : this.zigbeeEventListeners) {
+			dropped += registration.dispatcher.getDroppedCount();
+		}
+		return dropped;
 	}
 	
     /**
@@ -876,13 +1336,99 @@ public class ZigbeeController {
 	}
 	
 	/**
-	 * Gets the node object using it's node ID as key.
-	 * Returns null if the node is not found
-	 * @param nodeId the Node ID of the node to get.
-	 * @return node object
+	 * Returns the cache of attribute values received from the devices.
+	 * @return the attribute cache.
+	 */
+	public ZigbeeAttributeCache getAttributeCache() {
+		return this.attributeCache;
+	}
+	
+	/**
+	 * Returns the round trip times and response timeouts of the nodes.
+	 * @return the round trip estimator.
+	 */
+	public ZigbeeRoundTripEstimator getRoundTripEstimator() {
+		return this.roundTripEstimator;
+	}
+	
+	/**
+	 * Sends a cluster command to all devices in a ZigBee group with
+	 * a single group addressed frame.
+	 * @param groupId the group to send the command to.
+	 * @param clusterId the cluster the command belongs to.
+	 * @param commandId the cluster specific command to send.
+	 * @return true if the frame was accepted by the coordinator.
+	 */
+	public boolean sendGroupCommand(int groupId, int clusterId, int commandId) {
+		if (zigbeeApi == null || !isZigbeeNetworkStarted)
+			return false;
+		
+		int transactionId = groupTransactionId.incrementAndGet() & 0xFF;
+		int[] zclFrame = new int[] { ZCL_FRAME_CLUSTER_SPECIFIC | ZCL_FRAME_DISABLE_DEFAULT_RESPONSE, transactionId, commandId };
+		
+		int[] payload = new int[20 + zclFrame.length];
+		payload[0] = ADDRESS_MODE_GROUP;
+		payload[1] = groupId & 0xFF;			// destination address, 8 bytes, group id LSB first
+		payload[2] = (groupId >> 8) & 0xFF;
+		payload[9] = 0xFF;						// destination endpoint, not used for groups
+		payload[10] = 0x00;						// destination PAN, 0 is the own PAN
+		payload[11] = 0x00;
+		payload[12] = GROUP_SOURCE_ENDPOINT;
+		payload[13] = clusterId & 0xFF;
+		payload[14] = (clusterId >> 8) & 0xFF;
+		payload[15] = transactionId;
+		payload[16] = 0x00;						// options
+		payload[17] = GROUP_RADIUS;
+		payload[18] = zclFrame.length & 0xFF;
+		payload[19] = (zclFrame.length >> 8) & 0xFF;
+		System.arraycopy(zclFrame, 0, payload, 20, zclFrame.length);
+		
+		logger.debug("Sending command 0x{} of cluster 0x{} to group {}", 
+				Integer.toHexString(commandId), Integer.toHexString(clusterId), groupId);
+		ZToolPacket response = zigbeeApi.getZigBeeNetworkManager().sendLocalRequest(
+				new ZToolPacket(new DoubleByte(AF_DATA_REQUEST_EXT), payload));
+		if (response == null || response.isError()) {
+			logger.warn("Group {}: command was not accepted by the coordinator", groupId);
+			return false;
+		}
+		
+		int status = response.getPacket()[ZToolPacket.PAYLOAD_START_INDEX];
+		if (status != 0) {
+			logger.warn("Group {}: command failed with status 0x{}", groupId, Integer.toHexString(status));
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Gets the device using its endpoint ID as key.
+	 * Returns null if the device is not found
+	 * @param EndpoindId the endpoint ID (IEEE address/endpoint) of the device to get.
+	 * @return device object
 	 */
 	public Device getDevice(String EndpoindId) {
-		return this.zigbeeDevices.get(EndpoindId);
+		return this.deviceRegistry.getDevice(ZigbeeEndpointKey.parse(EndpoindId));
+	}
+	
+	/**
+	 * Gets the device using its endpoint key.
+	 * Returns null if the device is not found
+	 * @param endpointKey the key of the device to get.
+	 * @return device object
+	 */
+	public Device getDevice(ZigbeeEndpointKey endpointKey) {
+		return this.deviceRegistry.getDevice(endpointKey);
+	}
+
+	/**
+	 * Gets the key of a device from the node ID (network address)
+	 * and endpoint that the events of the node carry.
+	 * @param nodeId the network address of the node.
+	 * @param endpoint the endpoint number.
+	 * @return the key, or null if the device is not known.
+	 */
+	public ZigbeeEndpointKey getEndpointKey(long nodeId, int endpoint) {
+		return this.deviceRegistry.getEndpointKey((int) nodeId, endpoint);
 	}
 
 	/**
@@ -896,11 +1442,12 @@ public class ZigbeeController {
 	}
 	
 	/**
-	 * Gets the node list
-	 * @return
+	 * Gets the node list. The list is a snapshot that
+	 * can be iterated while nodes are added or removed.
+	 * @return the nodes
 	 */
 	public Collection<ZigbeeNode> getNodes() {
-		return this.zigbeeNodes.values();
+		return this.zigbeeNodes.snapshot();
 	}
 
 	/**
@@ -959,12 +1506,142 @@ public class ZigbeeController {
 	public int getTimeOutCount() {
 		return timeOutCount.get();
 	}
+
+	/**
+	 * Returns the number of times the connection to the gateway was restored.
+	 * @return the reconnect count
+	 */
+	public int getReconnectCount() {
+		return reconnectCount.get();
+	}
+	
+	/**
+	 * Returns the number of requests awaiting a response from the gateway.
+	 * @return the number of outstanding requests
+	 */
+	public int getOutstandingRequestCount() {
+		return pendingTransactions.size();
+	}
+	
+	/**
+	 * Records that a command has been sent to a device, to measure
+	 * how long after startup the first command could be served.
+	 */
+	public void recordCommand() {
+		if (firstCommandTime.compareAndSet(-1, System.currentTimeMillis()))
+			logger.info("First command served {}ms after startup.", firstCommandTime.get() - startTime);
+	}
+	
+	/**
+	 * Returns the time between the start of the controller and the
+	 * first command that was sent to a device.
+	 * @return the time in milliseconds, or -1 if no command was sent yet.
+	 */
+	public long getTimeToFirstCommand() {
+		long time = firstCommandTime.get();
+		return time < 0 ? -1 : time - startTime;
+	}
+	
+	/**
+	 * Returns the time between the start of the controller and the
+	 * moment browsing the network completed.
+	 * @return the time in milliseconds, or -1 if browsing has not completed yet.
+	 */
+	public long getTimeToFullyBrowsed() {
+		long time = browseCompleteTime;
+		return time < 0 ? -1 : time - startTime;
+	}
+	
+	/**
+	 * Returns the longest response time measured for a request.
+	 * @return the longest response time in milliseconds
+	 */
+	public long getLongestResponseTime() {
+		return longestResponseTime;
+	}
 	
 	// Nested classes and enumerations
 	
+	/**
+	 * Event listener together with the event types it handles and
+	 * the dispatcher that delivers the events to it.
+	 */
+	private static class ListenerRegistration {
+		private final ZigbeeEventListener listener;
+		private final List<Class<? extends ZigbeeEvent>> eventTypes;
+		private final ZigbeeEventDispatcher dispatcher;
+		
+		private ListenerRegistration(ZigbeeEventListener listener, List<Class<? extends ZigbeeEvent>> eventTypes,
+				ZigbeeEventDispatcher dispatcher) {
+			this.listener = listener;
+			this.eventTypes = eventTypes;
+			this.dispatcher = dispatcher;
+		}
+		
+		private boolean handles(Class<?> eventClass) {
+			for (Class<? extends ZigbeeEvent> eventType : eventTypes) {
+				if (eventType.isAssignableFrom(eventClass))
+					return true;
+			}
+			return false;
+		}
+	}
+	
+	/**
+	 * Browse thread. Waits for the network to be browsed and signals the
+	 * listeners when browsing has completed. The devices found in the
+	 * mean time are added to the device registry as they appear.
+	 */
+	private class ZigbeeBrowseThread extends Thread {
+		
+		private ZigbeeBrowseThread() {
+			super("Zigbee browse");
+			setDaemon(true);
+		}
+		
+		@Override
+		public void run() {
+			logger.debug("Starting Zigbee browse thread");
+			try {
+				while (!enableShutdown && !interrupted()) {
+					if (zigbeeApi.isInitialBrowsingComplete()) {
+						browseCompleteTime = System.currentTimeMillis();
+						logger.info("Network browsed {}ms after startup, found {} devices.",
+								browseCompleteTime - startTime, deviceRegistry.size());
+						notifyEventListeners(new ZigbeeInitializationCompletedEvent(ownNodeId));
+						break;
+					}
+					Thread.sleep(BROWSE_POLL_PERIOD);
+				}
+			} catch (InterruptedException e) {
+			} catch (RuntimeException e) {
+				logger.error("Exception while browsing the network: {}", e.getLocalizedMessage());
+			}
+			logger.debug("Stopped Zigbee browse thread");
+		}
+	}
+	
+	/**
+	 * Zigbee gateway request that has been sent and is awaiting its response.
+	 */
+	private static class PendingTransaction {
+		private final SocketMessage message;
+		private final long sentTime;
+		private final long timeout;
+		
+		private PendingTransaction(SocketMessage message, long timeout) {
+			this.message = message;
+			this.sentTime = System.currentTimeMillis();
+			this.timeout = timeout;
+		}
+	}
+	
 	/**
 	 * Zigbee controller Send Thread. Takes care of sending all messages.
-	 * It uses a semaphore to synchronize communication with the receiving thread.
+	 * Messages are written to the gateway connection as soon as one of the
+	 * outstanding request slots is free. The receive thread frees the slot
+	 * when the response with the matching callback ID arrives, or the slot
+	 * is reclaimed here once the response timeout has expired.
 	 * @author Jan-Willem Spuij
 	 * @since 1.3.0
 	 */
@@ -973,15 +1650,90 @@ public class ZigbeeController {
 		private final Logger logger = LoggerFactory.getLogger(ZigbeeSendThread.class);
 		
 		/**
-    	 * Processes incoming message and notifies event handlers.
-    	 * @param buffer the buffer to process.
-    	 */
-    	private void processIncomingMessage(byte[] buffer, SocketMessage lastSentMessage) {
-    		SocketMessage incomingMessage = new SocketMessage(buffer);
-    		
-    		
-    		handleIncomingMessage(incomingMessage, lastSentMessage);
-        }
+		 * Returns a callback ID that is not in use by an outstanding request.
+		 * The IDs of requests that timed out are skipped until the longest
+		 * response timeout has passed, so a late response can't be taken
+		 * for the response to a new request. When every ID is taken, the
+		 * quarantined ID that is released first is used anyway.
+		 * @return callback ID
+		 */
+		private int nextFreeCallbackId() {
+			long now = System.currentTimeMillis();
+			int oldestId = -1;
+			long oldestRelease = Long.MAX_VALUE;
+			for (int i = 0; i < 0xFF; i++) {
+				int callbackId = getCallbackId();
+				if (pendingTransactions.containsKey(callbackId))
+					continue;
+				
+				Long release = quarantinedCallbackIds.get(callbackId);
+				if (release == null)
+					return callbackId;
+				if (release <= now) {
+					quarantinedCallbackIds.remove(callbackId);
+					return callbackId;
+				}
+				if (release < oldestRelease) {
+					oldestId = callbackId;
+					oldestRelease = release;
+				}
+			}
+			
+			logger.debug("All callback IDs in use, reusing quarantined callback ID {}", oldestId);
+			quarantinedCallbackIds.remove(oldestId);
+			return oldestId;
+		}
+		
+		/**
+		 * Writes a single frame containing the message to the gateway.
+		 * The frame is encoded into a pooled direct buffer that is written
+		 * to the socket channel as is, so no memory is allocated per frame.
+		 * @param message the message to write.
+		 * @throws IOException when writing fails.
+		 */
+		private void writeFrame(SocketMessage message) throws IOException {
+			SocketChannel channel = socketChannel;
+			if (channel == null)
+				throw new IOException("Not connected to the gateway");
+			
+			ByteBuffer frame = bufferPool.acquire(message.getFrameLength());
+			try {
+				message.encodeFrame(frame);
+				frame.flip();
+				while (frame.hasRemaining()) {
+					channel.write(frame);
+				}
+			} finally {
+				bufferPool.release(frame);
+			}
+		}
+		
+		/**
+		 * Reclaims the slots of requests that have not been answered
+		 * within the response timeout of their node, and requeues or
+		 * discards them. Every timeout doubles the timeout of the node,
+		 * so a requeued request waits longer for its response. The
+		 * callback ID of the request is quarantined, the node may still
+		 * answer it.
+		 */
+		private void expireTransactions() {
+			long now = System.currentTimeMillis();
+			for (Map.Entry<Integer, PendingTransaction> entry : pendingTransactions.entrySet()) {
+				PendingTransaction transaction = entry.getValue();
+				if (now - transaction.sentTime < transaction.timeout)
+					continue;
+				
+				// The receive thread may have completed it in the mean time.
+				if (!pendingTransactions.remove(entry.getKey(), transaction))
+					continue;
+				
+				quarantinedCallbackIds.put(entry.getKey(), now + ZigbeeRoundTripEstimator.MAX_TIMEOUT);
+				outstandingRequests.release();
+				timeOutCount.incrementAndGet();
+				roundTripEstimator.recordTimeout(transaction.message.getMessageNode());
+				retryOrDiscard(transaction.message, "Timeout after " + transaction.timeout + "ms");
+			}
+		}
 
 		/**
 		 * Run method. Runs the actual sending process.
@@ -990,149 +1742,46 @@ public class ZigbeeController {
 		public void run() {
 			logger.debug("Starting Zigbee send thread");
 			while (!interrupted()) {
+				SocketMessage message = null;
 				
 				try {
-					lastSentMessage = sendQueue.take();
+					expireTransactions();
+					message = sendQueue.poll(ZIGBEE_RECEIVE_TIMEOUT, TimeUnit.MILLISECONDS);
+					if (message == null)
+						continue;
 					logger.debug("Took message from queue for sending. Queue length = {}", sendQueue.size());
-				} catch (InterruptedException e1) {
-					break;
-				}
-				
-				if (lastSentMessage == null)
-					continue;
-				
-				// Send the message to the controller
-				//byte[] buffer = lastSentMessage.getMessageBuffer();
-				//logger.debug("Sending Message = " + SocketMessage.bb2hex(buffer));
-				lastMessageStartTime = System.currentTimeMillis();
-				/*NwkGetDeviceListReq req = Nwkmgr.NwkGetDeviceListReq.newBuilder()
-						.setCmdId(nwkMgrCmdId_t.NWK_GET_DEVICE_LIST_REQ).build();
-				System.out.println(req.getCmdId());
-				System.out.println(req.getSerializedSize());
-				byte[] bA = req.toByteArray();
-				System.out.println(bA.length);
-				for (int i = 0; i < bA.length; i++) {
-					System.out.print(bA[i] + ":");
-				}
-				byte[] reqByteArray = req.toByteArray();
-				byte header_len_0 = (byte) (reqByteArray.length);
-				byte header_len_1 = (byte) (reqByteArray.length >> 8);
-				byte subsystem = 18;
-//				byte cmd_id = (byte) nwkMgrCmdId_t.NWK_GET_LOCAL_DEVICE_INFO_REQ
-//						.getNumber();
-				byte cmd_id = (byte) nwkMgrCmdId_t.NWK_GET_DEVICE_LIST_REQ
-						.getNumber();
-				ByteBuffer bb = ByteBuffer.allocate(4 + reqByteArray.length);
-				bb.put(header_len_0);
-				bb.put(header_len_1);
-				bb.put(subsystem);
-				bb.put(cmd_id);
-				bb.put(reqByteArray);
-				System.out.println("start socket message send...........................");
-				Gateway.gwAddressStruct_t dstAddress = Gateway.gwAddressStruct_t
-						.newBuilder().setAddressType(gwAddressType_t.UNICAST)
-						.setIeeeAddr(5149013021094902L).setEndpointId(8).build();
-				// cmdId, dstAddress, state
-				Gateway.DevSetOnOffStateReq req = Gateway.DevSetOnOffStateReq
-						.newBuilder().setCmdId(gwCmdId_t.DEV_SET_ONOFF_STATE_REQ)
-						.setDstAddress(dstAddress).setState(gwOnOffState_t.ON_STATE).build();
-				ZigbeeTcpPacket gwPkt = new ZigbeeTcpPacket(
-						(byte) zStackGwSysId_t.RPC_SYS_PB_GW.getNumber(), (byte) req
-								.getCmdId().getNumber(), req);*/
-				
-				try {
-					//socketOut.write(bb);
-					//socketOut.write(gwPkt.toByteArray());
-					socketOut = socketClient.getOutputStream();
-					socketOut.write(lastSentMessage.getMessagePayload());
-					socketOut.flush();					
-					socketClient.shutdownOutput();
-					
-					// Receive message from Server
-					socketIn = socketClient.getInputStream();
-					byte[] buffer = new byte[2048];
-					int len = socketIn.read(buffer);
-					processIncomingMessage(buffer, lastSentMessage);
-
-				} catch (IOException e) {
-					logger.error("Got I/O exception {} during sending. exiting thread.", e.getLocalizedMessage());
-					break;
-				}
-				
-				/*
-				// If this message is a data packet to a node
-				// then make sure the node is not a battery device.
-				// If it's a battery device, it needs to be awake, or we queue the frame until it is.
-				if (lastSentMessage.getMessageClass() == SerialMessageClass.SendData) {
-					ZigbeeNode node = getNode(lastSentMessage.getMessageNode());
 					
-					if (node != null && !node.isListening() && !node.isFrequentlyListening() && lastSentMessage.getPriority() != SerialMessagePriority.Low) {
-						ZigbeeWakeUpCommandClass wakeUpCommandClass = (ZigbeeWakeUpCommandClass)node.getCommandClass(CommandClass.WAKE_UP);
-
-						// If it's a battery operated device, check if it's awake or place in wake-up queue.
-						if (wakeUpCommandClass != null && !wakeUpCommandClass.processOutgoingWakeupMessage(lastSentMessage)) {
-							continue;
-						}
+					// Wait for a free slot, reclaiming slots of requests that timed out.
+					while (!outstandingRequests.tryAcquire(ZIGBEE_RECEIVE_TIMEOUT, TimeUnit.MILLISECONDS)) {
+						expireTransactions();
 					}
+				} catch (InterruptedException e) {
+					// Stopped while waiting for a slot, send the message on the next connection.
+					if (message != null)
+						enqueue(message);
+					break;
 				}
 				
-				// Clear the semaphore used to acknowledge the response.
-				transactionCompleted.drainPermits();
-				
-				// Send the message to the controller
-				byte[] buffer = lastSentMessage.getMessageBuffer();
-				logger.debug("Sending Message = " + SerialMessage.bb2hex(buffer));
+				int callbackId = nextFreeCallbackId();
+				message.setCallbackId(callbackId);
+				lastSentMessage = message;
 				lastMessageStartTime = System.currentTimeMillis();
+				pendingTransactions.put(callbackId, new PendingTransaction(message,
+						roundTripEstimator.getTimeout(message.getMessageNode())));
+				
 				try {
-					synchronized (serialPort.getOutputStream()) {
-						serialPort.getOutputStream().write(buffer);
-						serialPort.getOutputStream().flush();
-					}
+					writeFrame(message);
 				} catch (IOException e) {
+					pendingTransactions.remove(callbackId);
+					outstandingRequests.release();
+					enqueue(message);
 					logger.error("Got I/O exception {} during sending. exiting thread.", e.getLocalizedMessage());
+					SocketChannel channel = socketChannel;
+					if (channel != null)
+						gatewayFailed(channel);
 					break;
 				}
-				
-				// Now wait for the response...
-				try {
-					if (!transactionCompleted.tryAcquire(1, ZigbeeResponseTimeout, TimeUnit.MILLISECONDS)) {
-						timeOutCount.incrementAndGet();
-						if (lastSentMessage.getMessageClass() == SerialMessageClass.SendData) {
-							
-							buffer = new SerialMessage(SerialMessageClass.SendDataAbort, SerialMessageType.Request, SerialMessageClass.SendData, SerialMessagePriority.High).getMessageBuffer();
-							logger.debug("Sending Message = " + SerialMessage.bb2hex(buffer));
-							try {
-								synchronized (serialPort.getOutputStream()) {
-									serialPort.getOutputStream().write(buffer);
-									serialPort.getOutputStream().flush();
-								}
-							} catch (IOException e) {
-								logger.error("Got I/O exception {} during sending. exiting thread.", e.getLocalizedMessage());
-								break;
-							}
-						}
-
-						if (--lastSentMessage.attempts >= 0) {
-							logger.error("NODE {}: Timeout while sending message. Requeueing", lastSentMessage.getMessageNode());
-							if (lastSentMessage.getMessageClass() == SerialMessageClass.SendData)
-								handleFailedSendDataRequest(lastSentMessage);
-							else
-								enqueue(lastSentMessage);
-						} else
-						{
-							logger.warn("NODE {}: Discarding message: {}", lastSentMessage.getMessageNode(), lastSentMessage.toString());
-						}
-						continue;
-					}
-					long responseTime = System.currentTimeMillis() - lastMessageStartTime;
-					if(responseTime > longestResponseTime)
-						longestResponseTime = responseTime;
-					logger.debug("Response processed after {}ms/{}ms.", responseTime, longestResponseTime);
-					logger.trace("Acquired. Transaction completed permit count -> {}", transactionCompleted.availablePermits());
-				} catch (InterruptedException e) {
-					break;
-				}
-				*/
+				logger.trace("Sent message with callback ID {}. Outstanding requests = {}", callbackId, pendingTransactions.size());
 			}
 			logger.debug("Stopped Zigbee send thread");
 		}
@@ -1140,50 +1789,49 @@ public class ZigbeeController {
 
 	/**
 	 * Zigbee controller Receive Thread. Takes care of receiving all messages.
-	 * It uses a semaphore to synchronize communication with the sending thread.
+	 * Reads frames from the gateway connection and matches them on their
+	 * callback ID with the request that is awaiting the response.
 	 * @author Jan-Willem Spuij
 	 * @since 1.3.0
 	 */	
 	private class ZigbeeReceiveThread extends Thread {
 		
-		private static final int SOF = 0x01;
-		private static final int ACK = 0x06;
-		private static final int NAK = 0x15;
-		private static final int CAN = 0x18;
-		
 		private final Logger logger = LoggerFactory.getLogger(ZigbeeReceiveThread.class);
 
-		/**
-    	 * Sends 1 byte frame response.
-    	 * @param response the response code to send.
-    	 */
-		private void sendResponse(int response) {
-//			try {
-//				synchronized (serialPort.getOutputStream()) {
-//					serialPort.getOutputStream().write(response);
-//					serialPort.getOutputStream().flush();
-//				}
-//			} catch (IOException e) {
-//				logger.error(e.getMessage());
-//			}
-		}
+		private final ZigbeeFrameDecoder decoder = new ZigbeeFrameDecoder();
+		private final ZigbeeFrameView frame = new ZigbeeFrameView();
 		
 		/**
-    	 * Processes incoming message and notifies event handlers.
-    	 * @param buffer the buffer to process.
-    	 */
-    	private void processIncomingMessage(byte[] buffer) {
-    		SerialMessage serialMessage = new SerialMessage(buffer);
-    		if (serialMessage.isValid) {
-    			logger.trace("Message is valid, sending ACK");
-    			sendResponse(ACK);
-    		} else {
-    			logger.error("Message is not valid, discarding");
-    			return;
-    		}
-    		
-    		//handleIncomingMessage(serialMessage);
-        }
+		 * Matches a frame with the request it is a response to and processes it.
+		 * @param frame the frame to process.
+		 */
+		private void processFrame(ZigbeeFrameView frame) {
+			int callbackId = frame.getCallbackId();
+			PendingTransaction transaction = pendingTransactions.remove(callbackId);
+			if (transaction == null) {
+				// A late response to a request that timed out doesn't complete
+				// anything and isn't a round trip sample, the ID is free again.
+				if (quarantinedCallbackIds.remove(callbackId) != null)
+					logger.debug("Received late response for callback ID {}, discarding", callbackId);
+				else
+					logger.warn("Received response for unknown callback ID {}, discarding", callbackId);
+				OOFCount++;
+				return;
+			}
+			outstandingRequests.release();
+			SOFCount++;
+			
+			// The ID of a timed out attempt is quarantined, so the response
+			// belongs to this attempt and its time is a valid sample.
+			long responseTime = System.currentTimeMillis() - transaction.sentTime;
+			if(responseTime > longestResponseTime)
+				longestResponseTime = responseTime;
+			roundTripEstimator.recordResponse(transaction.message.getMessageNode(), responseTime);
+			logger.debug("Response received after {}ms/{}ms.", responseTime, longestResponseTime);
+			
+			frame.setRequest(transaction.message);
+			handleIncomingMessage(frame, transaction.message);
+		}
 		
 		/**
 		 * Run method. Runs the actual receiving process.
@@ -1191,141 +1839,54 @@ public class ZigbeeController {
 		@Override
 		public void run() {
 			logger.debug("Starting Zigbee receive thread");
-
-			// Send a NAK to resynchronise communications
-			sendResponse(NAK);
 			
-			// If we want to do a soft reset on the serial interface, do it here.
-			// It seems there's no response to this message, so sending it through
-			// 'normal' channels will cause a timeout.
-//			try {
-//				synchronized (serialPort.getOutputStream()) {
-//					SerialMessage resetMsg = new SerialApiSoftResetMessageClass().doRequest();
-//					byte[] buffer = resetMsg.getMessageBuffer();
-//
-//					serialPort.getOutputStream().write(buffer);
-//					serialPort.getOutputStream().flush();
-//				}
-//			} catch (IOException e) {
-//				logger.error(e.getMessage());
-//			}
-//
-//			while (!interrupted()) {
-//				int nextByte;
-//				
-//				try {
-//					nextByte = serialPort.getInputStream().read();
-//					
-//					if (nextByte == -1)
-//						continue;
-//					
-//				} catch (IOException e) {
-//					logger.error("Got I/O exception {} during receiving. exiting thread.", e.getLocalizedMessage());
-//					break;
-//				}
-//				
-//				switch (nextByte) {
-//					case SOF:
-//						int messageLength;
-//						
-//						try {
-//							messageLength = serialPort.getInputStream().read();
-//							
-//						} catch (IOException e) {
-//							logger.error("Got I/O exception {} during receiving. exiting thread.", e.getLocalizedMessage());
-//							break;
-//						}
-//						
-//						byte[] buffer = new byte[messageLength + 2];
-//						buffer[0] = SOF;
-//						buffer[1] = (byte)messageLength;
-//						int total = 0;
-//						
-//						while (total < messageLength) {
-//							try {
-//								int read = serialPort.getInputStream().read(buffer, total + 2, messageLength - total); 
-//								total += (read > 0 ? read : 0);
-//							} catch (IOException e) {
-//								logger.error("Got I/O exception {} during receiving. exiting thread.", e.getLocalizedMessage());
-//								return;
-//							}
-//						}
-//						
-//						logger.trace("Reading message finished" );
-//						logger.debug("Receive Message = {}", SerialMessage.bb2hex(buffer));
-//						processIncomingMessage(buffer);
-//						SOFCount++;
-//						break;
-//					case ACK:
-//    					logger.trace("Received ACK");
-//						ACKCount++;
-//						break;
-//					case NAK:
-//    					logger.error("Message not acklowledged by controller (NAK), discarding");
-//    					transactionCompleted.release();
-//    					logger.trace("Released. Transaction completed permit count -> {}", transactionCompleted.availablePermits());
-//						NAKCount++;
-//						break;
-//					case CAN:
-//    					logger.error("Message cancelled by controller (CAN), resending");
-//						try {
-//							Thread.sleep(100);
-//						} catch (InterruptedException e) {
-//							break;
-//						}
-//    					enqueue(lastSentMessage);
-//    					transactionCompleted.release();
-//    					logger.trace("Released. Transaction completed permit count -> {}", transactionCompleted.availablePermits());
-//						CANCount++;
-//						break;
-//					default:
-//						logger.warn(String.format("Out of Frame flow. Got 0x%02X. Sending NAK.", nextByte));
-//    					sendResponse(NAK);
-//    					OOFCount++;
-//    					break;
-//				}
-//			}
-//			logger.debug("Stopped Zigbee receive thread");
+			SocketChannel channel = socketChannel;
+			if (channel == null)
+				return;
+			
+			while (!interrupted()) {
+				try {
+					if (decoder.readFrom(channel) == -1) {
+						logger.warn("Zigbee gateway closed the connection");
+						gatewayFailed(channel);
+						break;
+					}
+					
+					// A read can end in the middle of a frame or hold several frames.
+					while (decoder.next(frame)) {
+						processFrame(frame);
+					}
+				} catch (IOException e) {
+					logger.error("Got I/O exception {} during receiving. exiting thread.", e.getLocalizedMessage());
+					gatewayFailed(channel);
+					break;
+				}
+			}
+			logger.debug("Stopped Zigbee receive thread");
 		}
 	}
 
 	/**
 	 * WatchDogTimerTask class. Acts as a watch dog and
-	 * checks the serial threads to see whether they are
-	 * still running.  
+	 * checks the gateway threads to see whether they are
+	 * still running, reconnecting to the gateway if not.
 	 * @author Jan-Willem Spuij
 	 * @since 1.3.0
 	 */
 	private class WatchDogTimerTask extends TimerTask {
 		
 		private final Logger logger = LoggerFactory.getLogger(WatchDogTimerTask.class);
-		private final String serialPortName;
-		
-		/**
-		 * Creates a new instance of the WatchDogTimerTask class.
-		 * @param serialPortName the serial port name to reconnect to
-		 * in case the serial threads have died.
-		 */
-		public WatchDogTimerTask(String serialPortName) {
-			this.serialPortName = serialPortName;
-		}
 		
 		/**
 		 * {@inheritDoc}
 		 */
 		@Override
 		public void run() {
-			logger.trace("Watchdog: Checking Serial threads");
-			if ((receiveThread != null && !receiveThread.isAlive()) ||
-					(sendThread != null && !sendThread.isAlive()))
-			{
-				logger.warn("Threads not alive, respawning");
-				disconnect();
-				try {
-					connect(serialPortName);
-				} catch (SerialInterfaceException e) {
-					logger.error("unable to restart Serial threads: {}", e.getLocalizedMessage());
-				}
+			logger.trace("Watchdog: Checking gateway threads");
+			try {
+				checkGateway();
+			} catch (RuntimeException e) {
+				logger.error("Watchdog: unable to reconnect to the gateway: {}", e.getLocalizedMessage());
 			}
 		}
 	}
@@ -0,0 +1,166 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.zigbee.internal.protocol;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.bubblecloud.zigbee.api.Device;
+import org.bubblecloud.zigbee.api.DeviceListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Registry of the devices in the network, keyed by {@link ZigbeeEndpointKey}.
+ * The registry is kept up to date by the device events of the ZigBee API,
+ * so it never has to be rebuilt. It also maps the network address and
+ * endpoint the events of a node carry to the key of the device.
+ * @author Brian Crosby
+ * @since 1.5.0
+ */
+public class ZigbeeDeviceRegistry implements DeviceListener {
+
+	private static final Logger logger = LoggerFactory.getLogger(ZigbeeDeviceRegistry.class);
+
+	private final ConcurrentMap<ZigbeeEndpointKey, Device> devices = new ConcurrentHashMap<ZigbeeEndpointKey, Device>();
+	private final ConcurrentMap<Integer, ZigbeeEndpointKey> keysByAddress = new ConcurrentHashMap<Integer, ZigbeeEndpointKey>();
+	private final ZigbeeAttributeCache attributeCache;
+
+	/**
+	 * Constructor. Creates a new instance of the ZigbeeDeviceRegistry class.
+	 * @param attributeCache the cache to remove the values of removed devices from.
+	 */
+	public ZigbeeDeviceRegistry(ZigbeeAttributeCache attributeCache) {
+		this.attributeCache = attributeCache;
+	}
+
+	/**
+	 * Returns a device.
+	 * @param key the key of the device.
+	 * @return the device, or null if it is not known.
+	 */
+	public Device getDevice(ZigbeeEndpointKey key) {
+		return key == null ? null : devices.get(key);
+	}
+
+	/**
+	 * Returns the key of the device with a network address and endpoint.
+	 * @param networkAddress the 16 bit network address of the node.
+	 * @param endpoint the endpoint number.
+	 * @return the key, or null if no such device is known.
+	 */
+	public ZigbeeEndpointKey getEndpointKey(int networkAddress, int endpoint) {
+		return keysByAddress.get(getAddressKey(networkAddress, endpoint));
+	}
+
+	/**
+	 * Returns all known devices.
+	 * @return the devices.
+	 */
+	public Collection<Device> getDevices() {
+		return Collections.unmodifiableCollection(devices.values());
+	}
+
+	/**
+	 * Returns the number of known devices.
+	 * @return the number of devices.
+	 */
+	public int size() {
+		return devices.size();
+	}
+
+	/**
+	 * Adds devices that are not known yet, e.g. the devices that were
+	 * found before the registry was listening.
+	 * @param found the devices to add.
+	 * @return the number of devices added.
+	 */
+	public int addAll(Collection<Device> found) {
+		int added = 0;
+		for (Device device : found) {
+			ZigbeeEndpointKey key = ZigbeeEndpointKey.of(device);
+			if (key != null && devices.putIfAbsent(key, device) == null) {
+				keysByAddress.put(getAddressKey(device), key);
+				added++;
+			}
+		}
+		return added;
+	}
+
+	/**
+	 * Removes all devices.
+	 */
+	public void clear() {
+		devices.clear();
+		keysByAddress.clear();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void deviceAdded(Device device) {
+		ZigbeeEndpointKey key = ZigbeeEndpointKey.of(device);
+		if (key == null) {
+			logger.warn("Device {} has an invalid IEEE address, ignoring.", device.getEndpointId());
+			return;
+		}
+
+		put(key, device);
+		logger.debug("Device {} added", device.getEndpointId());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void deviceUpdated(Device device) {
+		ZigbeeEndpointKey key = ZigbeeEndpointKey.of(device);
+		if (key != null)
+			put(key, device);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public void deviceRemoved(Device device) {
+		ZigbeeEndpointKey key = ZigbeeEndpointKey.of(device);
+		if (key == null)
+			return;
+		Device previous = devices.remove(key);
+		if (previous == null)
+			return;
+		keysByAddress.remove(getAddressKey(previous), key);
+
+		attributeCache.invalidate(device);
+		logger.debug("Device {} removed", device.getEndpointId());
+	}
+
+	/**
+	 * Adds or replaces a device. The node may have got a new
+	 * network address, the old address is dropped.
+	 */
+	private void put(ZigbeeEndpointKey key, Device device) {
+		Device previous = devices.put(key, device);
+		if (previous != null)
+			keysByAddress.remove(getAddressKey(previous), key);
+		keysByAddress.put(getAddressKey(device), key);
+	}
+
+	private static Integer getAddressKey(Device device) {
+		return getAddressKey(device.getNetworkAddress(), device.getEndPointAddress());
+	}
+
+	private static Integer getAddressKey(int networkAddress, int endpoint) {
+		return ((networkAddress & 0xFFFF) << 8) | (endpoint & 0xFF);
+	}
+}
@@ -0,0 +1,143 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.zigbee.internal.protocol;
+
+import org.bubblecloud.zigbee.api.Device;
+
+/**
+ * Identifies a device endpoint by the IEEE address of its node and its
+ * endpoint number. The key is parsed once, e.g. when a binding is read,
+ * so that devices can be looked up without parsing or building strings.
+ * @author Brian Crosby
+ * @since 1.5.0
+ */
+public final class ZigbeeEndpointKey {
+
+	private final long ieeeAddress;
+	private final int endpoint;
+	private final int hash;
+
+	/**
+	 * Constructor. Creates a new instance of the ZigbeeEndpointKey class.
+	 * @param ieeeAddress the 64 bit IEEE address of the node.
+	 * @param endpoint the endpoint number.
+	 */
+	public ZigbeeEndpointKey(long ieeeAddress, int endpoint) {
+		this.ieeeAddress = ieeeAddress;
+		this.endpoint = endpoint & 0xFF;
+		this.hash = (int)(ieeeAddress ^ (ieeeAddress >>> 32)) * 31 + this.endpoint;
+	}
+
+	/**
+	 * Creates the key of a device.
+	 * @param device the device.
+	 * @return the key, or null if the IEEE address of the device can't be parsed.
+	 */
+	public static ZigbeeEndpointKey of(Device device) {
+		long ieeeAddress = parseAddress(device.getIEEEAddress(), 0, device.getIEEEAddress().length());
+		if (ieeeAddress == -1)
+			return null;
+
+		return new ZigbeeEndpointKey(ieeeAddress, device.getEndPointAddress());
+	}
+
+	/**
+	 * Parses an endpoint ID of the form <code>00:17:88:01:00:be:0a:3c/11</code>.
+	 * @param endpointId the endpoint ID to parse.
+	 * @return the key, or null if the endpoint ID is invalid.
+	 */
+	public static ZigbeeEndpointKey parse(String endpointId) {
+		if (endpointId == null)
+			return null;
+
+		int separator = endpointId.lastIndexOf('/');
+		if (separator <= 0)
+			return null;
+
+		long ieeeAddress = parseAddress(endpointId, 0, separator);
+		if (ieeeAddress == -1)
+			return null;
+
+		try {
+			int endpoint = Integer.parseInt(endpointId.substring(separator + 1));
+			if (endpoint < 0 || endpoint > 0xFF)
+				return null;
+			return new ZigbeeEndpointKey(ieeeAddress, endpoint);
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Parses a hexadecimal IEEE address. Colons between the bytes are skipped.
+	 * @return the address, or -1 if it is invalid. The all ones address
+	 * is the broadcast address and not valid for a device.
+	 */
+	private static long parseAddress(String text, int start, int end) {
+		long address = 0;
+		int digits = 0;
+		for (int i = start; i < end; i++) {
+			char c = text.charAt(i);
+			if (c == ':' || c == '-')
+				continue;
+
+			int digit = Character.digit(c, 16);
+			if (digit < 0 || ++digits > 16)
+				return -1;
+			address = (address << 4) | digit;
+		}
+		return digits == 0 ? -1 : address;
+	}
+
+	/**
+	 * Returns the IEEE address of the node.
+	 * @return the IEEE address.
+	 */
+	public long getIeeeAddress() {
+		return ieeeAddress;
+	}
+
+	/**
+	 * Returns the endpoint number.
+	 * @return the endpoint.
+	 */
+	public int getEndpoint() {
+		return endpoint;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof ZigbeeEndpointKey))
+			return false;
+
+		ZigbeeEndpointKey other = (ZigbeeEndpointKey)obj;
+		return ieeeAddress == other.ieeeAddress && endpoint == other.endpoint;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return String.format("%016X/%d", ieeeAddress, endpoint);
+	}
+}
@@ -0,0 +1,296 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.zigbee.internal.protocol;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.openhab.binding.zigbee.internal.protocol.event.ZigbeeCommandClassValueEvent;
+import org.openhab.binding.zigbee.internal.protocol.event.ZigbeeEvent;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ZigbeeEventDispatcher class. Delivers the events for a single event
+ * listener on its own consumer thread, so that the thread receiving frames
+ * from the gateway never waits for a listener. Events are held in a bounded
+ * ring buffer; what happens when the buffer is full depends on the
+ * {@link OverflowPolicy} of the event.
+ * @author Brian Crosby
+ * @since 1.5.0
+ */
+public class ZigbeeEventDispatcher {
+
+	private static final Logger logger = LoggerFactory.getLogger(ZigbeeEventDispatcher.class);
+	private static final AtomicInteger threadNumber = new AtomicInteger(1);
+
+	public static final int DEFAULT_CAPACITY = 256;
+
+	private final ZigbeeEventListener listener;
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+	private ZigbeeEvent[] ring;
+	private boolean[] pinned;
+	private int head = 0;
+	private int size = 0;
+	private int highWaterMark = 0;
+	private final int capacity;
+	private volatile boolean running = true;
+	private final Thread consumer;
+
+	private final AtomicLong deliveredCount = new AtomicLong();
+	private final AtomicLong droppedCount = new AtomicLong();
+
+	/**
+	 * Constructor. Creates a new instance of the ZigbeeEventDispatcher class
+	 * and starts its consumer thread.
+	 * @param listener the listener to deliver events to.
+	 * @param capacity the number of events that can be queued for the listener.
+	 */
+	public ZigbeeEventDispatcher(ZigbeeEventListener listener, int capacity) {
+		this.listener = listener;
+		this.capacity = capacity;
+		this.ring = new ZigbeeEvent[capacity];
+		this.pinned = new boolean[capacity];
+		this.consumer = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				dispatch();
+			}
+		}, "Zigbee events " + threadNumber.getAndIncrement());
+		this.consumer.setDaemon(true);
+		this.consumer.start();
+	}
+
+	/**
+	 * Queues an event for the listener.
+	 * @param event the event to queue.
+	 * @param policy what to do when the queue is full.
+	 * @return false when an event had to be dropped or replaced.
+	 */
+	public boolean offer(ZigbeeEvent event, OverflowPolicy policy) {
+		lock.lock();
+		try {
+			if (!running)
+				return false;
+
+			if (size >= capacity) {
+				switch (policy) {
+					case DROP_OLDEST:
+						// The listener only needs the latest value, replace the queued value
+						// of the same node, endpoint and command class with the new one.
+						// Events of other nodes are never dropped for it.
+						if (replaceOlder(event)) {
+							droppedCount.incrementAndGet();
+							logger.debug("Event queue for {} is full, replaced older {} of node {}", listener, event.getClass().getSimpleName(), event.getNodeId());
+							return false;
+						}
+						if (size == ring.length)
+							grow();
+						break;
+					case DROP_NEWEST:
+						droppedCount.incrementAndGet();
+						logger.debug("Event queue for {} is full, dropping {}", listener, event.getClass().getSimpleName());
+						return false;
+					case NEVER_DROP:
+						if (size == ring.length)
+							grow();
+						break;
+				}
+			}
+
+			ring[(head + size) % ring.length] = event;
+			pinned[(head + size) % ring.length] = policy == OverflowPolicy.NEVER_DROP;
+			size++;
+			if (size > highWaterMark)
+				highWaterMark = size;
+			notEmpty.signal();
+			return true;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Stops the consumer thread. Events that are still queued are discarded.
+	 */
+	public void shutdown() {
+		lock.lock();
+		try {
+			running = false;
+			for (int i = 0; i < ring.length; i++)
+				ring[i] = null;
+			size = 0;
+			notEmpty.signal();
+		} finally {
+			lock.unlock();
+		}
+		consumer.interrupt();
+	}
+
+	/**
+	 * Returns the listener events are delivered to.
+	 * @return the listener.
+	 */
+	public ZigbeeEventListener getListener() {
+		return listener;
+	}
+
+	/**
+	 * Returns the number of events waiting to be delivered.
+	 * @return the queue depth.
+	 */
+	public int getQueueDepth() {
+		lock.lock();
+		try {
+			return size;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the largest number of events that have been waiting at the same time.
+	 * @return the maximum queue depth.
+	 */
+	public int getMaxQueueDepth() {
+		lock.lock();
+		try {
+			return highWaterMark;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of events that have been delivered to the listener.
+	 * @return the number of events delivered.
+	 */
+	public long getDeliveredCount() {
+		return deliveredCount.get();
+	}
+
+	/**
+	 * Returns the number of events that were dropped because the queue was full.
+	 * @return the number of events dropped.
+	 */
+	public long getDroppedCount() {
+		return droppedCount.get();
+	}
+
+	/**
+	 * Takes events from the ring buffer and hands them to the listener
+	 * until the dispatcher is shut down.
+	 */
+	private void dispatch() {
+		while (running) {
+			ZigbeeEvent event;
+			lock.lock();
+			try {
+				while (size == 0 && running)
+					notEmpty.await();
+				if (!running)
+					break;
+
+				event = ring[head];
+				ring[head] = null;
+				head = (head + 1) % ring.length;
+				size--;
+			} catch (InterruptedException e) {
+				break;
+			} finally {
+				lock.unlock();
+			}
+
+			try {
+				listener.ZigbeeIncomingEvent(event);
+				deliveredCount.incrementAndGet();
+			} catch (RuntimeException e) {
+				logger.error("Exception notifying {}: {}", listener, e.getLocalizedMessage());
+			}
+		}
+		logger.trace("Event dispatcher for {} stopped", listener);
+	}
+
+	/**
+	 * Replaces the latest queued event that holds an older value for the
+	 * same node, endpoint and command class as the given event, so values
+	 * of a node are still delivered in order. Events pinned by
+	 * {@link OverflowPolicy#NEVER_DROP} are never replaced.
+	 * @param event the new event.
+	 * @return false when no older value for the event is queued.
+	 */
+	private boolean replaceOlder(ZigbeeEvent event) {
+		for (int i = size - 1; i >= 0; i--) {
+			int index = (head + i) % ring.length;
+			if (pinned[index] || !isSameValue(ring[index], event))
+				continue;
+
+			ring[index] = event;
+			return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Returns whether two events carry a value of the same node, endpoint
+	 * and, for value events, command class.
+	 */
+	private static boolean isSameValue(ZigbeeEvent queued, ZigbeeEvent event) {
+		if (queued.getClass() != event.getClass() || queued.getNodeId() != event.getNodeId() || queued.getEndpoint() != event.getEndpoint())
+			return false;
+
+		if (event instanceof ZigbeeCommandClassValueEvent)
+			return ((ZigbeeCommandClassValueEvent) queued).getCommandClass() == ((ZigbeeCommandClassValueEvent) event).getCommandClass();
+		return true;
+	}
+
+	/**
+	 * Doubles the size of the ring buffer, keeping the queued events in order.
+	 * Used for events that may not be dropped, so the ring can
+	 * temporarily hold more than its capacity.
+	 */
+	private void grow() {
+		ZigbeeEvent[] grown = new ZigbeeEvent[ring.length * 2];
+		boolean[] grownPinned = new boolean[ring.length * 2];
+		for (int i = 0; i < size; i++) {
+			grown[i] = ring[(head + i) % ring.length];
+			grownPinned[i] = pinned[(head + i) % ring.length];
+		}
+		ring = grown;
+		pinned = grownPinned;
+		head = 0;
+	}
+
+	/**
+	 * Determines what happens to an event when the queue of a listener is full.
+	 */
+	public enum OverflowPolicy {
+		/**
+		 * Replace the queued event of the same node, endpoint and command
+		 * class with the new one. When there is none, the queue grows, so
+		 * the only update of another node is never dropped. Used for value
+		 * events, where only the latest value matters.
+		 */
+		DROP_OLDEST,
+
+		/**
+		 * Drop the new event.
+		 */
+		DROP_NEWEST,
+
+		/**
+		 * Always queue the event, growing the queue beyond its capacity if needed.
+		 * Used for events that must not get lost, like inclusion events.
+		 */
+		NEVER_DROP;
+	}
+}
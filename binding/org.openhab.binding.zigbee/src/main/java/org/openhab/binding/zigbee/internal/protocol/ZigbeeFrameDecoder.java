@@ -0,0 +1,179 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.zigbee.internal.protocol;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Decodes the frames received from the Zigbee gateway. The data is read
+ * from the connection into a ring buffer, and the frames are decoded in
+ * place: {@link #next(ZigbeeFrameView)} points a {@link ZigbeeFrameView}
+ * at the next complete frame instead of copying it out. A frame that is
+ * only partially received stays in the buffer until the rest arrives,
+ * several frames received in one read are returned one by one.
+ *
+ * A gateway frame is made up as follows
+ * Byte 0 : Length of the frame - number of bytes to follow, LSB
+ * Byte 1 : Length of the frame, MSB
+ * Byte 2 : Callback ID of the request the frame is a response to
+ * Byte 3+: Payload
+ *
+ * The decoder is used by the receive thread only and is not thread safe.
+ * @author Brian Crosby
+ * @since 1.5.0
+ */
+public class ZigbeeFrameDecoder {
+
+	/**
+	 * The default size of the ring buffer.
+	 */
+	public static final int DEFAULT_CAPACITY = 4096;
+
+	private static final int LENGTH_FIELD_SIZE = 2;
+
+	private ByteBuffer ring;
+	private ByteBuffer window;
+	private int mask;
+
+	private long readPosition = 0;
+	private long writePosition = 0;
+	private long frameEnd = 0;
+
+	/**
+	 * Constructor. Creates a new instance of the ZigbeeFrameDecoder class
+	 * with a ring buffer of the default capacity.
+	 */
+	public ZigbeeFrameDecoder() {
+		this(DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Constructor. Creates a new instance of the ZigbeeFrameDecoder class.
+	 * @param capacity the initial size of the ring buffer. It is rounded up
+	 * to a power of two, and grows when a frame doesn't fit.
+	 */
+	public ZigbeeFrameDecoder(int capacity) {
+		allocate(capacity);
+	}
+
+	private void allocate(int capacity) {
+		int size = 64;
+		while (size < capacity)
+			size <<= 1;
+		ring = ByteBuffer.allocateDirect(size);
+		window = ring.duplicate();
+		mask = size - 1;
+	}
+
+	/**
+	 * Reads the data that is available from a channel into the ring buffer.
+	 * This invalidates the view returned by the last call of {@link #next(ZigbeeFrameView)}.
+	 * @param channel the channel to read from.
+	 * @return the number of bytes read, or -1 when the channel has reached
+	 * the end of the stream.
+	 * @throws IOException when reading fails.
+	 */
+	public int readFrom(ReadableByteChannel channel) throws IOException {
+		release();
+		int free = ring.capacity() - (int) (writePosition - readPosition);
+		if (free == 0) {
+			grow(ring.capacity() * 2);
+			free = ring.capacity() - (int) (writePosition - readPosition);
+		}
+
+		// Only the free space up to the end of the ring can be read in one go.
+		int start = (int) (writePosition & mask);
+		window.clear();
+		window.position(start);
+		window.limit(start + Math.min(free, ring.capacity() - start));
+
+		int read = channel.read(window);
+		if (read > 0)
+			writePosition += read;
+		return read;
+	}
+
+	/**
+	 * Points a view at the next complete frame in the buffer. The view is
+	 * valid until the next call of this method or {@link #readFrom(ReadableByteChannel)}.
+	 * @param view the view to point at the frame.
+	 * @return true if there was a complete frame, false if more data
+	 * has to be read first.
+	 * @throws IOException when a frame without callback ID is received.
+	 */
+	public boolean next(ZigbeeFrameView view) throws IOException {
+		release();
+		if (available() < LENGTH_FIELD_SIZE)
+			return false;
+
+		int length = byteAt(readPosition) | (byteAt(readPosition + 1) << 8);
+		if (length == 0)
+			throw new IOException("Received frame without callback ID");
+
+		if (length + LENGTH_FIELD_SIZE > ring.capacity()) {
+			grow(length + LENGTH_FIELD_SIZE);
+			return false;
+		}
+		if (available() < length + LENGTH_FIELD_SIZE)
+			return false;
+
+		view.wrap(ring, mask, readPosition + LENGTH_FIELD_SIZE, length);
+		frameEnd = readPosition + LENGTH_FIELD_SIZE + length;
+		return true;
+	}
+
+	/**
+	 * Returns the number of bytes in the buffer that have not been decoded yet.
+	 * The frame returned last is not counted, even though its space is only
+	 * freed by the next call.
+	 * @return the number of bytes.
+	 */
+	public int available() {
+		return (int) (writePosition - Math.max(readPosition, frameEnd));
+	}
+
+	/**
+	 * Discards the data in the buffer, e.g. after reconnecting.
+	 */
+	public void reset() {
+		readPosition = 0;
+		writePosition = 0;
+		frameEnd = 0;
+	}
+
+	/**
+	 * Frees the space of the frame that was returned last.
+	 */
+	private void release() {
+		if (frameEnd > readPosition)
+			readPosition = frameEnd;
+	}
+
+	private int byteAt(long position) {
+		return ring.get((int) (position & mask)) & 0xFF;
+	}
+
+	/**
+	 * Moves the data that has not been decoded yet into a larger ring buffer.
+	 */
+	private void grow(int capacity) {
+		ByteBuffer old = ring;
+		int oldMask = mask;
+		int length = available();
+		allocate(capacity);
+		for (int i = 0; i < length; i++) {
+			ring.put(i, old.get((int) ((readPosition + i) & oldMask)));
+		}
+		readPosition = 0;
+		frameEnd = 0;
+		writePosition = length;
+	}
+}
@@ -0,0 +1,145 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.zigbee.internal.protocol;
+
+import java.nio.ByteBuffer;
+
+import org.openhab.binding.zigbee.internal.protocol.SocketMessage.SocketMessageClass;
+import org.openhab.binding.zigbee.internal.protocol.SocketMessage.SocketMessageType;
+
+/**
+ * Read only view of a frame received from the Zigbee gateway. The view
+ * doesn't hold a copy of the frame, it reads the bytes from the buffer
+ * of the {@link ZigbeeFrameDecoder} and is reused for every frame. The
+ * message class and node of a frame are those of the request it is a
+ * response to. A frame that has to be kept after it is processed is
+ * copied with {@link #toSocketMessage()}.
+ * @author Brian Crosby
+ * @since 1.5.0
+ */
+public class ZigbeeFrameView {
+
+	private ByteBuffer buffer;
+	private int mask;
+	private long start;
+	private int length;
+	private SocketMessage request;
+
+	/**
+	 * Points the view at a frame. Called by the decoder.
+	 * @param buffer the ring buffer holding the frame.
+	 * @param mask the mask to wrap positions in the ring buffer.
+	 * @param start the position of the callback ID.
+	 * @param length the length of the frame, callback ID included.
+	 */
+	void wrap(ByteBuffer buffer, int mask, long start, int length) {
+		this.buffer = buffer;
+		this.mask = mask;
+		this.start = start;
+		this.length = length;
+		this.request = null;
+	}
+
+	/**
+	 * Sets the request this frame is a response to.
+	 * @param request the request.
+	 */
+	public void setRequest(SocketMessage request) {
+		this.request = request;
+	}
+
+	/**
+	 * Gets the request this frame is a response to.
+	 * @return the request, or null if it isn't known.
+	 */
+	public SocketMessage getRequest() {
+		return request;
+	}
+
+	/**
+	 * Gets the callback ID of the frame.
+	 * @return the callback ID.
+	 */
+	public int getCallbackId() {
+		return buffer.get((int) (start & mask)) & 0xFF;
+	}
+
+	/**
+	 * Gets the message type. Frames from the gateway are always responses.
+	 * @return the message type.
+	 */
+	public SocketMessageType getMessageType() {
+		return SocketMessageType.Response;
+	}
+
+	/**
+	 * Gets the message class of the request the frame is a response to.
+	 * @return the message class, or null if the request isn't known.
+	 */
+	public SocketMessageClass getMessageClass() {
+		return request == null ? null : request.getMessageClass();
+	}
+
+	/**
+	 * Gets the node of the request the frame is a response to.
+	 * @return the node ID, or 255 if the request isn't known.
+	 */
+	public long getMessageNode() {
+		return request == null ? 255 : request.getMessageNode();
+	}
+
+	/**
+	 * Gets the length of the payload.
+	 * @return the number of payload bytes.
+	 */
+	public int getPayloadLength() {
+		return length - 1;
+	}
+
+	/**
+	 * Gets a byte of the payload.
+	 * @param index the index of the byte in the payload.
+	 * @return the byte as an unsigned value.
+	 */
+	public int getPayloadByte(int index) {
+		if (index < 0 || index >= length - 1)
+			throw new IndexOutOfBoundsException("Payload index " + index + ", length " + (length - 1));
+		return buffer.get((int) ((start + 1 + index) & mask)) & 0xFF;
+	}
+
+	/**
+	 * Copies the payload.
+	 * @return a copy of the payload.
+	 */
+	public byte[] getPayload() {
+		byte[] payload = new byte[length - 1];
+		for (int i = 0; i < payload.length; i++) {
+			payload[i] = buffer.get((int) ((start + 1 + i) & mask));
+		}
+		return payload;
+	}
+
+	/**
+	 * Copies the frame into a SocketMessage that can be kept after
+	 * the view has moved on.
+	 * @return the message.
+	 */
+	public SocketMessage toSocketMessage() {
+		return new SocketMessage((int) getMessageNode(), getPayload());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return String.format("Frame: callback ID = %d, class = %s, payload length = %d",
+				getCallbackId(), getMessageClass(), getPayloadLength());
+	}
+}
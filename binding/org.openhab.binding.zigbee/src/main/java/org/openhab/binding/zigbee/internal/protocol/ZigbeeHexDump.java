@@ -0,0 +1,75 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.zigbee.internal.protocol;
+
+/**
+ * Hexadecimal representation of a byte array for logging. The bytes
+ * are only formatted when {@link #toString()} is called, which the logger
+ * only does when the message is actually logged:
+ * <code>logger.trace("Payload = {}", ZigbeeHexDump.of(payload))</code>.
+ * Formatting uses a lookup table and a per thread builder instead of
+ * String.format for every byte.
+ * @author Brian Crosby
+ * @since 1.5.0
+ */
+public final class ZigbeeHexDump {
+
+	private static final char[] HEX_DIGITS = "0123456789ABCDEF".toCharArray();
+
+	private static final ThreadLocal<StringBuilder> builders = new ThreadLocal<StringBuilder>() {
+		@Override
+		protected StringBuilder initialValue() {
+			return new StringBuilder(256);
+		}
+	};
+
+	private final byte[] bytes;
+
+	private ZigbeeHexDump(byte[] bytes) {
+		this.bytes = bytes;
+	}
+
+	/**
+	 * Wraps a byte array. The array is not copied, so it must not
+	 * change before the message is logged.
+	 * @param bytes the bytes to format.
+	 * @return the hex dump.
+	 */
+	public static ZigbeeHexDump of(byte[] bytes) {
+		return new ZigbeeHexDump(bytes);
+	}
+
+	/**
+	 * Formats a byte array as hexadecimal bytes separated by spaces,
+	 * e.g. <code>01 0A FF </code>.
+	 * @param bytes the bytes to format.
+	 * @return the string representation.
+	 */
+	public static String toHex(byte[] bytes) {
+		if (bytes == null)
+			return "null";
+
+		StringBuilder builder = builders.get();
+		builder.setLength(0);
+		for (byte b : bytes) {
+			builder.append(HEX_DIGITS[(b >> 4) & 0x0F]);
+			builder.append(HEX_DIGITS[b & 0x0F]);
+			builder.append(' ');
+		}
+		return builder.toString();
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	@Override
+	public String toString() {
+		return toHex(bytes);
+	}
+}
@@ -296,6 +296,14 @@ public class ZigbeeNode {
 		return lastUpdated;
 	}
 
+	/**
+	 * Set the date/time the node was last updated, e.g. when it is restored.
+	 * @param lastUpdated the lastUpdated to set
+	 */
+	public void setLastUpdated(Date lastUpdated) {
+		this.lastUpdated = lastUpdated;
+	}
+
 	/**
 	 * Gets the node stage.
 	 * @return the nodeStage
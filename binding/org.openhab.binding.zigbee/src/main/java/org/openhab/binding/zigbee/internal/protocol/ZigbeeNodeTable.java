@@ -0,0 +1,196 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.zigbee.internal.protocol;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Table of the nodes of the controller, keyed by node ID. The table is an
+ * open addressing hash table on primitive longs, so lookups don't box the
+ * node ID. It is copy-on-write: every change publishes a new immutable
+ * table through a volatile field, so the send thread, the network monitor
+ * and the configuration code can read it without locking and always see
+ * fully built nodes. Changes are rare (a node joins or leaves), lookups
+ * happen for every message.
+ * @author Brian Crosby
+ * @since 1.5.0
+ */
+public class ZigbeeNodeTable {
+
+	private static final Table EMPTY = new Table(new long[2], new ZigbeeNode[2], 0);
+
+	private volatile Table table = EMPTY;
+
+	/**
+	 * Returns a node.
+	 * @param nodeId the ID of the node.
+	 * @return the node, or null if the node is not in the table.
+	 */
+	public ZigbeeNode get(long nodeId) {
+		return table.get(nodeId);
+	}
+
+	/**
+	 * Adds a node, replacing the node with the same ID if there is one.
+	 * @param nodeId the ID of the node.
+	 * @param node the node.
+	 * @return the node that was replaced, or null.
+	 */
+	public synchronized ZigbeeNode put(long nodeId, ZigbeeNode node) {
+		if (node == null)
+			throw new IllegalArgumentException("node");
+
+		Table current = table;
+		ZigbeeNode previous = current.get(nodeId);
+		int size = previous == null ? current.size + 1 : current.size;
+
+		Table updated = Table.create(size);
+		for (int i = 0; i < current.values.length; i++) {
+			if (current.values[i] != null && current.keys[i] != nodeId)
+				updated.insert(current.keys[i], current.values[i]);
+		}
+		updated.insert(nodeId, node);
+		table = updated;
+		return previous;
+	}
+
+	/**
+	 * Removes a node.
+	 * @param nodeId the ID of the node.
+	 * @return the node that was removed, or null if the node was not in the table.
+	 */
+	public synchronized ZigbeeNode remove(long nodeId) {
+		Table current = table;
+		ZigbeeNode previous = current.get(nodeId);
+		if (previous == null)
+			return null;
+
+		Table updated = Table.create(current.size - 1);
+		for (int i = 0; i < current.values.length; i++) {
+			if (current.values[i] != null && current.keys[i] != nodeId)
+				updated.insert(current.keys[i], current.values[i]);
+		}
+		table = updated;
+		return previous;
+	}
+
+	/**
+	 * Removes all nodes.
+	 */
+	public synchronized void clear() {
+		table = EMPTY;
+	}
+
+	/**
+	 * Returns the number of nodes.
+	 * @return the number of nodes.
+	 */
+	public int size() {
+		return table.size;
+	}
+
+	/**
+	 * Returns whether the table is empty.
+	 * @return true if there are no nodes.
+	 */
+	public boolean isEmpty() {
+		return table.size == 0;
+	}
+
+	/**
+	 * Returns the nodes in the table. The list is a snapshot; nodes
+	 * added or removed later are not reflected in it, so it can be
+	 * iterated while the table changes.
+	 * @return the nodes.
+	 */
+	public List<ZigbeeNode> snapshot() {
+		Table current = table;
+		return new Snapshot(current.values, current.size);
+	}
+
+	/**
+	 * Immutable open addressing table with linear probing. A slot is
+	 * empty when its value is null. The capacity is a power of two and
+	 * at least twice the number of nodes.
+	 */
+	private static final class Table {
+		private final long[] keys;
+		private final ZigbeeNode[] values;
+		private final int size;
+		private final int mask;
+
+		private Table(long[] keys, ZigbeeNode[] values, int size) {
+			this.keys = keys;
+			this.values = values;
+			this.size = size;
+			this.mask = keys.length - 1;
+		}
+
+		private static Table create(int size) {
+			int capacity = 2;
+			while (capacity < size * 2)
+				capacity <<= 1;
+			return new Table(new long[capacity], new ZigbeeNode[capacity], size);
+		}
+
+		private static int slot(long key, int mask) {
+			long hash = key * 0x9E3779B97F4A7C15L;
+			return (int)(hash ^ (hash >>> 32)) & mask;
+		}
+
+		private ZigbeeNode get(long key) {
+			for (int i = slot(key, mask); ; i = (i + 1) & mask) {
+				ZigbeeNode value = values[i];
+				if (value == null)
+					return null;
+				if (keys[i] == key)
+					return value;
+			}
+		}
+
+		/**
+		 * Only used while building a new table, before it is published.
+		 */
+		private void insert(long key, ZigbeeNode value) {
+			int i = slot(key, mask);
+			while (values[i] != null)
+				i = (i + 1) & mask;
+			keys[i] = key;
+			values[i] = value;
+		}
+	}
+
+	/**
+	 * Read only view of the nodes of a table.
+	 */
+	private static final class Snapshot extends AbstractList<ZigbeeNode> implements RandomAccess {
+		private final ZigbeeNode[] nodes;
+
+		private Snapshot(ZigbeeNode[] values, int size) {
+			nodes = new ZigbeeNode[size];
+			int n = 0;
+			for (ZigbeeNode value : values) {
+				if (value != null)
+					nodes[n++] = value;
+			}
+		}
+
+		@Override
+		public ZigbeeNode get(int index) {
+			return nodes[index];
+		}
+
+		@Override
+		public int size() {
+			return nodes.length;
+		}
+	}
+}
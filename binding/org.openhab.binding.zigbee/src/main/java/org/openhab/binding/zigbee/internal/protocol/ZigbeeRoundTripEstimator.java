@@ -0,0 +1,185 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.zigbee.internal.protocol;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Estimates the round trip time of the requests to every node, and derives
+ * the response timeout of the node from it the way TCP does (RFC 6298): the
+ * timeout is the smoothed round trip time plus four times its variation.
+ * Routers that answer quickly get a short timeout, so a lost request is
+ * retried soon, distant or slow end devices get the time they need. Each
+ * timeout doubles the timeout of the node until a response is received
+ * again. Nodes that have not answered yet use the configured timeout.
+ *
+ * The last round trip times of every node are kept to report percentiles.
+ * @author Brian Crosby
+ * @since 1.5.0
+ */
+public class ZigbeeRoundTripEstimator {
+
+	/**
+	 * The shortest timeout that is used for a node.
+	 */
+	public static final long MIN_TIMEOUT = 250;
+
+	/**
+	 * The longest timeout that is used for a node, backoff included.
+	 */
+	public static final long MAX_TIMEOUT = 30000;
+
+	/**
+	 * The number of round trip times kept per node for the percentiles.
+	 */
+	public static final int SAMPLE_COUNT = 64;
+
+	private static final int MAX_BACKOFF = 6;
+
+	private final ConcurrentMap<Long, NodeEstimate> estimates = new ConcurrentHashMap<Long, NodeEstimate>();
+	private final long initialTimeout;
+
+	/**
+	 * Constructor. Creates a new instance of the ZigbeeRoundTripEstimator class.
+	 * @param initialTimeout the timeout in milliseconds for nodes without round trip times.
+	 */
+	public ZigbeeRoundTripEstimator(long initialTimeout) {
+		this.initialTimeout = initialTimeout;
+	}
+
+	/**
+	 * Returns the time to wait for the response to a request to a node.
+	 * @param nodeId the ID of the node.
+	 * @return the timeout in milliseconds.
+	 */
+	public long getTimeout(long nodeId) {
+		NodeEstimate estimate = estimates.get(nodeId);
+		return estimate == null ? initialTimeout : estimate.getTimeout();
+	}
+
+	/**
+	 * Records the round trip time of a request that was answered.
+	 * @param nodeId the ID of the node.
+	 * @param roundTripTime the time in milliseconds between sending the
+	 * request and receiving the response.
+	 */
+	public void recordResponse(long nodeId, long roundTripTime) {
+		getEstimate(nodeId).addSample(roundTripTime);
+	}
+
+	/**
+	 * Records that a request to a node was not answered in time.
+	 * Doubles the timeout of the node.
+	 * @param nodeId the ID of the node.
+	 */
+	public void recordTimeout(long nodeId) {
+		getEstimate(nodeId).backOff();
+	}
+
+	/**
+	 * Returns the smoothed round trip time of a node.
+	 * @param nodeId the ID of the node.
+	 * @return the round trip time in milliseconds, or -1 if the node has not answered yet.
+	 */
+	public long getSmoothedRoundTripTime(long nodeId) {
+		NodeEstimate estimate = estimates.get(nodeId);
+		return estimate == null ? -1 : estimate.getSmoothedRoundTripTime();
+	}
+
+	/**
+	 * Returns a percentile of the last round trip times of a node.
+	 * @param nodeId the ID of the node.
+	 * @param percentile the percentile, between 0 and 100.
+	 * @return the round trip time in milliseconds, or -1 if the node has not answered yet.
+	 */
+	public long getRoundTripTimePercentile(long nodeId, double percentile) {
+		if (percentile < 0 || percentile > 100)
+			throw new IllegalArgumentException("percentile");
+
+		NodeEstimate estimate = estimates.get(nodeId);
+		return estimate == null ? -1 : estimate.getPercentile(percentile);
+	}
+
+	/**
+	 * Forgets the round trip times of a node, e.g. when it has left the network.
+	 * @param nodeId the ID of the node.
+	 */
+	public void remove(long nodeId) {
+		estimates.remove(nodeId);
+	}
+
+	private NodeEstimate getEstimate(long nodeId) {
+		NodeEstimate estimate = estimates.get(nodeId);
+		if (estimate == null) {
+			estimate = new NodeEstimate();
+			NodeEstimate existing = estimates.putIfAbsent(nodeId, estimate);
+			if (existing != null)
+				estimate = existing;
+		}
+		return estimate;
+	}
+
+	/**
+	 * Round trip estimate of a single node.
+	 */
+	private class NodeEstimate {
+		private long smoothedRtt = -1;
+		private long rttVariation = 0;
+		private int backoff = 0;
+
+		private final long[] samples = new long[SAMPLE_COUNT];
+		private int sampleCount = 0;
+		private int nextSample = 0;
+
+		private synchronized void addSample(long rtt) {
+			if (smoothedRtt < 0) {
+				smoothedRtt = rtt;
+				rttVariation = rtt / 2;
+			} else {
+				rttVariation = (3 * rttVariation + Math.abs(smoothedRtt - rtt)) / 4;
+				smoothedRtt = (7 * smoothedRtt + rtt) / 8;
+			}
+			backoff = 0;
+
+			samples[nextSample] = rtt;
+			nextSample = (nextSample + 1) % SAMPLE_COUNT;
+			if (sampleCount < SAMPLE_COUNT)
+				sampleCount++;
+		}
+
+		private synchronized void backOff() {
+			if (backoff < MAX_BACKOFF)
+				backoff++;
+		}
+
+		private synchronized long getTimeout() {
+			long timeout = smoothedRtt < 0 ? initialTimeout : smoothedRtt + 4 * rttVariation;
+			timeout = Math.max(timeout, MIN_TIMEOUT) << backoff;
+			return Math.min(timeout, MAX_TIMEOUT);
+		}
+
+		private synchronized long getSmoothedRoundTripTime() {
+			return smoothedRtt;
+		}
+
+		private long getPercentile(double percentile) {
+			long[] sorted;
+			synchronized (this) {
+				if (sampleCount == 0)
+					return -1;
+				sorted = Arrays.copyOf(samples, sampleCount);
+			}
+			Arrays.sort(sorted);
+			int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+			return sorted[Math.max(index, 0)];
+		}
+	}
+}
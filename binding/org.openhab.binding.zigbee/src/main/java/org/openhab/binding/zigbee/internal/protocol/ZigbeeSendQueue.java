@@ -0,0 +1,167 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.zigbee.internal.protocol;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.openhab.binding.zigbee.internal.protocol.SocketMessage.SocketMessageClass;
+
+/**
+ * Send queue of the Zigbee controller. Every node gets its own queue in
+ * which messages are ordered by {@link SocketMessage.SocketMessagePriority}.
+ * Nodes with pending messages are served round-robin, one message per turn,
+ * so a node with many queued messages cannot starve the other nodes.
+ * Messages for nodes that are not listening are only sent when no
+ * listening node has a message waiting.
+ * @author Brian Crosby
+ * @since 1.5.0
+ */
+public class ZigbeeSendQueue {
+
+	private final ZigbeeController controller;
+	private final SocketMessage.SocketMessageComparator comparator = new SocketMessage.SocketMessageComparator();
+
+	private final Map<Long, PriorityQueue<SocketMessage>> nodeQueues = new HashMap<Long, PriorityQueue<SocketMessage>>();
+	private final ArrayDeque<Long> listeningNodes = new ArrayDeque<Long>();
+	private final ArrayDeque<Long> sleepingNodes = new ArrayDeque<Long>();
+	private int size = 0;
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition notEmpty = lock.newCondition();
+
+	/**
+	 * Constructor. Creates a new instance of the ZigbeeSendQueue class.
+	 * @param controller the controller used to look up whether a node is listening,
+	 * or null to treat all nodes as listening.
+	 */
+	public ZigbeeSendQueue(ZigbeeController controller) {
+		this.controller = controller;
+	}
+
+	/**
+	 * Adds a message to the queue of the node it is destined for.
+	 * @param message the message to add.
+	 */
+	public void add(SocketMessage message) {
+		Long nodeId = message.getMessageNode();
+		lock.lock();
+		try {
+			PriorityQueue<SocketMessage> queue = nodeQueues.get(nodeId);
+			if (queue == null) {
+				queue = new PriorityQueue<SocketMessage>(11, comparator);
+				nodeQueues.put(nodeId, queue);
+				schedule(nodeId, message);
+			}
+			queue.add(message);
+			size++;
+			notEmpty.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Takes the next message from the queue, waiting up to the
+	 * specified time for a message to become available.
+	 * @param timeout how long to wait.
+	 * @param unit the unit of the timeout.
+	 * @return the next message, or null when the timeout expired.
+	 * @throws InterruptedException when interrupted while waiting.
+	 */
+	public SocketMessage poll(long timeout, TimeUnit unit) throws InterruptedException {
+		long nanos = unit.toNanos(timeout);
+		lock.lockInterruptibly();
+		try {
+			while (size == 0) {
+				if (nanos <= 0)
+					return null;
+				nanos = notEmpty.awaitNanos(nanos);
+			}
+
+			Long nodeId = listeningNodes.isEmpty() ? sleepingNodes.poll() : listeningNodes.poll();
+			PriorityQueue<SocketMessage> queue = nodeQueues.get(nodeId);
+			SocketMessage message = queue.poll();
+			size--;
+
+			// Give the node another turn at the back of the line if it has more to send.
+			if (queue.isEmpty())
+				nodeQueues.remove(nodeId);
+			else
+				schedule(nodeId, queue.peek());
+
+			return message;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of messages in the queue.
+	 * @return the number of messages.
+	 */
+	public int size() {
+		lock.lock();
+		try {
+			return size;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Removes all messages from the queue.
+	 */
+	public void clear() {
+		lock.lock();
+		try {
+			nodeQueues.clear();
+			listeningNodes.clear();
+			sleepingNodes.clear();
+			size = 0;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Puts a node at the back of the round-robin line that matches
+	 * the listening state of the node.
+	 * @param nodeId the node to schedule.
+	 * @param message the next message for the node.
+	 */
+	private void schedule(Long nodeId, SocketMessage message) {
+		if (isListening(message))
+			listeningNodes.add(nodeId);
+		else
+			sleepingNodes.add(nodeId);
+	}
+
+	/**
+	 * Checks whether a message can be sent to its node right away.
+	 * @param message the message to check.
+	 * @return false when the message is destined for a node that is not listening.
+	 */
+	private boolean isListening(SocketMessage message) {
+		if (message.getMessageClass() != SocketMessageClass.RequestNodeInfo &&
+				message.getMessageClass() != SocketMessageClass.SendData)
+			return true;
+
+		if (controller == null)
+			return true;
+
+		ZigbeeNode node = controller.getNode(message.getMessageNode());
+		return node == null || node.isListening() || node.isFrequentlyListening();
+	}
+}
@@ -8,10 +8,9 @@
  */
 package org.openhab.binding.zigbee.internal.protocol.commandclass;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -42,6 +41,47 @@ public abstract class ZigbeeCommandClass {
 	private static final int PRECISION_MASK = 0xe0;
 	private static final int PRECISION_SHIFT = 0x05;
 	
+	private static final Map<CommandClass, Factory> factories = new EnumMap<CommandClass, Factory>(CommandClass.class);
+	
+	static {
+		factories.put(CommandClass.NO_OPERATION, new Factory() {
+			@Override
+			public ZigbeeCommandClass create(ZigbeeNode node, ZigbeeController controller, ZigbeeEndpoint endpoint) {
+				return new ZigbeeNoOperationCommandClass(node, controller, endpoint);
+			}
+		});
+		factories.put(CommandClass.BASIC, new Factory() {
+			@Override
+			public ZigbeeCommandClass create(ZigbeeNode node, ZigbeeController controller, ZigbeeEndpoint endpoint) {
+				return new ZigbeeBasicCommandClass(node, controller, endpoint);
+			}
+		});
+		factories.put(CommandClass.SWITCH_BINARY, new Factory() {
+			@Override
+			public ZigbeeCommandClass create(ZigbeeNode node, ZigbeeController controller, ZigbeeEndpoint endpoint) {
+				return new ZigbeeBinarySwitchCommandClass(node, controller, endpoint);
+			}
+		});
+		factories.put(CommandClass.SCENE_ACTIVATION, new Factory() {
+			@Override
+			public ZigbeeCommandClass create(ZigbeeNode node, ZigbeeController controller, ZigbeeEndpoint endpoint) {
+				return new ZigbeeSceneActivationCommandClass(node, controller, endpoint);
+			}
+		});
+		factories.put(CommandClass.MULTI_INSTANCE, new Factory() {
+			@Override
+			public ZigbeeCommandClass create(ZigbeeNode node, ZigbeeController controller, ZigbeeEndpoint endpoint) {
+				return new ZigbeeMultiInstanceCommandClass(node, controller, endpoint);
+			}
+		});
+		factories.put(CommandClass.HAIL, new Factory() {
+			@Override
+			public ZigbeeCommandClass create(ZigbeeNode node, ZigbeeController controller, ZigbeeEndpoint endpoint) {
+				return new ZigbeeHailCommandClass(node, controller, endpoint);
+			}
+		});
+	}
+	
 	@XStreamOmitField
 	private ZigbeeNode node;
 	@XStreamOmitField
@@ -191,31 +231,37 @@ public abstract class ZigbeeCommandClass {
 	 * @return the ZigbeeCommandClass instance that was instantiated, null otherwise 
 	 */
 	public static ZigbeeCommandClass getInstance(int i, ZigbeeNode node, ZigbeeController controller, ZigbeeEndpoint endpoint) {
-		logger.debug(String.format("Creating new instance of command class 0x%02X", i));
-		try {
-			CommandClass commandClass = CommandClass.getCommandClass(i);
-			if (commandClass == null) {
-				logger.warn(String.format("Unsupported command class 0x%02x", i));
-				return null;
-			}
-			Class<? extends ZigbeeCommandClass> commandClassClass = commandClass.getCommandClassClass();
-			
-			if (commandClassClass == null) {
-				logger.warn(String.format("Unsupported command class %s (0x%02x)", commandClass.getLabel(), i, endpoint));
-				return null;
-			}
-				
-			Constructor<? extends ZigbeeCommandClass> constructor = commandClassClass.getConstructor(ZigbeeNode.class, ZigbeeController.class, ZigbeeEndpoint.class);
-			return constructor.newInstance(new Object[] {node, controller, endpoint});
-		} catch (InstantiationException e) {
-		} catch (IllegalAccessException e) {
-		} catch (IllegalArgumentException e) {
-		} catch (InvocationTargetException e) {
-		} catch (NoSuchMethodException e) {
-		} catch (SecurityException e) {
+		if (logger.isDebugEnabled())
+			logger.debug(String.format("Creating new instance of command class 0x%02X", i));
+		CommandClass commandClass = CommandClass.getCommandClass(i);
+		if (commandClass == null) {
+			logger.warn(String.format("Unsupported command class 0x%02x", i));
+			return null;
+		}
+		Factory factory = factories.get(commandClass);
+		
+		if (factory == null) {
+			logger.warn(String.format("Unsupported command class %s (0x%02x)", commandClass.getLabel(), i));
+			return null;
 		}
-		logger.error(String.format("Error instantiating command class 0x%02x", i));
-		return null;
+			
+		return factory.create(node, controller, endpoint);
+	}
+	
+	/**
+	 * Creates the instances of a command class. Every implemented command
+	 * class has a factory that calls its constructor, so creating a command
+	 * class, e.g. for every node that is loaded, needs no reflection.
+	 */
+	public interface Factory {
+		/**
+		 * Creates a command class instance.
+		 * @param node the node this instance commands.
+		 * @param controller the controller to send messages to.
+		 * @param endpoint the endpoint this Command class belongs to
+		 * @return the command class instance.
+		 */
+		ZigbeeCommandClass create(ZigbeeNode node, ZigbeeController controller, ZigbeeEndpoint endpoint);
 	}
 	
 	/**
@@ -331,6 +377,8 @@ public abstract class ZigbeeCommandClass {
 	/**
 	 * Command class enumeration. Lists all command classes available.
 	 * Unsupported command classes by the binding return null for the command class Class.
+	 * The command classes that are implemented are created by the factories of
+	 * {@link ZigbeeCommandClass}, a new implementation needs a factory there too.
 	 * Taken from: http://wiki.micasaverde.com/index.php/Zigbee_Command_Classes
 	 * @author Jan-Willem Spuij
 	 * @since 1.3.0
@@ -426,13 +474,20 @@ public abstract class ZigbeeCommandClass {
 		 * A mapping between the integer code and its corresponding
 		 * Command class to facilitate lookup by code.
 		 */
-		private static Map<Integer, CommandClass> codeToCommandClassMapping;
+		private static final Map<Integer, CommandClass> codeToCommandClassMapping = new HashMap<Integer, CommandClass>();
 
 		/**
 		 * A mapping between the string label and its corresponding
 		 * Command class to facilitate lookup by label.
 		 */
-		private static Map<String, CommandClass> labelToCommandClassMapping;
+		private static final Map<String, CommandClass> labelToCommandClassMapping = new HashMap<String, CommandClass>();
+
+		static {
+			for (CommandClass s : values()) {
+				codeToCommandClassMapping.put(s.key, s);
+				labelToCommandClassMapping.put(s.label.toLowerCase(), s);
+			}
+		}
 
 		private int key;
 		private String label;
@@ -445,15 +500,6 @@ public abstract class ZigbeeCommandClass {
 			this.commandClassClass = commandClassClass;
 		}
 
-		private static void initMapping() {
-			codeToCommandClassMapping = new HashMap<Integer, CommandClass>();
-			labelToCommandClassMapping = new HashMap<String, CommandClass>();
-			for (CommandClass s : values()) {
-				codeToCommandClassMapping.put(s.key, s);
-				labelToCommandClassMapping.put(s.label.toLowerCase(), s);
-			}
-		}
-
 		/**
 		 * Lookup function based on the command class code.
 		 * Returns null if there is no command class with code i
@@ -461,10 +507,6 @@ public abstract class ZigbeeCommandClass {
 		 * @return enumeration value of the command class.
 		 */
 		public static CommandClass getCommandClass(int i) {
-			if (codeToCommandClassMapping == null) {
-				initMapping();
-			}
-			
 			return codeToCommandClassMapping.get(i);
 		}
 		
@@ -475,13 +517,6 @@ public abstract class ZigbeeCommandClass {
 		 * @return enumeration value of the command class.
 		 */
 		public static CommandClass getCommandClass(String label) {
-			if (labelToCommandClassMapping == null) {
-				System.out.println("nulllllllllllllllllllll");
-				initMapping();
-			}
-			System.out.println("getCommandClass!!!!!!!!!!");
-			System.out.println(label.toLowerCase());
-			System.out.println(labelToCommandClassMapping.get(label.toLowerCase()));
 			return labelToCommandClassMapping.get(label.toLowerCase());
 		}
 
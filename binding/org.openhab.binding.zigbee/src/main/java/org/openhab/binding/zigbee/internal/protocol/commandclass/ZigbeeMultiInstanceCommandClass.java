@@ -113,6 +113,30 @@ public class ZigbeeMultiInstanceCommandClass extends ZigbeeCommandClass {
 	public Collection<ZigbeeEndpoint> getEndpoints() {
 		return this.endpoints.values();
 	}
+
+	/**
+	 * Returns whether all endpoints of the node have the same device class.
+	 * @return true if the endpoints are the same.
+	 */
+	public boolean isEndpointsAreTheSameDeviceClass() {
+		return endpointsAreTheSameDeviceClass;
+	}
+
+	/**
+	 * Sets whether all endpoints of the node have the same device class.
+	 * @param endpointsAreTheSameDeviceClass true if the endpoints are the same.
+	 */
+	public void setEndpointsAreTheSameDeviceClass(boolean endpointsAreTheSameDeviceClass) {
+		this.endpointsAreTheSameDeviceClass = endpointsAreTheSameDeviceClass;
+	}
+
+	/**
+	 * Adds an endpoint to this node, e.g. when it is restored from the node store.
+	 * @param endpoint the endpoint to add.
+	 */
+	public void addEndpoint(ZigbeeEndpoint endpoint) {
+		this.endpoints.put(endpoint.getEndpointId(), endpoint);
+	}
 	
 	/**
 	 * {@inheritDoc}
@@ -9,40 +9,67 @@
 package org.openhab.binding.zigbee.internal.protocol.initialization;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
-import java.io.FileOutputStream;
+import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStreamReader;
-import java.io.OutputStreamWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import org.openhab.binding.zigbee.internal.ZigbeeActivator;
+import org.openhab.binding.zigbee.internal.protocol.ZigbeeController;
 import org.openhab.binding.zigbee.internal.protocol.ZigbeeDeviceClass;
+import org.openhab.binding.zigbee.internal.protocol.ZigbeeDeviceClass.Basic;
+import org.openhab.binding.zigbee.internal.protocol.ZigbeeDeviceClass.Generic;
+import org.openhab.binding.zigbee.internal.protocol.ZigbeeDeviceClass.Specific;
 import org.openhab.binding.zigbee.internal.protocol.ZigbeeEndpoint;
 import org.openhab.binding.zigbee.internal.protocol.ZigbeeNode;
+import org.openhab.binding.zigbee.internal.protocol.NodeStage;
 import org.openhab.binding.zigbee.internal.protocol.commandclass.ZigbeeCommandClass;
 import org.openhab.binding.zigbee.internal.protocol.commandclass.ZigbeeCommandClass.CommandClass;
+import org.openhab.binding.zigbee.internal.protocol.commandclass.ZigbeeMultiInstanceCommandClass;
 //import org.openhab.binding.zigbee.internal.protocol.commandclass.ZigbeeMeterCommandClass.MeterScale;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.thoughtworks.xstream.XStream;
-import com.thoughtworks.xstream.io.xml.PrettyPrintWriter;
 import com.thoughtworks.xstream.io.xml.StaxDriver;
 
 /**
- * ZigbeeNodeSerializer class. Serializes nodes to XML and back again.
- * 
+ * ZigbeeNodeSerializer class. Serializes nodes to a compact binary snapshot
+ * and back again. The snapshots of all nodes are kept in a single
+ * {@link ZigbeeNodeStore}; the XML files written by earlier versions are
+ * imported once, when the store is created.
+ *
  * @author Jan-Willem Spuij
+ * @author Chris Jackson
  * @since 1.4.0
  */
 public class ZigbeeNodeSerializer {
 
 	private static final Logger logger = LoggerFactory.getLogger(ZigbeeNodeSerializer.class);
 	private static final String FOLDER_NAME = "etc/zigbee";
-	private final XStream stream = new XStream(new StaxDriver());
-	private final String versionedFolderName;
+	private static final String STORE_NAME = "nodes.bin";
+	private static final Pattern XML_FILE_PATTERN = Pattern.compile("node(\\d+)\\.xml");
+
+	/**
+	 * Version of the snapshot format. Increment when the layout written
+	 * by {@link #writeNode} changes; stores with another version are
+	 * discarded and the nodes are interviewed again.
+	 */
+	private static final int SCHEMA_VERSION = 2;
+
+	private static ZigbeeNodeStore store;
 
 	/**
 	 * Constructor. Creates a new instance of the {@link ZigbeeNodeSerializer}
@@ -50,89 +77,331 @@ public class ZigbeeNodeSerializer {
 	 */
 	public ZigbeeNodeSerializer() {
 		logger.trace("Initializing ZigbeeNodeSerializer.");
-		this.versionedFolderName = String.format("%s/%d.%d/", FOLDER_NAME, 
-				ZigbeeActivator.getVersion().getMajor(), ZigbeeActivator.getVersion().getMinor());
-
-		File folder = new File(versionedFolderName);
-		// create path for serialization.
-		if (!folder.exists()) {
-			logger.debug("Creating directory {}", versionedFolderName);
-			folder.mkdirs();
-		}
-		stream.processAnnotations(ZigbeeNode.class);
-		stream.processAnnotations(ZigbeeEndpoint.class);
-		stream.processAnnotations(ZigbeeDeviceClass.class);
-		stream.processAnnotations(ZigbeeCommandClass.class);
-		stream.processAnnotations(CommandClass.class);
-		for (CommandClass commandClass : CommandClass.values()) {
-			Class<? extends ZigbeeCommandClass> cc = commandClass.getCommandClassClass();
+	}
 
-			if (cc == null) {
-				continue;
-			}
+	/**
+	 * Returns the node store, opening it on first use. All serializers
+	 * share the same store, so the file is read only once. The folder of
+	 * the store depends on the bundle version, it is only looked up here
+	 * so that serializers, and the nodes that hold one, can be created
+	 * before the bundle is started.
+	 * @return the node store.
+	 */
+	private ZigbeeNodeStore getStore() {
+		synchronized (ZigbeeNodeSerializer.class) {
+			if (store == null) {
+				String versionedFolderName = String.format("%s/%d.%d/", FOLDER_NAME,
+						ZigbeeActivator.getVersion().getMajor(), ZigbeeActivator.getVersion().getMinor());
 
-			stream.processAnnotations(cc);
-			for (Class<?> inner : cc.getDeclaredClasses()) {
-				stream.processAnnotations(inner);
+				File folder = new File(versionedFolderName);
+				// create path for serialization.
+				if (!folder.exists()) {
+					logger.debug("Creating directory {}", versionedFolderName);
+					folder.mkdirs();
+				}
+
+				store = new ZigbeeNodeStore(new File(folder, STORE_NAME), SCHEMA_VERSION);
+				if (store.isCreated())
+					importXmlFiles(store, folder);
 			}
+			return store;
 		}
-		//stream.processAnnotations(MeterScale.class);
-		logger.trace("Initialized ZigbeeNodeSerializer.");
 	}
 
 	/**
-	 * Serializes an XML tree of a {@link ZigbeeNode}
-	 * 
+	 * Serializes a {@link ZigbeeNode} to the node store
+	 *
 	 * @param node
 	 *            the node to serialize
 	 */
 	public void SerializeNode(ZigbeeNode node) {
-		synchronized (stream) {
-			File file = new File(this.versionedFolderName, String.format("node%d.xml", node.getNodeId()));
-			BufferedWriter writer = null;
-
-			logger.debug("NODE {}: Serializing to file {}", node.getNodeId(), file.getPath());
+		logger.debug("NODE {}: Serializing to node store", node.getNodeId());
 
-			try {
-				writer = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file), "UTF-8"));
-				stream.marshal(node, new PrettyPrintWriter(writer));
-				writer.flush();
-			} catch (IOException e) {
-				logger.error("NODE {}: There was an error writing the node config to a file: {}", node.getNodeId(), e.getMessage());
-			} finally {
-				if (writer != null)
-					try {
-						writer.close();
-					} catch (IOException e) {
-					}
-			}
+		try {
+			getStore().put(node.getNodeId(), toSnapshot(node));
+		} catch (IOException e) {
+			logger.error("NODE {}: There was an error serializing the node: {}", node.getNodeId(), e.getMessage());
 		}
 	}
 
 	/**
-	 * Deserializes an XML tree of a {@link ZigbeeNode}
-	 * 
+	 * Deserializes a {@link ZigbeeNode} from the node store
+	 *
 	 * @param nodeId
 	 *            the number of the node to deserialize
 	 * @return returns the Node or null in case Serialization failed.
 	 */
 	public ZigbeeNode DeserializeNode(long nodeId) {
-		synchronized (stream) {
-			File file = new File(this.versionedFolderName, String.format("node%d.xml", nodeId));
-			BufferedReader reader = null;
+		return DeserializeNode(nodeId, null);
+	}
 
-			logger.debug("NODE {}: Deserializing from file {}", nodeId, file.getPath());
+	/**
+	 * Deserializes a {@link ZigbeeNode} from the node store, attaching
+	 * it and its command classes to a controller
+	 *
+	 * @param nodeId
+	 *            the number of the node to deserialize
+	 * @param controller
+	 *            the controller the node belongs to
+	 * @return returns the Node or null in case Serialization failed.
+	 */
+	public ZigbeeNode DeserializeNode(long nodeId, ZigbeeController controller) {
+		byte[] snapshot = getStore().get(nodeId);
+
+		logger.debug("NODE {}: Deserializing from node store", nodeId);
+
+		if (snapshot == null) {
+			logger.debug("NODE {}: Deserializing failed, node is not in the node store.", nodeId);
+			return null;
+		}
+
+		try {
+			return fromSnapshot(snapshot, nodeId, controller);
+		} catch (IOException e) {
+			logger.error("NODE {}: There was an error reading the node from the node store: {}", nodeId, e.getMessage());
+		} catch (IllegalArgumentException e) {
+			logger.error("NODE {}: The node in the node store is invalid: {}", nodeId, e.getMessage());
+		}
+		return null;
+	}
+
+	/**
+	 * Returns the IDs of all nodes in the node store.
+	 *
+	 * @return the node IDs
+	 */
+	public Set<Long> getNodeIds() {
+		return getStore().getNodeIds();
+	}
 
-			if (!file.exists()) {
-				logger.debug("NODE {}: Deserializing from file {} failed, file does not exist.", nodeId, file.getPath());
+	/**
+	 * Deletes the persistence store for the specified node.
+	 *
+	 * @param nodeId The node ID to remove
+	 * @return true if the node was deleted
+	 */
+	public boolean DeleteNode(long nodeId) {
+		return getStore().remove(nodeId);
+	}
+
+	/**
+	 * Writes a node to a snapshot in the format kept in the node store.
+	 * @param node the node to write.
+	 * @return the snapshot.
+	 * @throws IOException when the node cannot be written.
+	 */
+	public static byte[] toSnapshot(ZigbeeNode node) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+		DataOutputStream output = new DataOutputStream(bytes);
+		writeNode(output, node);
+		output.flush();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Reads a node from a snapshot written by {@link #toSnapshot}.
+	 * @param snapshot the snapshot.
+	 * @param nodeId the ID of the node.
+	 * @param controller the controller the node belongs to, may be null.
+	 * @return the node.
+	 * @throws IOException when the snapshot is cut short.
+	 * @throws IllegalArgumentException when the snapshot holds an unknown device class or node stage.
+	 */
+	public static ZigbeeNode fromSnapshot(byte[] snapshot, long nodeId, ZigbeeController controller) throws IOException {
+		return readNode(new DataInputStream(new ByteArrayInputStream(snapshot)), nodeId, controller);
+	}
+
+	/**
+	 * Writes a node snapshot.
+	 */
+	private static void writeNode(DataOutputStream output, ZigbeeNode node) throws IOException {
+		output.writeInt(node.getVersion());
+		writeString(output, node.getName());
+		writeString(output, node.getLocation());
+		output.writeInt(node.getManufacturer());
+		output.writeInt(node.getDeviceId());
+		output.writeInt(node.getDeviceType());
+		output.writeBoolean(node.isListening());
+		output.writeBoolean(node.isFrequentlyListening());
+		output.writeBoolean(node.isRouting());
+		writeDeviceClass(output, node.getDeviceClass());
+
+		// Nodes read from XML have no neighbor list when none was stored
+		List<Integer> neighbors = node.getNeighbors() != null ? node.getNeighbors() : Collections.<Integer>emptyList();
+		output.writeShort(neighbors.size());
+		for (Integer neighbor : neighbors) {
+			output.writeInt(neighbor);
+		}
+
+		// Command classes that could not be instantiated are kept as null entries
+		List<ZigbeeCommandClass> commandClasses = new ArrayList<ZigbeeCommandClass>(node.getCommandClasses());
+		commandClasses.removeAll(Collections.singleton(null));
+		output.writeShort(commandClasses.size());
+		for (ZigbeeCommandClass commandClass : commandClasses) {
+			writeCommandClass(output, commandClass);
+
+			if (commandClass instanceof ZigbeeMultiInstanceCommandClass) {
+				ZigbeeMultiInstanceCommandClass multiInstance = (ZigbeeMultiInstanceCommandClass)commandClass;
+				output.writeBoolean(multiInstance.isEndpointsAreTheSameDeviceClass());
+				output.writeShort(multiInstance.getEndpoints().size());
+				for (ZigbeeEndpoint endpoint : multiInstance.getEndpoints()) {
+					output.writeInt(endpoint.getEndpointId());
+					writeDeviceClass(output, endpoint.getDeviceClass());
+					output.writeShort(endpoint.getCommandClasses().size());
+					for (ZigbeeCommandClass endpointCommandClass : endpoint.getCommandClasses()) {
+						writeCommandClass(output, endpointCommandClass);
+					}
+				}
+			}
+		}
+
+		writeString(output, node.getNodeStage() != null ? node.getNodeStage().name() : null);
+		writeDate(output, node.getQueryStageTimeStamp());
+		writeDate(output, node.getLastUpdated());
+	}
+
+	/**
+	 * Reads a node snapshot written by {@link #writeNode}.
+	 */
+	private static ZigbeeNode readNode(DataInputStream input, long nodeId, ZigbeeController controller) throws IOException {
+		ZigbeeNode node = new ZigbeeNode(0, nodeId, controller);
+		node.setVersion(input.readInt());
+		node.setName(readString(input));
+		node.setLocation(readString(input));
+		node.setManufacturer(input.readInt());
+		node.setDeviceId(input.readInt());
+		node.setDeviceType(input.readInt());
+		node.setListening(input.readBoolean());
+		node.setFrequentlyListening(input.readBoolean());
+		node.setRouting(input.readBoolean());
+		readDeviceClass(input, node.getDeviceClass());
+
+		for (int i = input.readUnsignedShort(); i > 0; i--) {
+			node.addNeighbor(input.readInt());
+		}
+
+		for (int i = input.readUnsignedShort(); i > 0; i--) {
+			ZigbeeCommandClass commandClass = readCommandClass(input, node, controller, null);
+			if (commandClass instanceof ZigbeeMultiInstanceCommandClass) {
+				((ZigbeeMultiInstanceCommandClass)commandClass).setEndpointsAreTheSameDeviceClass(input.readBoolean());
+				for (int j = input.readUnsignedShort(); j > 0; j--) {
+					ZigbeeEndpoint endpoint = new ZigbeeEndpoint(input.readInt());
+					readDeviceClass(input, endpoint.getDeviceClass());
+					for (int k = input.readUnsignedShort(); k > 0; k--) {
+						ZigbeeCommandClass endpointCommandClass = readCommandClass(input, node, controller, endpoint);
+						if (endpointCommandClass != null)
+							endpoint.addCommandClass(endpointCommandClass);
+					}
+					((ZigbeeMultiInstanceCommandClass)commandClass).addEndpoint(endpoint);
+				}
+			}
+		}
+
+		String nodeStage = readString(input);
+		if (nodeStage != null)
+			node.setNodeStage(NodeStage.valueOf(nodeStage));
+		node.setQueryStageTimeStamp(readDate(input));
+		// Every setter touches the last update time, restore it last.
+		node.setLastUpdated(readDate(input));
+		return node;
+	}
+
+	private static void writeCommandClass(DataOutputStream output, ZigbeeCommandClass commandClass) throws IOException {
+		output.writeShort(commandClass.getCommandClass().getKey());
+		output.writeShort(commandClass.getVersion());
+		output.writeShort(commandClass.getInstances());
+	}
+
+	/**
+	 * Reads a command class and adds it to the node, or to the endpoint
+	 * when one is given. Command classes the node already supports are
+	 * updated in place.
+	 * @return the command class, or null when it is not supported.
+	 */
+	private static ZigbeeCommandClass readCommandClass(DataInputStream input, ZigbeeNode node, ZigbeeController controller,
+			ZigbeeEndpoint endpoint) throws IOException {
+		int key = input.readUnsignedShort();
+		int version = input.readUnsignedShort();
+		int instances = input.readUnsignedShort();
+
+		CommandClass type = CommandClass.getCommandClass(key);
+		ZigbeeCommandClass commandClass = endpoint == null && type != null ? node.getCommandClass(type) : null;
+		if (commandClass == null) {
+			commandClass = ZigbeeCommandClass.getInstance(key, node, controller, endpoint);
+			if (commandClass == null)
 				return null;
+			if (endpoint == null)
+				node.addCommandClass(commandClass);
+		}
+		commandClass.setVersion(version);
+		commandClass.setInstances(instances);
+		return commandClass;
+	}
+
+	private static void writeDeviceClass(DataOutputStream output, ZigbeeDeviceClass deviceClass) throws IOException {
+		output.writeUTF(deviceClass.getBasicDeviceClass().name());
+		output.writeUTF(deviceClass.getGenericDeviceClass().name());
+		output.writeUTF(deviceClass.getSpecificDeviceClass().name());
+	}
+
+	private static void readDeviceClass(DataInputStream input, ZigbeeDeviceClass deviceClass) throws IOException {
+		deviceClass.setBasicDeviceClass(Basic.valueOf(input.readUTF()));
+		deviceClass.setGenericDeviceClass(Generic.valueOf(input.readUTF()));
+		deviceClass.setSpecificDeviceClass(Specific.valueOf(input.readUTF()));
+	}
+
+	private static void writeString(DataOutputStream output, String value) throws IOException {
+		output.writeBoolean(value != null);
+		if (value != null)
+			output.writeUTF(value);
+	}
+
+	private static String readString(DataInputStream input) throws IOException {
+		return input.readBoolean() ? input.readUTF() : null;
+	}
+
+	private static void writeDate(DataOutputStream output, Date value) throws IOException {
+		output.writeBoolean(value != null);
+		if (value != null)
+			output.writeLong(value.getTime());
+	}
+
+	private static Date readDate(DataInputStream input) throws IOException {
+		return input.readBoolean() ? new Date(input.readLong()) : null;
+	}
+
+	/**
+	 * Imports the nodes from the XML files written by earlier versions into
+	 * a newly created store. The XML files are left in place.
+	 * @param store the store to import into.
+	 * @param folder the folder holding the XML files.
+	 */
+	private void importXmlFiles(ZigbeeNodeStore store, File folder) {
+		File[] files = folder.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return XML_FILE_PATTERN.matcher(name).matches();
 			}
+		});
+		if (files == null || files.length == 0)
+			return;
 
+		logger.info("Importing {} node XML files into the node store.", files.length);
+		XStream stream = createXStream();
+		for (File file : files) {
+			Matcher matcher = XML_FILE_PATTERN.matcher(file.getName());
+			matcher.matches();
+			long nodeId = Long.parseLong(matcher.group(1));
+
+			BufferedReader reader = null;
 			try {
 				reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
-				return (ZigbeeNode)stream.fromXML(reader);
+				ZigbeeNode node = (ZigbeeNode)stream.fromXML(reader);
+				store.put(nodeId, toSnapshot(node));
 			} catch (IOException e) {
-				logger.error("NODE {}: There was an error reading the node config from a file: {}", nodeId, e.getMessage());
+				logger.error("NODE {}: There was an error importing the node config from file {}: {}", nodeId, file.getPath(), e.getMessage());
+			} catch (RuntimeException e) {
+				logger.error("NODE {}: The node config in file {} is invalid: {}", nodeId, file.getPath(), e.getMessage());
 			} finally {
 				if (reader != null)
 					try {
@@ -140,21 +409,32 @@ public class ZigbeeNodeSerializer {
 					} catch (IOException e) {
 					}
 			}
-			return null;
 		}
 	}
-	
+
 	/**
-	 * Deletes the persistence store for the specified node.
-	 * 
-	 * @param nodeId The node ID to remove
-	 * @return true if the file was deleted
+	 * Creates the XStream instance used to read the XML files.
 	 */
-	public boolean DeleteNode(int nodeId) {
-		synchronized (stream) {
-			File file = new File(this.versionedFolderName, String.format("node%d.xml", nodeId));
+	private static XStream createXStream() {
+		XStream stream = new XStream(new StaxDriver());
+		stream.processAnnotations(ZigbeeNode.class);
+		stream.processAnnotations(ZigbeeEndpoint.class);
+		stream.processAnnotations(ZigbeeDeviceClass.class);
+		stream.processAnnotations(ZigbeeCommandClass.class);
+		stream.processAnnotations(CommandClass.class);
+		for (CommandClass commandClass : CommandClass.values()) {
+			Class<? extends ZigbeeCommandClass> cc = commandClass.getCommandClassClass();
+
+			if (cc == null) {
+				continue;
+			}
 
-			return file.delete();
+			stream.processAnnotations(cc);
+			for (Class<?> inner : cc.getDeclaredClasses()) {
+				stream.processAnnotations(inner);
+			}
 		}
+		//stream.processAnnotations(MeterScale.class);
+		return stream;
 	}
 }
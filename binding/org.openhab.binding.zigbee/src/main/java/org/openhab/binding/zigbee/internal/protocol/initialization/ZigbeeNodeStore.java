@@ -0,0 +1,322 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.zigbee.internal.protocol.initialization;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * ZigbeeNodeStore class. Keeps the snapshots of all nodes in a single
+ * append-only file. Every save appends a record; the last record for a
+ * node wins and a delete appends a tombstone. The whole file is read
+ * once when the store is opened, and rewritten without the superseded
+ * records when they outnumber the live ones. A rewrite goes to a
+ * temporary file that atomically replaces the store, so a crash leaves
+ * either the old or the new store.
+ * <p>
+ * File layout: a header holding a magic number and the schema version,
+ * followed by records of the form [length][type][node id][snapshot].
+ * A store written with another schema version is discarded.
+ * @author Brian Crosby
+ * @since 1.5.0
+ */
+public class ZigbeeNodeStore {
+
+	private static final Logger logger = LoggerFactory.getLogger(ZigbeeNodeStore.class);
+
+	private static final int MAGIC = 0x5A424E53;	// "ZBNS"
+	private static final int HEADER_LENGTH = 6;
+	private static final byte RECORD_NODE = 1;
+	private static final byte RECORD_DELETE = 2;
+
+	private final File file;
+	private final int schemaVersion;
+	private final Map<Long, byte[]> snapshots = new HashMap<Long, byte[]>();
+	private int supersededCount = 0;
+	private boolean created = false;
+
+	/**
+	 * Constructor. Opens the store, reading all snapshots in it, or
+	 * creates a new store when the file does not exist or was written
+	 * with another schema version.
+	 * @param file the file the store is kept in.
+	 * @param schemaVersion the version of the snapshot format.
+	 */
+	public ZigbeeNodeStore(File file, int schemaVersion) {
+		this.file = file;
+		this.schemaVersion = schemaVersion;
+
+		if (!load()) {
+			snapshots.clear();
+			supersededCount = 0;
+			created = rewrite();
+		}
+	}
+
+	/**
+	 * Returns whether the store was created when it was opened, i.e.
+	 * there was no usable store file yet.
+	 * @return true if the store is new.
+	 */
+	public boolean isCreated() {
+		return created;
+	}
+
+	/**
+	 * Returns the snapshot of a node.
+	 * @param nodeId the node to get the snapshot for.
+	 * @return the snapshot, or null if the node is not in the store.
+	 */
+	public synchronized byte[] get(long nodeId) {
+		return snapshots.get(nodeId);
+	}
+
+	/**
+	 * Returns the IDs of all nodes in the store.
+	 * @return the node IDs, in ascending order.
+	 */
+	public synchronized Set<Long> getNodeIds() {
+		return new TreeSet<Long>(snapshots.keySet());
+	}
+
+	/**
+	 * Stores the snapshot of a node, replacing any earlier snapshot.
+	 * @param nodeId the node the snapshot belongs to.
+	 * @param snapshot the snapshot.
+	 */
+	public synchronized void put(long nodeId, byte[] snapshot) {
+		if (snapshots.put(nodeId, snapshot) != null)
+			supersededCount++;
+		append(RECORD_NODE, nodeId, snapshot);
+	}
+
+	/**
+	 * Removes the snapshot of a node.
+	 * @param nodeId the node to remove.
+	 * @return true if the node was in the store.
+	 */
+	public synchronized boolean remove(long nodeId) {
+		if (snapshots.remove(nodeId) == null)
+			return false;
+
+		supersededCount += 2;
+		append(RECORD_DELETE, nodeId, new byte[0]);
+		return true;
+	}
+
+	/**
+	 * Reads all records from the store file.
+	 * @return false when the file does not exist or cannot be used.
+	 */
+	private boolean load() {
+		File temp = getTempFile();
+		if (!file.exists()) {
+			// A rewrite was interrupted after the store had gone, continue with its copy.
+			if (!temp.exists() || !replace(temp))
+				return false;
+			logger.warn("Node store {} is missing, recovered it from {}.", file.getPath(), temp.getPath());
+		} else if (temp.exists()) {
+			// The store is intact, the copy of an interrupted rewrite may not be.
+			if (!temp.delete())
+				logger.warn("Unable to remove {}.", temp.getPath());
+		}
+
+		long start = System.currentTimeMillis();
+		long validLength = HEADER_LENGTH;
+		boolean headerRead = false;
+		DataInputStream input = null;
+		try {
+			input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			if (input.readInt() != MAGIC) {
+				logger.warn("Node store {} is not a node store, discarding it.", file.getPath());
+				return false;
+			}
+			int version = input.readUnsignedShort();
+			if (version != schemaVersion) {
+				logger.info("Node store {} has schema version {}, expected {}. Discarding it.", file.getPath(), version, schemaVersion);
+				return false;
+			}
+			headerRead = true;
+
+			while (true) {
+				int length;
+				try {
+					length = input.readInt();
+				} catch (EOFException e) {
+					break;
+				}
+				if (length < 9)
+					throw new IOException("invalid record length " + length);
+				byte type = input.readByte();
+				long nodeId = input.readLong();
+				byte[] snapshot = new byte[length - 9];
+				input.readFully(snapshot);
+
+				if (type == RECORD_NODE) {
+					if (snapshots.put(nodeId, snapshot) != null)
+						supersededCount++;
+				} else if (snapshots.remove(nodeId) != null) {
+					supersededCount += 2;
+				}
+				validLength += 4 + length;
+			}
+			if (file.length() > validLength) {
+				logger.warn("Node store {} ends with a partial record, removing it.", file.getPath());
+				truncate(validLength);
+			}
+		} catch (IOException e) {
+			// Without a complete header there is nothing to keep, the store is created again.
+			if (!headerRead) {
+				logger.warn("Node store {} has no valid header, discarding it: {}", file.getPath(), e.getMessage());
+				return false;
+			}
+			// A record that was cut short, e.g. by a crash while saving. Keep what was read before it.
+			logger.warn("Node store {} is damaged after {} bytes: {}", file.getPath(), validLength, e.getMessage());
+			truncate(validLength);
+		} finally {
+			if (input != null)
+				try {
+					input.close();
+				} catch (IOException e) {
+				}
+		}
+
+		logger.debug("Loaded {} nodes from {} in {}ms.", snapshots.size(), file.getPath(), System.currentTimeMillis() - start);
+		if (supersededCount > snapshots.size())
+			rewrite();
+		return true;
+	}
+
+	/**
+	 * Appends a record to the store file.
+	 */
+	private void append(byte type, long nodeId, byte[] snapshot) {
+		if (supersededCount > snapshots.size() && rewrite())
+			return;
+
+		DataOutputStream output = null;
+		try {
+			output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)));
+			writeRecord(output, type, nodeId, snapshot);
+			output.flush();
+		} catch (IOException e) {
+			logger.error("NODE {}: There was an error writing the node to the node store: {}", nodeId, e.getMessage());
+		} finally {
+			if (output != null)
+				try {
+					output.close();
+				} catch (IOException e) {
+				}
+		}
+	}
+
+	/**
+	 * Writes a new store file holding only the current snapshots. The file
+	 * is written next to the store, synced to disk and then atomically
+	 * moved over it, so the store is never left half written or missing.
+	 * @return true if the file was written.
+	 */
+	private boolean rewrite() {
+		File temp = getTempFile();
+		DataOutputStream output = null;
+		try {
+			FileOutputStream stream = new FileOutputStream(temp);
+			output = new DataOutputStream(new BufferedOutputStream(stream));
+			output.writeInt(MAGIC);
+			output.writeShort(schemaVersion);
+			for (Map.Entry<Long, byte[]> entry : snapshots.entrySet()) {
+				writeRecord(output, RECORD_NODE, entry.getKey(), entry.getValue());
+			}
+			output.flush();
+			stream.getFD().sync();
+			output.close();
+			output = null;
+
+			if (!replace(temp))
+				return false;
+			supersededCount = 0;
+			return true;
+		} catch (IOException e) {
+			logger.error("There was an error writing the node store {}: {}", file.getPath(), e.getMessage());
+			return false;
+		} finally {
+			if (output != null)
+				try {
+					output.close();
+				} catch (IOException e) {
+				}
+		}
+	}
+
+	/**
+	 * Moves a file over the store file, atomically where the file system
+	 * supports it.
+	 * @param source the file to move.
+	 * @return true if the file was moved.
+	 */
+	private boolean replace(File source) {
+		try {
+			try {
+				Files.move(source.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+			} catch (AtomicMoveNotSupportedException e) {
+				logger.debug("Atomic move not supported for {}, replacing it.", file.getPath());
+				Files.move(source.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			return true;
+		} catch (IOException e) {
+			logger.error("There was an error replacing the node store {}: {}", file.getPath(), e.getMessage());
+			return false;
+		}
+	}
+
+	private File getTempFile() {
+		return new File(file.getPath() + ".tmp");
+	}
+
+	private void truncate(long length) {
+		RandomAccessFile raf = null;
+		try {
+			raf = new RandomAccessFile(file, "rw");
+			raf.setLength(length);
+		} catch (IOException e) {
+			logger.error("There was an error repairing the node store {}: {}", file.getPath(), e.getMessage());
+		} finally {
+			if (raf != null)
+				try {
+					raf.close();
+				} catch (IOException e) {
+				}
+		}
+	}
+
+	private static void writeRecord(DataOutputStream output, byte type, long nodeId, byte[] snapshot) throws IOException {
+		output.writeInt(9 + snapshot.length);
+		output.writeByte(type);
+		output.writeLong(nodeId);
+		output.write(snapshot);
+	}
+}
@@ -0,0 +1,32 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.zigbee.internal.protocol.serialmessage;
+
+import org.openhab.binding.zigbee.internal.protocol.SocketMessage;
+import org.openhab.binding.zigbee.internal.protocol.ZigbeeController;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * This class processes the response of the gateway to a SendData request.
+ * The response only acknowledges the request: the controller has already
+ * completed the transaction when it matched the callback ID, and values
+ * reported by the node arrive as attribute reports.
+ * @author Brian Crosby
+ * @since 1.5.0
+ */
+public class SendDataMessageClass extends ZigbeeCommandProcessor {
+	private static final Logger logger = LoggerFactory.getLogger(SendDataMessageClass.class);
+
+	@Override
+	public boolean handleRequest(ZigbeeController zController, SocketMessage lastSentMessage, SocketMessage incomingMessage) {
+		logger.trace("NODE {}: Handle SendData Response", lastSentMessage.getMessageNode());
+		return true;
+	}
+}
@@ -8,9 +8,8 @@
  */
 package org.openhab.binding.zigbee.internal.protocol.serialmessage;
 
-import java.lang.reflect.Constructor;
-import java.lang.reflect.InvocationTargetException;
-import java.util.HashMap;
+import java.util.EnumMap;
+import java.util.Map;
 
 import org.openhab.binding.zigbee.internal.protocol.SerialMessage;
 import org.openhab.binding.zigbee.internal.protocol.SocketMessage;
@@ -36,7 +35,17 @@ import org.slf4j.LoggerFactory;
 public abstract class ZigbeeCommandProcessor {
 	private static final Logger logger = LoggerFactory.getLogger(ZigbeeCommandProcessor.class);
 
-	private static HashMap<SocketMessage.SocketMessageClass, Class<? extends ZigbeeCommandProcessor>> messageMap = null;
+	private static volatile Map<SocketMessage.SocketMessageClass, Factory> factories = new EnumMap<SocketMessage.SocketMessageClass, Factory>(SocketMessage.SocketMessageClass.class);
+
+	static {
+		register(SocketMessage.SocketMessageClass.SendData, new Factory() {
+			@Override
+			public ZigbeeCommandProcessor create() {
+				return new SendDataMessageClass();
+			}
+		});
+	}
+
 	protected boolean transactionComplete = false;
 
 	public ZigbeeCommandProcessor() {
@@ -86,62 +95,53 @@ public abstract class ZigbeeCommandProcessor {
 		return false;
 	}
 
+	/**
+	 * Registers the factory for the processors of a message class.
+	 * Registration is done once, when the processor classes are
+	 * known; the lookup when a message is received is a plain map lookup.
+	 * @param socketMessageClass the message class.
+	 * @param factory the factory creating the processors, or null to
+	 * remove the registration.
+	 */
+	public static synchronized void register(SocketMessage.SocketMessageClass socketMessageClass, Factory factory) {
+		EnumMap<SocketMessage.SocketMessageClass, Factory> updated = new EnumMap<SocketMessage.SocketMessageClass, Factory>(factories);
+		if (factory == null)
+			updated.remove(socketMessageClass);
+		else
+			updated.put(socketMessageClass, factory);
+		factories = updated;
+	}
+
 	/**
 	 * Returns the message processor for the specified message class
 	 * @param serialMessage The message class required to be processed
-	 * @return The message processor
+	 * @return The message processor, or null if there is no processor
+	 * for the message class.
 	 */
 	public static ZigbeeCommandProcessor getMessageDispatcher(SocketMessage.SocketMessageClass socketMessageClass) {
-		if(messageMap == null) {
-			messageMap = new HashMap<SocketMessage.SocketMessageClass, Class<? extends ZigbeeCommandProcessor>>();
-			
-		//	messageMap.put(SocketMessage.SocketMessageClass.GetDeviceList, SocketGetDeviceListClass.class);
-		//	messageMap.put(SocketMessage.SocketMessageClass.SetSwitch, SocketSetSwitchClass.class);
-		//	messageMap.put(SocketMessage.SocketMessageClass.PermitJoin, SocketPermitJoinClass.class);
-			
-		/*	messageMap.put(SerialMessage.SerialMessageClass.AddNodeToNetwork, AddNodeMessageClass.class);
-			messageMap.put(SerialMessage.SerialMessageClass.ApplicationCommandHandler, ApplicationCommandMessageClass.class);
-			messageMap.put(SerialMessage.SerialMessageClass.ApplicationUpdate, ApplicationUpdateMessageClass.class);
-			messageMap.put(SerialMessage.SerialMessageClass.AssignReturnRoute, AssignReturnRouteMessageClass.class);
-			messageMap.put(SerialMessage.SerialMessageClass.AssignSucReturnRoute, AssignSucReturnRouteMessageClass.class);
-			messageMap.put(SerialMessage.SerialMessageClass.DeleteReturnRoute, DeleteReturnRouteMessageClass.class);
-			messageMap.put(SerialMessage.SerialMessageClass.EnableSuc, EnableSucMessageClass.class);
-			messageMap.put(SerialMessage.SerialMessageClass.GetRoutingInfo, GetRoutingInfoMessageClass.class);
-			messageMap.put(SerialMessage.SerialMessageClass.GetVersion, GetVersionMessageClass.class);
-			messageMap.put(SerialMessage.SerialMessageClass.GetSucNodeId, GetSucNodeIdMessageClass.class);
-			messageMap.put(SerialMessage.SerialMessageClass.GetControllerCapabilities, GetControllerCapabilitiesMessageClass.class);
-			messageMap.put(SerialMessage.SerialMessageClass.IdentifyNode, IdentifyNodeMessageClass.class);
-			messageMap.put(SerialMessage.SerialMessageClass.MemoryGetId, MemoryGetIdMessageClass.class);
-			messageMap.put(SerialMessage.SerialMessageClass.RemoveFailedNodeID, RemoveFailedNodeMessageClass.class);
-			messageMap.put(SerialMessage.SerialMessageClass.RemoveNodeFromNetwork, RemoveNodeMessageClass.class);
-			messageMap.put(SerialMessage.SerialMessageClass.RequestNodeInfo, RequestNodeInfoMessageClass.class);
-			messageMap.put(SerialMessage.SerialMessageClass.RequestNodeNeighborUpdate, RequestNodeNeighborUpdateMessageClass.class);
-			messageMap.put(SerialMessage.SerialMessageClass.SendData, SendDataMessageClass.class);
-			messageMap.put(SerialMessage.SerialMessageClass.SerialApiGetCapabilities, SerialApiGetCapabilitiesMessageClass.class);
-			messageMap.put(SerialMessage.SerialMessageClass.SerialApiGetInitData, SerialApiGetInitDataMessageClass.class);
-			messageMap.put(SerialMessage.SerialMessageClass.SetSucNodeID, SetSucNodeMessageClass.class);
-		*/
-		}
+		if (socketMessageClass == null)
+			return null;
 
-		Constructor<? extends ZigbeeCommandProcessor> constructor;
-		try {
-			constructor = messageMap.get(socketMessageClass).getConstructor();
-			return constructor.newInstance();
-		} catch (NoSuchMethodException e) {
-			logger.error("Command processor error: {}", e);
-		} catch (InvocationTargetException e) {
-			logger.error("Command processor error: {}", e);
-		} catch (InstantiationException e) {
-			logger.error("Command processor error: {}", e);
-		} catch (IllegalAccessException e) {
-			logger.error("Command processor error: {}", e);
-		} catch (SecurityException e) {
-			logger.error("Command processor error: {}", e);
-		} catch (IllegalArgumentException e) {
-			logger.error("Command processor error: {}", e);
+		Factory factory = factories.get(socketMessageClass);
+		if (factory == null) {
+			logger.debug("No command processor for message class {}", socketMessageClass);
+			return null;
 		}
-		
-		return null;
+		return factory.create();
+	}
+
+	/**
+	 * Creates the processors for a message class. A processor keeps the
+	 * state of a single exchange with the controller (e.g. whether the
+	 * transaction is complete, or the values it received), so a new one
+	 * is created for every message. Creating it is a plain constructor call.
+	 */
+	public interface Factory {
+		/**
+		 * Creates a processor.
+		 * @return the processor.
+		 */
+		ZigbeeCommandProcessor create();
 	}
 
 	public boolean handleResponse(ZigbeeController zController,
@@ -0,0 +1,274 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.zigbee.internal.protocol;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.util.LinkedList;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link ZigbeeFrameDecoder}.
+ * @author Brian Crosby
+ * @since 1.5.0
+ */
+public class ZigbeeFrameDecoderTest {
+
+	private final ZigbeeFrameView view = new ZigbeeFrameView();
+
+	@Test
+	public void testSingleFrame() throws IOException {
+		ZigbeeFrameDecoder decoder = new ZigbeeFrameDecoder(64);
+		ChunkedChannel channel = new ChunkedChannel();
+		channel.add(frame(7, 1, 2, 3));
+
+		assertEquals(6, decoder.readFrom(channel));
+		assertTrue(decoder.next(view));
+		assertEquals(7, view.getCallbackId());
+		assertArrayEquals(new byte[] { 1, 2, 3 }, view.getPayload());
+		assertEquals(3, view.getPayloadByte(2));
+		assertFalse(decoder.next(view));
+		assertEquals(0, decoder.available());
+	}
+
+	@Test
+	public void testPartialFrame() throws IOException {
+		ZigbeeFrameDecoder decoder = new ZigbeeFrameDecoder(64);
+		ChunkedChannel channel = new ChunkedChannel();
+		byte[] frame = frame(9, 10, 20, 30, 40);
+
+		// The frame arrives one byte at a time, the length field is split too
+		for (int i = 0; i < frame.length - 1; i++) {
+			channel.add(new byte[] { frame[i] });
+			assertEquals(1, decoder.readFrom(channel));
+			assertFalse(decoder.next(view));
+		}
+		channel.add(new byte[] { frame[frame.length - 1] });
+		decoder.readFrom(channel);
+
+		assertTrue(decoder.next(view));
+		assertEquals(9, view.getCallbackId());
+		assertArrayEquals(new byte[] { 10, 20, 30, 40 }, view.getPayload());
+	}
+
+	@Test
+	public void testSeveralFramesInOneRead() throws IOException {
+		ZigbeeFrameDecoder decoder = new ZigbeeFrameDecoder(64);
+		ChunkedChannel channel = new ChunkedChannel();
+		byte[] second = frame(2, 5, 6);
+		channel.add(concat(frame(1, 4), frame(2, 5, 6), frame(3), new byte[] { second[0] }));
+
+		decoder.readFrom(channel);
+		assertTrue(decoder.next(view));
+		assertEquals(1, view.getCallbackId());
+		assertArrayEquals(new byte[] { 4 }, view.getPayload());
+		assertTrue(decoder.next(view));
+		assertEquals(2, view.getCallbackId());
+		assertArrayEquals(new byte[] { 5, 6 }, view.getPayload());
+		assertTrue(decoder.next(view));
+		assertEquals(3, view.getCallbackId());
+		assertEquals(0, view.getPayloadLength());
+
+		// The start of the next frame stays in the buffer
+		assertFalse(decoder.next(view));
+		assertEquals(1, decoder.available());
+	}
+
+	@Test
+	public void testFramesWrapAroundTheBuffer() throws IOException {
+		ZigbeeFrameDecoder decoder = new ZigbeeFrameDecoder(64);
+		ChunkedChannel channel = new ChunkedChannel();
+		Random random = new Random(1);
+
+		// Frames of changing lengths, so frames and length fields straddle the end of the ring
+		for (int i = 0; i < 500; i++) {
+			byte[] payload = new byte[random.nextInt(40)];
+			random.nextBytes(payload);
+			channel.add(frame(i & 0xFF, payload));
+
+			while (!decoder.next(view))
+				assertTrue(decoder.readFrom(channel) > 0);
+			assertEquals(i & 0xFF, view.getCallbackId());
+			assertArrayEquals(payload, view.getPayload());
+		}
+		assertEquals(0, decoder.available());
+	}
+
+	@Test
+	public void testRandomChunks() throws IOException {
+		ZigbeeFrameDecoder decoder = new ZigbeeFrameDecoder(64);
+		ChunkedChannel channel = new ChunkedChannel();
+		Random random = new Random(2);
+
+		byte[][] payloads = new byte[300][];
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		for (int i = 0; i < payloads.length; i++) {
+			payloads[i] = new byte[random.nextInt(100)];
+			random.nextBytes(payloads[i]);
+			stream.write(frame(i & 0xFF, payloads[i]));
+		}
+
+		// The stream is cut at random places, regardless of frame boundaries
+		byte[] data = stream.toByteArray();
+		for (int offset = 0; offset < data.length; ) {
+			int length = Math.min(1 + random.nextInt(150), data.length - offset);
+			byte[] chunk = new byte[length];
+			System.arraycopy(data, offset, chunk, 0, length);
+			channel.add(chunk);
+			offset += length;
+		}
+
+		for (int i = 0; i < payloads.length; i++) {
+			while (!decoder.next(view))
+				assertTrue(decoder.readFrom(channel) > 0);
+			assertEquals(i & 0xFF, view.getCallbackId());
+			assertArrayEquals(payloads[i], view.getPayload());
+		}
+		assertEquals(0, decoder.available());
+	}
+
+	@Test
+	public void testBufferGrowsForLargeFrame() throws IOException {
+		ZigbeeFrameDecoder decoder = new ZigbeeFrameDecoder(64);
+		ChunkedChannel channel = new ChunkedChannel();
+		byte[] payload = new byte[1000];
+		new Random(3).nextBytes(payload);
+
+		// Start with a small frame, so the large one doesn't start at the beginning of the ring
+		channel.add(concat(frame(1, 1, 2, 3), frame(2, payload), frame(3, 9)));
+		int reads = 0;
+		int[] callbackIds = new int[3];
+		byte[] received = null;
+		for (int i = 0; i < 3; i++) {
+			while (!decoder.next(view)) {
+				assertTrue(decoder.readFrom(channel) > 0);
+				reads++;
+			}
+			callbackIds[i] = view.getCallbackId();
+			if (i == 1)
+				received = view.getPayload();
+		}
+
+		assertEquals(1, callbackIds[0]);
+		assertEquals(2, callbackIds[1]);
+		assertEquals(3, callbackIds[2]);
+		assertArrayEquals(payload, received);
+		// A ring that doesn't grow would need a read per 64 bytes
+		assertTrue("reads: " + reads, reads < 10);
+	}
+
+	@Test
+	public void testBufferGrowsWhenFull() throws IOException {
+		ZigbeeFrameDecoder decoder = new ZigbeeFrameDecoder(64);
+		ChunkedChannel channel = new ChunkedChannel();
+		byte[] payload = new byte[100];
+		new Random(4).nextBytes(payload);
+		channel.add(frame(5, payload));
+
+		// Fill the ring without asking for a frame, it must grow on the next read
+		assertEquals(64, decoder.readFrom(channel));
+		assertEquals(39, decoder.readFrom(channel));
+		assertTrue(decoder.next(view));
+		assertEquals(5, view.getCallbackId());
+		assertArrayEquals(payload, view.getPayload());
+	}
+
+	@Test(expected = IOException.class)
+	public void testFrameWithoutCallbackId() throws IOException {
+		ZigbeeFrameDecoder decoder = new ZigbeeFrameDecoder(64);
+		ChunkedChannel channel = new ChunkedChannel();
+		channel.add(new byte[] { 0, 0, 1 });
+		decoder.readFrom(channel);
+		decoder.next(view);
+	}
+
+	@Test
+	public void testEndOfStreamAndReset() throws IOException {
+		ZigbeeFrameDecoder decoder = new ZigbeeFrameDecoder(64);
+		ChunkedChannel channel = new ChunkedChannel();
+		channel.add(new byte[] { 5, 0, 1 });
+		decoder.readFrom(channel);
+		channel.close();
+		assertEquals(-1, decoder.readFrom(channel));
+
+		decoder.reset();
+		assertEquals(0, decoder.available());
+		assertFalse(decoder.next(view));
+	}
+
+	private static byte[] frame(int callbackId, int... payload) {
+		byte[] bytes = new byte[payload.length];
+		for (int i = 0; i < payload.length; i++)
+			bytes[i] = (byte) payload[i];
+		return frame(callbackId, bytes);
+	}
+
+	private static byte[] frame(int callbackId, byte[] payload) {
+		int length = payload.length + 1;
+		byte[] frame = new byte[length + 2];
+		frame[0] = (byte) length;
+		frame[1] = (byte) (length >> 8);
+		frame[2] = (byte) callbackId;
+		System.arraycopy(payload, 0, frame, 3, payload.length);
+		return frame;
+	}
+
+	private static byte[] concat(byte[]... arrays) throws IOException {
+		ByteArrayOutputStream stream = new ByteArrayOutputStream();
+		for (byte[] array : arrays)
+			stream.write(array);
+		return stream.toByteArray();
+	}
+
+	/**
+	 * Channel that returns the data it was given in the chunks it was
+	 * given in, or less when the buffer that is read into is full.
+	 */
+	private static class ChunkedChannel implements ReadableByteChannel {
+		private final LinkedList<ByteBuffer> chunks = new LinkedList<ByteBuffer>();
+		private boolean open = true;
+
+		void add(byte[] chunk) {
+			chunks.add(ByteBuffer.wrap(chunk));
+		}
+
+		@Override
+		public int read(ByteBuffer destination) throws IOException {
+			if (chunks.isEmpty())
+				return open ? 0 : -1;
+
+			ByteBuffer chunk = chunks.getFirst();
+			int length = Math.min(chunk.remaining(), destination.remaining());
+			for (int i = 0; i < length; i++)
+				destination.put(chunk.get());
+			if (!chunk.hasRemaining())
+				chunks.removeFirst();
+			return length;
+		}
+
+		@Override
+		public boolean isOpen() {
+			return open;
+		}
+
+		@Override
+		public void close() {
+			open = false;
+		}
+	}
+}
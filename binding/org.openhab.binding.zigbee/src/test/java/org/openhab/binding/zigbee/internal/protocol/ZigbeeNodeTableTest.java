@@ -0,0 +1,117 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.zigbee.internal.protocol;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ * Tests the {@link ZigbeeNodeTable}.
+ * @author Brian Crosby
+ * @since 1.5.0
+ */
+public class ZigbeeNodeTableTest {
+
+	@Test
+	public void testPutGetRemove() {
+		ZigbeeNodeTable table = new ZigbeeNodeTable();
+		assertTrue(table.isEmpty());
+		assertNull(table.get(1));
+
+		ZigbeeNode node = createNode(1);
+		assertNull(table.put(1, node));
+		assertSame(node, table.get(1));
+		assertEquals(1, table.size());
+		assertFalse(table.isEmpty());
+
+		assertSame(node, table.remove(1));
+		assertNull(table.get(1));
+		assertNull(table.remove(1));
+		assertTrue(table.isEmpty());
+	}
+
+	@Test
+	public void testPutReplacesNode() {
+		ZigbeeNodeTable table = new ZigbeeNodeTable();
+		ZigbeeNode first = createNode(7);
+		ZigbeeNode second = createNode(7);
+		table.put(7, first);
+
+		assertSame(first, table.put(7, second));
+		assertSame(second, table.get(7));
+		assertEquals(1, table.size());
+	}
+
+	@Test
+	public void testManyNodes() {
+		// IEEE addresses, negative IDs and IDs that differ only in their high bits
+		ZigbeeNodeTable table = new ZigbeeNodeTable();
+		Map<Long, ZigbeeNode> expected = new HashMap<Long, ZigbeeNode>();
+		for (int i = 0; i < 200; i++) {
+			long[] ids = { i, 0x00124B0001000000L + i, -i - 1, (long) i << 40 };
+			for (long id : ids) {
+				ZigbeeNode node = createNode(id);
+				table.put(id, node);
+				expected.put(id, node);
+			}
+		}
+		assertTableEquals(expected, table);
+
+		// Every other node leaves, the remaining ones must still be found
+		int n = 0;
+		for (Long id : expected.keySet().toArray(new Long[0])) {
+			if (n++ % 2 == 0)
+				assertSame(expected.remove(id), table.remove(id));
+		}
+		assertTableEquals(expected, table);
+	}
+
+	@Test
+	public void testSnapshotIsNotChanged() {
+		ZigbeeNodeTable table = new ZigbeeNodeTable();
+		ZigbeeNode node = createNode(1);
+		table.put(1, node);
+		table.put(2, createNode(2));
+
+		List<ZigbeeNode> snapshot = table.snapshot();
+		table.remove(1);
+		table.put(3, createNode(3));
+		table.clear();
+
+		assertEquals(2, snapshot.size());
+		assertTrue(snapshot.contains(node));
+		assertTrue(table.isEmpty());
+		assertTrue(table.snapshot().isEmpty());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testNullNodeIsRejected() {
+		new ZigbeeNodeTable().put(1, null);
+	}
+
+	private static void assertTableEquals(Map<Long, ZigbeeNode> expected, ZigbeeNodeTable table) {
+		assertEquals(expected.size(), table.size());
+		assertEquals(expected.size(), table.snapshot().size());
+		for (Map.Entry<Long, ZigbeeNode> entry : expected.entrySet())
+			assertSame(entry.getValue(), table.get(entry.getKey()));
+	}
+
+	private static ZigbeeNode createNode(long nodeId) {
+		return new ZigbeeNode(0, nodeId, null);
+	}
+}
@@ -0,0 +1,183 @@
+/**
+ * Copyright (c) 2010-2014, openHAB.org and others.
+ *
+ * All rights reserved. This program and the accompanying materials
+ * are made available under the terms of the Eclipse Public License v1.0
+ * which accompanies this distribution, and is available at
+ * http://www.eclipse.org/legal/epl-v10.html
+ */
+package org.openhab.binding.zigbee.internal.protocol.initialization;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Tests how the {@link ZigbeeNodeStore} recovers from damaged store files.
+ * @author Brian Crosby
+ * @since 1.5.0
+ */
+public class ZigbeeNodeStoreTest {
+
+	private static final int SCHEMA_VERSION = 2;
+
+	private File file;
+	private File temp;
+
+	@Before
+	public void setUp() throws IOException {
+		file = File.createTempFile("nodes", ".bin");
+		temp = new File(file.getPath() + ".tmp");
+		file.delete();
+	}
+
+	@After
+	public void tearDown() {
+		file.delete();
+		temp.delete();
+	}
+
+	@Test
+	public void testNodesSurviveReopen() {
+		ZigbeeNodeStore store = new ZigbeeNodeStore(file, SCHEMA_VERSION);
+		assertTrue(store.isCreated());
+		store.put(1, new byte[] { 1 });
+		store.put(2, new byte[] { 2, 2 });
+		store.put(1, new byte[] { 1, 1, 1 });
+		store.remove(2);
+
+		store = new ZigbeeNodeStore(file, SCHEMA_VERSION);
+		assertFalse(store.isCreated());
+		assertArrayEquals(new byte[] { 1, 1, 1 }, store.get(1));
+		assertNull(store.get(2));
+		assertEquals(1, store.getNodeIds().size());
+	}
+
+	@Test
+	public void testEmptyFileIsRecreated() throws IOException {
+		assertTrue(file.createNewFile());
+		assertHeaderlessFileIsRecreated();
+	}
+
+	@Test
+	public void testShortHeaderIsRecreated() throws IOException {
+		write(file, false, new byte[] { 0x5A, 0x42, 0x4E });
+		assertHeaderlessFileIsRecreated();
+	}
+
+	@Test
+	public void testOtherSchemaVersionIsDiscarded() {
+		new ZigbeeNodeStore(file, SCHEMA_VERSION).put(1, new byte[] { 1 });
+
+		ZigbeeNodeStore store = new ZigbeeNodeStore(file, SCHEMA_VERSION + 1);
+		assertTrue(store.isCreated());
+		assertNull(store.get(1));
+	}
+
+	@Test
+	public void testPartialRecordIsRemoved() throws IOException {
+		ZigbeeNodeStore store = new ZigbeeNodeStore(file, SCHEMA_VERSION);
+		store.put(1, new byte[] { 1 });
+		store.put(2, new byte[] { 2 });
+		long length = file.length();
+
+		// A record that was cut short by a crash while saving
+		write(file, true, new byte[] { 0, 0, 0, 20, 1, 0, 0 });
+
+		store = new ZigbeeNodeStore(file, SCHEMA_VERSION);
+		assertFalse(store.isCreated());
+		assertEquals(length, file.length());
+		assertArrayEquals(new byte[] { 1 }, store.get(1));
+		assertArrayEquals(new byte[] { 2 }, store.get(2));
+
+		// Records appended after the repair must be readable
+		store.put(3, new byte[] { 3 });
+		store = new ZigbeeNodeStore(file, SCHEMA_VERSION);
+		assertArrayEquals(new byte[] { 3 }, store.get(3));
+		assertEquals(3, store.getNodeIds().size());
+	}
+
+	@Test
+	public void testInvalidRecordLengthKeepsEarlierRecords() throws IOException {
+		new ZigbeeNodeStore(file, SCHEMA_VERSION).put(1, new byte[] { 1 });
+		long length = file.length();
+		write(file, true, new byte[] { 0, 0, 0, 2, 1, 1 });
+
+		ZigbeeNodeStore store = new ZigbeeNodeStore(file, SCHEMA_VERSION);
+		assertFalse(store.isCreated());
+		assertEquals(length, file.length());
+		assertArrayEquals(new byte[] { 1 }, store.get(1));
+	}
+
+	@Test
+	public void testStoreIsRecoveredFromInterruptedRewrite() throws IOException {
+		new ZigbeeNodeStore(file, SCHEMA_VERSION).put(1, new byte[] { 1 });
+
+		// The rewrite was interrupted after the store was removed and before the copy was moved
+		Files.move(file.toPath(), temp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+
+		ZigbeeNodeStore store = new ZigbeeNodeStore(file, SCHEMA_VERSION);
+		assertFalse(store.isCreated());
+		assertFalse(temp.exists());
+		assertArrayEquals(new byte[] { 1 }, store.get(1));
+	}
+
+	@Test
+	public void testCopyOfInterruptedRewriteIsIgnored() throws IOException {
+		new ZigbeeNodeStore(file, SCHEMA_VERSION).put(1, new byte[] { 1 });
+		write(temp, false, new byte[] { 0x5A, 0x42 });
+
+		ZigbeeNodeStore store = new ZigbeeNodeStore(file, SCHEMA_VERSION);
+		assertFalse(temp.exists());
+		assertArrayEquals(new byte[] { 1 }, store.get(1));
+	}
+
+	@Test
+	public void testSupersededRecordsAreCompacted() {
+		ZigbeeNodeStore store = new ZigbeeNodeStore(file, SCHEMA_VERSION);
+		store.put(1, new byte[] { 1 });
+		long length = file.length();
+		for (int i = 0; i < 10; i++)
+			store.put(1, new byte[] { (byte) i });
+
+		assertTrue(file.length() <= 2 * length);
+		store = new ZigbeeNodeStore(file, SCHEMA_VERSION);
+		assertArrayEquals(new byte[] { 9 }, store.get(1));
+	}
+
+	/**
+	 * A store without a complete header must be created again, with a
+	 * header, so that nodes saved to it are found when it is opened again.
+	 */
+	private void assertHeaderlessFileIsRecreated() {
+		ZigbeeNodeStore store = new ZigbeeNodeStore(file, SCHEMA_VERSION);
+		assertTrue(store.isCreated());
+		assertTrue(store.getNodeIds().isEmpty());
+		store.put(1, new byte[] { 1 });
+
+		store = new ZigbeeNodeStore(file, SCHEMA_VERSION);
+		assertFalse(store.isCreated());
+		assertArrayEquals(new byte[] { 1 }, store.get(1));
+	}
+
+	private static void write(File file, boolean append, byte[] data) throws IOException {
+		FileOutputStream output = new FileOutputStream(file, append);
+		try {
+			output.write(data);
+		} finally {
+			output.close();
+		}
+	}
+}